@@ -0,0 +1,232 @@
+package cartoland;
+
+import cartoland.utilities.EventLog;
+import cartoland.utilities.LogArchiver;
+import cartoland.utilities.LongMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * {@code EventLogQuery} is a command line tool that runs aggregate queries over the {@code logs/<date>.events} files
+ * written by {@link EventLog}. Every file is memory-mapped and scanned record by record, and nothing but the fixed-size
+ * records are read, so months of logs can be queried in a moment. Files compressed by {@link LogArchiver} are
+ * decompressed into memory instead. Run it with:
+ * <pre>
+ * java -cp Cartoland.jar cartoland.EventLogQuery &lt;users|commands|latency|count&gt; [options]
+ * </pre>
+ * Options are {@code --from <date>}, {@code --to <date>}, {@code --kind <command|context_menu|direct_message>},
+ * {@code --command <name>}, {@code --user <ID>}, {@code --limit <n>} and {@code --dir <folder>}. By default it queries
+ * the last 7 days in {@code logs/}. For example, "who used /lottery bet most last week" is
+ * {@code users --command "lottery bet"}.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public class EventLogQuery
+{
+	private static final String USAGE = """
+			Usage: EventLogQuery <users|commands|latency|count> [options]
+			  --from <yyyy-MM-dd>   first day, default 6 days before --to
+			  --to <yyyy-MM-dd>     last day, default today
+			  --kind <kind>         command, context_menu or direct_message
+			  --command <name>      full command name, such as "lottery bet"
+			  --user <ID>           only events of this user
+			  --limit <n>           rows to print, default 20
+			  --dir <folder>        folder of the .events files, default logs""";
+
+	private byte kind = -1; //-1代表全部
+	private long userID = 0L; //0代表全部
+	private byte[] command; //null代表全部
+	private int limit = 20;
+	private String dir = "logs";
+	private LocalDate from;
+	private LocalDate to = LocalDate.now();
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.out.println(USAGE);
+			return;
+		}
+
+		EventLogQuery query = new EventLogQuery();
+		for (int i = 1; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+			switch (args[i])
+			{
+				case "--from" -> query.from = LocalDate.parse(value);
+				case "--to" -> query.to = LocalDate.parse(value);
+				case "--kind" -> query.kind = switch (value)
+				{
+					case "command" -> EventLog.COMMAND;
+					case "context_menu" -> EventLog.CONTEXT_MENU;
+					case "direct_message" -> EventLog.DIRECT_MESSAGE;
+					default -> throw new IllegalArgumentException("Unknown kind: " + value);
+				};
+				case "--command" -> query.command = value.getBytes(StandardCharsets.UTF_8);
+				case "--user" -> query.userID = Long.parseLong(value);
+				case "--limit" -> query.limit = Integer.parseInt(value);
+				case "--dir" -> query.dir = value;
+				default ->
+				{
+					System.out.println(USAGE);
+					return;
+				}
+			}
+		}
+		if (query.from == null)
+			query.from = query.to.minusDays(6L);
+
+		switch (args[0])
+		{
+			case "users" -> query.users();
+			case "commands" -> query.commands();
+			case "latency" -> query.latency();
+			case "count" -> query.count();
+			default -> System.out.println(USAGE);
+		}
+	}
+
+	private void users() throws IOException
+	{
+		LongMap<long[]> counts = new LongMap<>();
+		scan((records, offset) -> counts.computeIfAbsent(records.getLong(offset + EventLog.USER_ID), userID -> new long[1])[0]++);
+
+		List<long[]> rows = new ArrayList<>(counts.size()); //[userID, count]
+		counts.forEach((userID, count) -> rows.add(new long[] { userID, count[0] }));
+		rows.sort((row1, row2) -> Long.compare(row2[1], row1[1]));
+		System.out.printf("%-20s %10s%n", "user", "count");
+		for (long[] row : rows.subList(0, Math.min(limit, rows.size())))
+			System.out.printf("%-20d %10d%n", row[0], row[1]);
+	}
+
+	private void commands() throws IOException
+	{
+		Map<String, long[]> stats = commandStats();
+		List<Map.Entry<String, long[]>> rows = new ArrayList<>(stats.entrySet());
+		rows.sort((row1, row2) -> Long.compare(row2.getValue()[0], row1.getValue()[0]));
+		System.out.printf("%-30s %10s%n", "command", "count");
+		for (Map.Entry<String, long[]> row : rows.subList(0, Math.min(limit, rows.size())))
+			System.out.printf("%-30s %10d%n", row.getKey(), row.getValue()[0]);
+	}
+
+	private void latency() throws IOException
+	{
+		Map<String, long[]> stats = commandStats();
+		List<Map.Entry<String, long[]>> rows = new ArrayList<>(stats.entrySet());
+		rows.sort((row1, row2) -> Long.compare(row2.getValue()[2], row1.getValue()[2])); //最慢的在前面
+		System.out.printf("%-30s %10s %12s %12s%n", "command", "count", "avg(ms)", "max(ms)");
+		for (Map.Entry<String, long[]> row : rows.subList(0, Math.min(limit, rows.size())))
+		{
+			long[] stat = row.getValue();
+			System.out.printf("%-30s %10d %12.3f %12.3f%n", row.getKey(), stat[0], stat[1] / 1000.0 / stat[0], stat[2] / 1000.0);
+		}
+	}
+
+	private void count() throws IOException
+	{
+		long[] count = { 0L };
+		scan((records, offset) -> count[0]++);
+		System.out.println(count[0]);
+	}
+
+	/**
+	 * Collect the count, the sum of latency and the max latency of every command name.
+	 */
+	private Map<String, long[]> commandStats() throws IOException
+	{
+		Map<String, long[]> stats = new HashMap<>();
+		byte[] name = new byte[EventLog.MAX_NAME_LENGTH];
+		scan((records, offset) ->
+		{
+			int nameLength = records.get(offset + EventLog.NAME_LENGTH) & 0xFF;
+			records.get(offset + EventLog.NAME, name, 0, nameLength);
+			long[] stat = stats.computeIfAbsent(new String(name, 0, nameLength, StandardCharsets.UTF_8), key -> new long[3]);
+			int latency = records.getInt(offset + EventLog.LATENCY);
+			stat[0]++;
+			stat[1] += latency;
+			stat[2] = Math.max(stat[2], latency);
+		});
+		return stats;
+	}
+
+	/**
+	 * Map the file of every day between {@link #from} and {@link #to}, and pass every record that matches the filters
+	 * to {@code visitor}.
+	 */
+	private void scan(RecordVisitor visitor) throws IOException
+	{
+		for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1L))
+		{
+			Path path = Paths.get(dir, date + EventLog.FILE_EXTENSION);
+			if (!Files.exists(path)) //已經被壓縮了 或那天沒有紀錄
+			{
+				byte[] content = LogArchiver.readCompressed(path);
+				if (content != null && content.length >= EventLog.HEADER_SIZE && ByteBuffer.wrap(content).getInt(0) == EventLog.MAGIC)
+					scan(ByteBuffer.wrap(content), visitor);
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+			{
+				long size = channel.size();
+				if (size < EventLog.HEADER_SIZE)
+					continue;
+				MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+				if (records.getInt(0) != EventLog.MAGIC)
+				{
+					System.err.println(path + " is not an event log.");
+					continue;
+				}
+				scan(records, visitor);
+			}
+		}
+	}
+
+	private void scan(ByteBuffer records, RecordVisitor visitor)
+	{
+		int end = records.limit() - EventLog.RECORD_SIZE; //最後一筆可能還沒寫完
+		for (int offset = EventLog.HEADER_SIZE; offset <= end; offset += EventLog.RECORD_SIZE)
+			if (matches(records, offset))
+				visitor.visit(records, offset);
+	}
+
+	private boolean matches(ByteBuffer records, int offset)
+	{
+		if (kind != -1 && records.get(offset + EventLog.KIND) != kind)
+			return false;
+		if (userID != 0L && records.getLong(offset + EventLog.USER_ID) != userID)
+			return false;
+		if (command == null)
+			return true;
+		if ((records.get(offset + EventLog.NAME_LENGTH) & 0xFF) != command.length)
+			return false;
+		for (int i = 0; i < command.length; i++) //直接比較位元組 不必轉換成字串
+			if (records.get(offset + EventLog.NAME + i) != command[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * {@code RecordVisitor} receives a record that matches the filters of the query.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@FunctionalInterface
+	private interface RecordVisitor
+	{
+		void visit(ByteBuffer records, int offset);
+	}
+}
@@ -1,15 +1,19 @@
 package cartoland.commands;
 
+import cartoland.utilities.Algorithm;
+import cartoland.utilities.CommandBlocksLedger;
 import cartoland.utilities.CommonFunctions;
 import cartoland.utilities.JsonHandle;
 import cartoland.utilities.TimerHandle;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -25,6 +29,7 @@ public class AdminCommand implements ICommand
 	{
 		subCommands.put("mute", new MuteSubCommand());
 		subCommands.put("temp_ban", new TempBanSubCommand());
+		subCommands.put("history", new HistorySubCommand());
 	}
 
 	@Override
@@ -224,31 +229,82 @@ public class AdminCommand implements ICommand
 
 			String reason = event.getOption("reason", CommonFunctions.getAsString); //理由
 
+			long durationMillis = durationHours > Long.MAX_VALUE / (60 * 60 * 1000) ? Long.MAX_VALUE : durationHours * 60 * 60 * 1000;
+			long pardonTime = Algorithm.safeAdd(System.currentTimeMillis(), durationMillis); //計算解除時間 溢位的話是Long.MAX_VALUE
+
 			String bannedTime = buildDurationString(duration) + ' ' + JsonHandle.getStringFromJsonKey(userID, "admin.temp_ban.unit_" + unit);
 			String replyString = JsonHandle.getStringFromJsonKey(userID, "admin.temp_ban.success")
-					.formatted(
-							target.getAsMention(), bannedTime,
-							System.currentTimeMillis() / 1000 + durationHours * 60 * 60); //直到<t:> 以秒為單位
-							//TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + TimeUnit.HOURS.toSeconds(durationHours)
+					.formatted(target.getAsMention(), bannedTime, pardonTime / 1000); //直到<t:> 以秒為單位
 			if (reason != null)
 				replyString += JsonHandle.getStringFromJsonKey(userID, "admin.temp_ban.reason").formatted(reason);
 
 			event.reply(replyString).queue(); //回覆
 
 			//回覆完再開始動作 避免超過三秒限制
-			long pardonTime = TimerHandle.getHoursFrom1970() + durationHours; //計算解除時間
-			//TimeUnit.MILLISECONDS.toHours(System.currentTimeMillis())
-			if (pardonTime <= 0) //溢位
-				pardonTime = Long.MAX_VALUE;
-
 			Guild guild = event.getGuild();
 			if (guild == null) //這是一個伺服器限定指令 應該不會通過才對
 				return;
 			long[] banData = new long[2];
 			banData[TimerHandle.BANNED_TIME] = pardonTime;
 			banData[TimerHandle.BANNED_SERVER] = guild.getIdLong();
-			TimerHandle.tempBanList.put(target.getIdLong(), banData); //紀錄ban了這個人
+			TimerHandle.addTempBan(target.getIdLong(), banData); //紀錄ban了這個人
 			guild.ban(target, 0, TimeUnit.SECONDS).reason(reason + '\n' + bannedTime).queue();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * {@code HistorySubCommand} shows where the command blocks of a user came from, page by page, from the newest
+	 * change to the oldest. Only the records of that user are read from {@link CommandBlocksLedger}.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	private static class HistorySubCommand implements ICommand
+	{
+		private static final int PAGE_SIZE = 15; //一頁有幾筆紀錄
+
+		@Override
+		public void commandProcess(SlashCommandInteractionEvent event)
+		{
+			long userID = event.getUser().getIdLong();
+			Member member = event.getMember();
+			if (member == null)
+			{
+				event.reply(JsonHandle.getStringFromJsonKey(userID, "admin.history.can_t_check")).setEphemeral(true).queue();
+				return;
+			}
+			if (!member.hasPermission(Permission.MODERATE_MEMBERS))
+			{
+				event.reply(JsonHandle.getStringFromJsonKey(userID, "admin.history.no_permission")).setEphemeral(true).queue();
+				return;
+			}
+
+			User target = event.getOption("target", CommonFunctions.getAsUser);
+			if (target == null)
+			{
+				event.reply("Impossible, this is required!").queue();
+				return;
+			}
+			Integer pageBox = event.getOption("page", CommonFunctions.getAsInt);
+			int page = pageBox != null && pageBox > 0 ? pageBox : 1; //page從1開始
+
+			List<CommandBlocksLedger.Event> events = CommandBlocksLedger.history(target.getIdLong(), (page - 1) * PAGE_SIZE, PAGE_SIZE);
+			if (events.isEmpty())
+			{
+				event.reply(JsonHandle.getStringFromJsonKey(userID, "admin.history.empty").formatted(target.getEffectiveName(), page)).setEphemeral(true).queue();
+				return;
+			}
+
+			StringBuilder replyBuilder = new StringBuilder(JsonHandle.getStringFromJsonKey(userID, "admin.history.title").formatted(target.getEffectiveName(), page));
+			for (CommandBlocksLedger.Event ledgerEvent : events)
+			{
+				replyBuilder.append("\n<t:").append(ledgerEvent.getTime() / 1000L).append(":f> `")
+						.append(ledgerEvent.getTypeName()).append("` ")
+						.append("%+,d → %,d".formatted(ledgerEvent.getDelta(), ledgerEvent.getBalance()));
+				if (ledgerEvent.getCounterparty() != 0L) //轉帳的對象
+					replyBuilder.append(" <@").append(ledgerEvent.getCounterparty()).append('>');
+			}
+			event.reply(replyBuilder.toString()).setEphemeral(true).queue(); //不會提及到別人
+		}
+	}
+}
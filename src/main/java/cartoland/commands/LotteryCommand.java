@@ -6,10 +6,11 @@ import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 
+import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.regex.Pattern;
 
 /**
@@ -22,7 +23,7 @@ import java.util.regex.Pattern;
  */
 public class LotteryCommand implements ICommand
 {
-	private final Map<String, ICommand> subCommands = new HashMap<>(4);
+	private final Map<String, ICommand> subCommands = new HashMap<>(5);
 
 	public LotteryCommand()
 	{
@@ -30,6 +31,7 @@ public class LotteryCommand implements ICommand
 		subCommands.put("bet", new BetSubCommand());
 		subCommands.put("ranking", new RankingSubCommand());
 		subCommands.put("daily", new DailySubCommand());
+		subCommands.put("history", new HistorySubCommand());
 	}
 
 	@Override
@@ -89,7 +91,6 @@ public class LotteryCommand implements ICommand
 	 */
 	private static class BetSubCommand implements ICommand
 	{
-		private final Random random = new Random(); //不使用Algorithm.chance
 		private final Pattern numberRegex = Pattern.compile("\\d{1,18}"); //防止輸入超過Long.MAX_VALUE
 		private final Pattern percentRegex = Pattern.compile("\\d{1,4}%"); //防止輸入超過Short.MAX_VALUE
 		private static final long MAXIMUM = 1000000L;
@@ -148,16 +149,21 @@ public class LotteryCommand implements ICommand
 
 			long afterBet;
 			String result;
-			boolean win = random.nextBoolean();
+			boolean win = Algorithm.generator().nextBoolean(); //不使用Algorithm.chance 一半一半就好
 
 			if (win) //賭贏
 			{
-				afterBet = Algorithm.safeAdd(nowHave, bet);
+				afterBet = lotteryData.addBlocks(bet, CommandBlocksLedger.BET_WIN);
 				result = JsonHandle.getStringFromJsonKey(userID, "lottery.bet.win");
 			}
 			else //賭輸
 			{
-				afterBet = nowHave - bet;
+				afterBet = lotteryData.tryTakeBlocks(bet, CommandBlocksLedger.BET_LOSS);
+				if (afterBet == -1L) //在檢查之後 方塊已經被別的指令花掉了
+				{
+					event.reply(JsonHandle.getStringFromJsonKey(userID, "lottery.bet.not_enough").formatted(bet, lotteryData.getBlocks())).queue();
+					return;
+				}
 				result = JsonHandle.getStringFromJsonKey(userID, "lottery.bet.lose");
 			}
 
@@ -165,10 +171,9 @@ public class LotteryCommand implements ICommand
 			boolean showHand = bet == nowHave; //梭哈
 			if (showHand)
 				replyMessage += "\n" + (win ? "https://www.youtube.com/watch?v=RbMjxQEZ1IQ" : JsonHandle.getStringFromJsonKey(userID, "lottery.bet.play_with_your_limit"));
-			event.reply(replyMessage).queue(); //盡快回覆比較好
+			event.reply(replyMessage).queue();
 
 			lotteryData.addGame(win, showHand); //紀錄勝場和是否梭哈
-			lotteryData.setBlocks(afterBet); //設定方塊
 		}
 	}
 
@@ -181,23 +186,30 @@ public class LotteryCommand implements ICommand
 	 */
 	private static class RankingSubCommand implements ICommand
 	{
-		private List<CommandBlocksHandle.LotteryData> forSort; //需要排序的list
-		private String lastReply; //上一次回覆過的字串
-		private int lastPage = -1; //上一次查看的頁面
-		private long lastUser = -1L; //上一次使用指令的使用者
+		private static final int AROUND = 2; //自己不在這一頁時 顯示前後各幾位
+		private static final int CACHE_SIZE = Integer.getInteger("cartoland.ranking.cache_size", 64); //最多記住幾頁
+		private static final long MAX_STALENESS = Long.getLong("cartoland.ranking.max_staleness", 5000L); //毫秒 和訊息獎勵的間隔一樣
+		//語言和頁數為key 排好的頁面為value 最久沒用的會先被丟掉
+		private final Map<String, RenderedPage> pages = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RenderedPage> eldest)
+			{
+				return size() > CACHE_SIZE;
+			}
+		};
 
 		@Override
 		public void commandProcess(SlashCommandInteractionEvent event)
 		{
 			long userID = event.getUser().getIdLong();
-			boolean sameUser = userID == lastUser;
-			lastUser = userID;
 
 			Integer pageBox = event.getOption("page", CommonFunctions.getAsInt);
 			int page = pageBox != null ? pageBox : 1; //page從1開始
+			//不在這裡加上訊息獎勵 否則每次查詢都會改變排名 頁面永遠用不到快取 其他人的訊息獎勵最多晚一次發放的間隔
 
 			//假設總共有27位使用者 (27 - 1) / 10 + 1 = 3 總共有3頁
-			int maxPage = (CommandBlocksHandle.size() - 1) / 10 + 1;
+			int maxPage = (RankingHandle.size() - 1) / 10 + 1;
 			if (page > maxPage) //超出範圍
 				page = maxPage; //同上例子 就改成顯示第3頁
 			else if (page < 0) //-1 = 最後一頁, -2 = 倒數第二頁 負太多就變第一頁
@@ -205,102 +217,104 @@ public class LotteryCommand implements ICommand
 			else if (page == 0)
 				page = 1;
 
-			if (!CommandBlocksHandle.changed) //指令方塊 距離上一次排序 沒有任何變動
+			long version = RankingHandle.getVersion(); //要在建立頁面之前讀取 建立途中有變動的話 下次會再重新建立
+			String key = JsonHandle.getLanguage(userID) + ':' + page;
+			RenderedPage rendered;
+			synchronized (pages)
+			{
+				rendered = pages.get(key);
+			}
+			if (rendered == null || (rendered.version != version && System.currentTimeMillis() - rendered.time >= MAX_STALENESS)) //排名有變動過 而且頁面夠舊了
 			{
-				if (page != lastPage || !sameUser) //有換頁 或 不是同一位使用者
-					lastReply = replyString(userID, page, maxPage); //重新建立字串
-				event.reply(lastReply).queue();
-				return; //省略排序
+				rendered = new RenderedPage(userID, page, maxPage, version);
+				synchronized (pages)
+				{
+					pages.put(key, rendered);
+				}
 			}
 
-			forSort = CommandBlocksHandle.toArrayList();
+			//只有自己的排名和自己附近的人需要每次建立
+			CommandBlocksHandle.LotteryData myData = CommandBlocksHandle.getLotteryData(userID);
+			long blocks = myData.getBlocks(); //本使用者擁有的方塊數
+			StringBuilder reply = new StringBuilder(rendered.head.length() + rendered.rows.length() + rendered.foot.length() + 256);
+			reply.append(rendered.head)
+					.append(JsonHandle.getStringFromJsonKey(userID, "lottery.ranking.my_rank").formatted(RankingHandle.competitionRankOf(blocks), blocks))
+					.append("\n\n")
+					.append(rendered.rows);
 
-			//排序
-			forSort.sort((user1, user2) -> Long.compare(user2.getBlocks(), user1.getBlocks())); //方塊較多的在前面 方塊較少的在後面
+			int startElement = (page - 1) * 10; //開始的那個元素
+			int myPosition = RankingHandle.positionOf(myData);
+			if (myPosition < startElement || myPosition >= startElement + 10) //自己不在這一頁 就顯示自己附近的人
+			{
+				reply.append("...\n");
+				appendRows(reply, RankingHandle.getRankingAround(myData, AROUND), userID);
+			}
 
-			event.reply(lastReply = replyString(userID, page, maxPage)).queue();
-			CommandBlocksHandle.changed = false; //已經排序過了
-			lastPage = page; //換過頁了
+			event.reply(reply.append(rendered.foot).toString()).queue();
 		}
 
-		private final StringBuilder rankBuilder = new StringBuilder();
-
 		/**
-		 * Builds a page in the ranking list of command blocks.
+		 * Append rows of the ranking. The command blocks and the rank of every row were taken together with the order
+		 * of the rows, so a row never shows more command blocks than the row above it.
 		 *
-		 * @param userID The ID of the user who used the command.
-		 * @param page The page that the command user want to check.
-		 * @param maxPage Maximum of pages that the ranking list has.
-		 * @return A page of the ranking list into a single string.
-		 * @since 1.6
+		 * @param builder The builder that the rows are going to be appended.
+		 * @param rows The rows in the ranking order.
+		 * @param userID The ID of the user whose name is highlighted, or 0 if no one.
+		 * @since 2.2
 		 * @author Alex Cai
 		 */
-		private String replyString(long userID, int page, int maxPage)
+		private static void appendRows(StringBuilder builder, List<RankingHandle.Row> rows, long userID)
 		{
-			//page 從1開始
-			int startElement = (page - 1) * 10; //開始的那個元素
-			int endElement = startElement + 10; //結束的那個元素
-			if (endElement > forSort.size()) //結束的那個元素比list總長還長
-				endElement = forSort.size();
-
-			List<CommandBlocksHandle.LotteryData> ranking = forSort.subList(startElement, endElement); //要查看的那一頁
-			CommandBlocksHandle.LotteryData myData = CommandBlocksHandle.getLotteryData(userID);
-			long blocks = myData.getBlocks(); //本使用者擁有的方塊數
-
-			Guild cartoland = Cartoland.getJDA().getGuildById(IDs.CARTOLAND_SERVER_ID);
-			rankBuilder.setLength(0);
-			rankBuilder.append("```ansi\n")
-					.append(JsonHandle.getStringFromJsonKey(userID, "lottery.ranking.title").formatted(cartoland != null ? cartoland.getName() : ""))
-					.append("\n--------------------\n")
-					.append(JsonHandle.getStringFromJsonKey(userID, "lottery.ranking.my_rank").formatted(forSortBinarySearch(blocks), blocks))
-					.append("\n\n");
-
-			for (int i = 0, add = page * 10 - 9, rankingSize = ranking.size(); i < rankingSize; i++) //add = (page - 1) * 10 + 1
+			for (RankingHandle.Row row : rows)
 			{
-				CommandBlocksHandle.LotteryData rank = ranking.get(i);
-				rankBuilder.append("[\u001B[36m")
-						.append(String.format("%03d", add + i))
+				CommandBlocksHandle.LotteryData lotteryData = row.getLotteryData();
+				int rank = row.getRank();
+				builder.append("[\u001B[36m");
+				if (rank < 100) //補0到三位數
+					builder.append(rank < 10 ? "00" : "0");
+				builder.append(rank)
 						.append("\u001B[0m]\t")
-						.append(rank.getName())
+						.append(lotteryData.getUserID() == userID ? "\u001B[33m" : "") //自己的名字用黃色
+						.append(lotteryData.getName())
+						.append(lotteryData.getUserID() == userID ? "\u001B[0m" : "")
 						.append(": \u001B[36m")
-						.append(String.format("%,d", rank.getBlocks()))
+						.append(String.format("%,d", row.getBlocks()))
 						.append("\u001B[0m\n");
 			}
-
-			return rankBuilder.append("\n--------------------\n")
-					.append(page)
-					.append(" / ")
-					.append(maxPage)
-					.append("\n```")
-					.toString();
 		}
 
 		/**
-		 * Use binary search to find the index of the user that has these blocks in the {@link #forSort} list, in order to find
-		 * the ranking of a user. These code was stole... was <i>"borrowed"</i> from {@link java.util.Collections#binarySearch(List, Object)}
+		 * A page of the ranking list of command blocks that was built once and can be reused until the ranking changes,
+		 * or for up to {@code cartoland.ranking.max_staleness} milliseconds after it was built even if the ranking has
+		 * changed, since the message rewards change the ranking every few seconds anyway. The "my rank" line is not
+		 * included, since it is different for every user and always up to date.
 		 *
-		 * @param blocks The number of blocks that are used to match in the {@link #forSort} list.
-		 * @return The index of the user that has these blocks in the {@link #forSort} list and add 1, because though an
-		 * array is 0-indexed, but the ranking that are going to display should be 1-indexed.
-		 * @since 2.0
+		 * @since 2.2
 		 * @author Alex Cai
 		 */
-		private int forSortBinarySearch(long blocks)
+		private static class RenderedPage
 		{
-			long midValue;
-			for (int low = 0, middle, high = forSort.size() - 1; low <= high;)
+			private final long version; //建立時的排名版本
+			private final long time = System.currentTimeMillis(); //建立的時間
+			private final String head; //標題
+			private final String rows; //這一頁的使用者們
+			private final String foot; //頁數
+
+			private RenderedPage(long userID, int page, int maxPage, long version)
 			{
-				middle = (low + high) >>> 1;
-				midValue = forSort.get(middle).getBlocks();
-
-				if (midValue < blocks)
-					high = middle - 1;
-				else if (midValue > blocks)
-					low = middle + 1;
-				else
-					return middle + 1;
+				this.version = version;
+				Guild cartoland = Cartoland.getJDA().getGuildById(IDs.CARTOLAND_SERVER_ID);
+				head = "```ansi\n" + JsonHandle.getStringFromJsonKey(userID, "lottery.ranking.title").formatted(cartoland != null ? cartoland.getName() : "") +
+						"\n--------------------\n";
+
+				//page 從1開始
+				int startElement = (page - 1) * 10; //開始的那個元素
+				StringBuilder rowsBuilder = new StringBuilder(512);
+				appendRows(rowsBuilder, RankingHandle.getRanking(startElement, startElement + 10), 0L);
+				rows = rowsBuilder.toString();
+
+				foot = "\n--------------------\n" + page + " / " + maxPage + "\n```";
 			}
-			return 0;
 		}
 	}
 
@@ -351,4 +365,60 @@ public class LotteryCommand implements ICommand
 			event.reply(builder.toString()).queue();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * {@code HistorySubCommand} is a class that handles one of the sub commands of {@code /lottery} command, which is
+	 * {@code /lottery history}. It shows the command blocks and the rank of a user in the daily snapshots of
+	 * {@link LeaderboardHistory}.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	private static class HistorySubCommand implements ICommand
+	{
+		private static final int MAX_DAYS = 30; //一則訊息放得下的天數
+
+		@Override
+		public void commandProcess(SlashCommandInteractionEvent event)
+		{
+			User user = event.getUser();
+			long userID = user.getIdLong();
+
+			User target = event.getOption("target", CommonFunctions.getAsUser);
+			if (target == null) //沒有填 預設是自己
+				target = user;
+			else if (target.isBot() || target.isSystem())
+			{
+				event.reply(JsonHandle.getStringFromJsonKey(userID, "lottery.get.invalid_get")).queue();
+				return;
+			}
+			Integer daysBox = event.getOption("days", CommonFunctions.getAsInt);
+			int days = daysBox != null ? Math.max(1, Math.min(daysBox, MAX_DAYS)) : 7; //預設一週
+
+			List<long[]> trend = LeaderboardHistory.trend(target.getIdLong(), days);
+			if (trend.isEmpty()) //還沒有任何快照
+			{
+				event.reply(JsonHandle.getStringFromJsonKey(userID, "lottery.history.empty")).queue();
+				return;
+			}
+
+			CommandBlocksHandle.LotteryData targetLotteryData = CommandBlocksHandle.getLotteryData(target.getIdLong());
+			StringBuilder replyBuilder = new StringBuilder(JsonHandle.getStringFromJsonKey(userID, "lottery.history.title")
+																   .formatted(targetLotteryData.getName(), trend.size())).append("\n```\n");
+			long previousBlocks = -1L;
+			for (long[] day : trend) //day[0]為日期 day[1]為方塊數 day[2]為名次
+			{
+				replyBuilder.append(LocalDate.ofEpochDay(day[0])).append("  ").append("%,15d  #%-6d".formatted(day[1], day[2]));
+				if (previousBlocks != -1L)
+					replyBuilder.append("%+,d".formatted(day[1] - previousBlocks)); //和前一天比較
+				replyBuilder.append('\n');
+				previousBlocks = day[1];
+			}
+			long blocks = targetLotteryData.getBlocks();
+			replyBuilder.append(JsonHandle.getStringFromJsonKey(userID, "lottery.history.now")).append("  ")
+					.append("%,15d  #%-6d%+,d".formatted(blocks, RankingHandle.competitionRankOf(blocks), blocks - previousBlocks))
+					.append("\n```");
+			event.reply(replyBuilder.toString()).queue();
+		}
+	}
+}
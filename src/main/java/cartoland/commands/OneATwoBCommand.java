@@ -4,6 +4,7 @@ import cartoland.events.CommandUsage;
 import cartoland.mini_games.IMiniGame;
 import cartoland.mini_games.OneATwoBGame;
 import cartoland.utilities.CommandBlocksHandle;
+import cartoland.utilities.CommandBlocksLedger;
 import cartoland.utilities.JsonHandle;
 import cartoland.utilities.CommonFunctions;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -87,7 +88,7 @@ public class OneATwoBCommand implements ICommand
 		if (second <= MAX_MINUTE * 60L && guesses <= MAX_GUESSES)
 		{
 			replyString += JsonHandle.getStringFromJsonKey(userID, "one_a_two_b.reward").formatted(MAX_MINUTE, MAX_GUESSES, REWARD);
-			CommandBlocksHandle.getLotteryData(userID).addBlocks(REWARD);
+			CommandBlocksHandle.getLotteryData(userID).addBlocks(REWARD, CommandBlocksLedger.GAME_REWARD);
 		}
 
 		event.reply(replyString).queue();
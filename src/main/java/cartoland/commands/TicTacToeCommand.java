@@ -4,6 +4,7 @@ import cartoland.events.CommandUsage;
 import cartoland.mini_games.IMiniGame;
 import cartoland.mini_games.TicTacToeGame;
 import cartoland.utilities.CommandBlocksHandle;
+import cartoland.utilities.CommandBlocksLedger;
 import cartoland.utilities.CommonFunctions;
 import cartoland.utilities.JsonHandle;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -136,7 +137,7 @@ public class TicTacToeCommand implements ICommand
 			{
 				int reward = REWARDS[ticTacToe.getDifficulty() - 1]; //簡單從1開始
 				event.reply(JsonHandle.getStringFromJsonKey(userID, "tic_tac_toe.win").formatted(reward) + ticTacToe.getBoard()).queue();
-				CommandBlocksHandle.getLotteryData(userID).addBlocks(reward);
+				CommandBlocksHandle.getLotteryData(userID).addBlocks(reward, CommandBlocksLedger.GAME_REWARD);
 				games.remove(userID);
 				return;
 			}
@@ -155,7 +156,7 @@ public class TicTacToeCommand implements ICommand
 			{
 				event.reply(JsonHandle.getStringFromJsonKey(userID, "tic_tac_toe.lose").formatted(PUNISH) + ticTacToe.getBoard()).queue();
 				CommandBlocksHandle.LotteryData lotteryData = CommandBlocksHandle.getLotteryData(userID);
-				lotteryData.subBlocks(PUNISH); //懲罰PUNISH個指令方塊
+				lotteryData.subBlocks(PUNISH, CommandBlocksLedger.PUNISHMENT); //懲罰PUNISH個指令方塊
 				games.remove(userID);
 				return;
 			}
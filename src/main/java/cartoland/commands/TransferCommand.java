@@ -53,7 +53,6 @@ public class TransferCommand implements ICommand
 		}
 
 		CommandBlocksHandle.LotteryData myData = CommandBlocksHandle.getLotteryData(userID);
-		CommandBlocksHandle.LotteryData targetData = CommandBlocksHandle.getLotteryData(targetID);
 
 		long nowHave = myData.getBlocks();
 		long transferAmount;
@@ -87,10 +86,15 @@ public class TransferCommand implements ICommand
 			return;
 		}
 
-		long afterHave = nowHave - transferAmount;
+		long afterHave = CommandBlocksHandle.transfer(userID, targetID, transferAmount); //扣款和入帳是同一個操作
+		if (afterHave == -1L) //在檢查之後 方塊已經被別的指令花掉了 或是對方的方塊已經到上限了
+		{
+			if (CommandBlocksHandle.getLotteryData(targetID).getBlocks() > Long.MAX_VALUE - transferAmount) //轉過去會溢位
+				event.reply(JsonHandle.getStringFromJsonKey(userID, "transfer.too_many").formatted(target.getEffectiveName(), transferAmount)).queue();
+			else
+				event.reply(JsonHandle.getStringFromJsonKey(userID, "transfer.not_enough").formatted(transferAmount, myData.getBlocks())).queue();
+			return;
+		}
 		event.reply(JsonHandle.getStringFromJsonKey(userID, "transfer.success").formatted(transferAmount, target.getEffectiveName(), afterHave)).queue();
-
-		targetData.addBlocks(transferAmount);
-		myData.setBlocks(afterHave);
 	}
 }
\ No newline at end of file
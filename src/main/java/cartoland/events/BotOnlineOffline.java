@@ -38,7 +38,9 @@ public class BotOnlineOffline extends ListenerAdapter
 	{
 		CommandBlocksHandle.initial(); //初始化idAndName
 
-		TimerHandle.registerTimerEvent((byte) 3, () ->
+		TimerHandle.registerTimerEvent("leaderboard_snapshot", "0 0 * * *", TimerHandle.CATCH_UP_ONCE, LeaderboardHistory::snapshot); //每天紀錄一次排行榜
+
+		TimerHandle.registerTimerEvent("three_o_clock", "0 3 * * *", TimerHandle.CATCH_UP_SKIP, () ->
 		{
 			TextChannel undergroundChannel = Cartoland.getJDA().getTextChannelById(UNDERGROUND_CHANNEL_ID);
 			if (undergroundChannel == null)
@@ -47,7 +49,11 @@ public class BotOnlineOffline extends ListenerAdapter
 			undergroundChannel.sendMessage("https://i.imgur.com/EGO35hf.jpg").queue(); //好棒，三點了
 		}); //好棒 三點了
 
-		TimerHandle.registerTimerEvent((byte) 12, () ->
+		TimerHandle.registerTimerEvent("archive_logs", "0 4 * * *", TimerHandle.CATCH_UP_ONCE, LogArchiver::archive); //壓縮昨天以前的日誌 刪除太舊的日誌
+
+		TimerHandle.registerTimerEvent("reconcile_roles", "0 5 * * *", TimerHandle.CATCH_UP_ONCE, RoleSyncHandle::reconcile); //修正沒有同步到的賭神身分組
+
+		TimerHandle.registerTimerEvent("idle_questions", "0 12 * * *", TimerHandle.CATCH_UP_ONCE, () ->
 		{
 			ForumChannel questionsChannel = Cartoland.getJDA().getForumChannelById(QUESTIONS_CHANNEL_ID);
 			if (questionsChannel == null)
@@ -55,6 +61,7 @@ public class BotOnlineOffline extends ListenerAdapter
 			List<ThreadChannel> forumPosts = questionsChannel.getThreadChannels(); //論壇貼文們
 			for (ThreadChannel forumPost : forumPosts) //走訪論壇貼文們
 				ForumsHandle.tryIdleQuestionForumPost(forumPost); //試著讓它們idle
+			ForumsHandle.evictArchivedForumPosts(); //忘記很久以前的貼文
 		}); //中午十二點時處理並提醒未解決的論壇貼文
 
 		TextChannel botChannel = event.getJDA().getTextChannelById(BOT_CHANNEL_ID);
@@ -77,13 +84,17 @@ public class BotOnlineOffline extends ListenerAdapter
 	@Override
 	public void onShutdown(@NotNull ShutdownEvent event)
 	{
+		MessageRewardBuffer.close(); //加上還沒加上的訊息獎勵 要在儲存之前
 		FileHandle.serialize(); //所有有註冊的物件
+		IStateStore.INSTANCE.close(); //快照失敗的話 日誌裡還留有紀錄
+		CommandBlocksLedger.close(); //寫入最後的帳本紀錄
 
-		TimerHandle.stopTimer(); //停止每小時的事件執行緒
+		TimerHandle.stopTimer(); //停止排程的執行緒
 
 		String logString = "offline";
 		System.out.println(logString);
 		FileHandle.log(logString);
+		EventLog.close();
 		FileHandle.closeLog();
 	}
 }
\ No newline at end of file
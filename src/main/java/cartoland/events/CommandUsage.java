@@ -33,6 +33,11 @@ public class CommandUsage extends ListenerAdapter
 	 * The key of this map is the n of a game, and the value is the actual game.
 	 */
 	private final Map<Long, IMiniGame> games = new HashMap<>();
+	/**
+	 * The key of this map is the name of a command, and the value is the limiter of it. Commands that are not in this
+	 * map are not limited.
+	 */
+	private final Map<String, RateLimiter> limiters = new HashMap<>();
 	public Map<Long, IMiniGame> getGames()
 	{
 		return games;
@@ -154,6 +159,11 @@ public class CommandUsage extends ListenerAdapter
 
 		//tic_tac_toe
 		commands.put(TIC_TAC_TOE, new TicTacToeCommand(this));
+
+		//容易被用來洗版的指令 每個人一次最多能用幾次 以及每幾毫秒恢復一次
+		limiters.put(LOTTERY, new RateLimiter(5, 2000L));
+		limiters.put(TRANSFER, new RateLimiter(3, 5000L));
+		limiters.put(MEGUMIN, new RateLimiter(3, 5000L));
 	}
 
 	/**
@@ -166,12 +176,21 @@ public class CommandUsage extends ListenerAdapter
 	@Override
 	public void onSlashCommandInteraction(SlashCommandInteractionEvent event)
 	{
+		long start = System.nanoTime();
 		String commandName = event.getName();
 		User user = event.getUser();
 		FileHandle.log(user.getEffectiveName() + "(" + user.getIdLong() + ") used /" + commandName);
+		RateLimiter limiter = limiters.get(commandName);
+		long wait = limiter != null ? limiter.tryAcquire(user.getIdLong()) : 0L;
+		if (wait != 0L) //用得太快了
+		{
+			event.reply(JsonHandle.getStringFromJsonKey(user.getIdLong(), "command.too_fast").formatted((wait + 999L) / 1000L)).setEphemeral(true).queue();
+			return;
+		}
 		ICommand commandExecution = commands.get(commandName);
 		if (commandExecution != null)
 			commandExecution.commandProcess(event);
+		EventLog.record(EventLog.COMMAND, user.getIdLong(), event.getFullCommandName(), System.nanoTime() - start); //包含子指令
 	}
 
 	/**
@@ -1,5 +1,6 @@
 package cartoland.events;
 
+import cartoland.utilities.EventLog;
 import cartoland.utilities.FileHandle;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.interaction.command.MessageContextInteractionEvent;
@@ -25,6 +26,7 @@ public class ContextMenu extends ListenerAdapter
 	@Override
 	public void onMessageContextInteraction(MessageContextInteractionEvent event)
 	{
+		long start = System.nanoTime();
 		User user = event.getUser();
 		String eventName = event.getName();
 
@@ -72,5 +74,6 @@ public class ContextMenu extends ListenerAdapter
 		}
 
 		FileHandle.log(user.getEffectiveName() + "(" + user.getIdLong() + ") used " + eventName);
+		EventLog.record(EventLog.CONTEXT_MENU, user.getIdLong(), eventName, System.nanoTime() - start);
 	}
 }
\ No newline at end of file
@@ -1,7 +1,8 @@
 package cartoland.events;
 
-import cartoland.utilities.FileHandle;
 import cartoland.utilities.IDs;
+import cartoland.utilities.IStateStore;
+import cartoland.utilities.LongSet;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.User;
@@ -12,10 +13,6 @@ import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.stream.Collectors;
-
 /**
  * {@code NewMember} is a listener that triggers when a user joined a server that the bot is in, or get a new role. For now,
  * it only reacts with the "member role" in Cartoland. This class was registered in
@@ -33,14 +30,9 @@ public class NewMember extends ListenerAdapter
 			%%s, welcome to %%s.
 			Please read messages in <#%d>, and follow all rules.
 			""".formatted(IDs.READ_ME_CHANNEL_ID, IDs.READ_ME_CHANNEL_ID);
-	private final String ALL_MEMBERS = "serialize/all_members.ser";
-	private final Set<Long> allMembers = FileHandle.deserialize(ALL_MEMBERS) instanceof HashSet<?> set ?
-			set.stream().map(userID -> (Long)userID).collect(Collectors.toSet()) : new HashSet<>();
-
-	public NewMember()
-	{
-		FileHandle.registerSerialize(ALL_MEMBERS, allMembers);
-	}
+	private final String ALL_MEMBERS = "all_members";
+	private final IStateStore stateStore = IStateStore.INSTANCE;
+	private final LongSet allMembers = stateStore.loadLongSet(ALL_MEMBERS);
 
 	@Override
 	public void onGuildMemberJoin(GuildMemberJoinEvent event)
@@ -61,8 +53,11 @@ public class NewMember extends ListenerAdapter
 	{
 		User user = event.getUser();
 		long userID = user.getIdLong();
-		if (allMembers.contains(userID))
-			return;
+		synchronized (allMembers) //快照執行緒會在鎖內寫入
+		{
+			if (allMembers.contains(userID))
+				return;
+		}
 
 		Guild cartoland = event.getGuild();
 		if (cartoland.getIdLong() != IDs.CARTOLAND_SERVER_ID)
@@ -74,7 +69,11 @@ public class NewMember extends ListenerAdapter
 		if (!event.getRoles().contains(memberRole))
 			return;
 
-		allMembers.add(userID);
+		synchronized (allMembers)
+		{
+			allMembers.add(userID);
+		}
+		stateStore.putLongSetElement(ALL_MEMBERS, userID, true);
 
 		TextChannel lobbyChannel = cartoland.getTextChannelById(IDs.LOBBY_CHANNEL_ID);
 		if (lobbyChannel == null)
@@ -88,6 +87,13 @@ public class NewMember extends ListenerAdapter
 	@Override
 	public void onGuildMemberRemove(GuildMemberRemoveEvent event)
 	{
-		allMembers.remove(event.getUser().getIdLong());
+		long userID = event.getUser().getIdLong();
+		boolean removed;
+		synchronized (allMembers)
+		{
+			removed = allMembers.remove(userID);
+		}
+		if (removed)
+			stateStore.putLongSetElement(ALL_MEMBERS, userID, false);
 	}
 }
\ No newline at end of file
@@ -1,8 +1,9 @@
 package cartoland.messages;
 
 import cartoland.utilities.Algorithm;
-import cartoland.utilities.CommandBlocksHandle;
 import cartoland.utilities.IDs;
+import cartoland.utilities.MessageRewardBuffer;
+import cartoland.utilities.RateLimiter;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.channel.concrete.Category;
 import net.dv8tion.jda.api.entities.emoji.Emoji;
@@ -25,6 +26,9 @@ public class GuildMessage implements IMessage
 	private final Emoji wow = Emoji.fromCustom("wow", 893499112228519996L, false);
 	private final Emoji worship_a = Emoji.fromCustom("worship_a", 935135593527128104L, true);
 	private final Set<Long> commandBlockCategories = new HashSet<>(5);
+	//洗版的話 超過的訊息就沒有指令方塊
+	private final RateLimiter rewardLimiter = new RateLimiter(Integer.getInteger("cartoland.limit.message.capacity", 5),
+															  Long.getLong("cartoland.limit.message.interval", 3000L));
 
 	public GuildMessage()
 	{
@@ -79,8 +83,9 @@ public class GuildMessage implements IMessage
 		if (category == null) //獲取類別失敗
 			return; //不用執行
 		//在一般、技術討論區或公眾區域類別 且不是在機器人專區
-		if (message.getChannel().getIdLong() != IDs.BOT_CHANNEL_ID && commandBlockCategories.contains(category.getIdLong()))
-			CommandBlocksHandle.getLotteryData(event.getAuthor().getIdLong())
-					.addBlocks(rawMessage.length() + 1 + message.getAttachments().size() + message.getStickers().size()); //說話加等級 +1當作加上\0 附加一個檔案或貼圖算1個
+		long userID = event.getAuthor().getIdLong();
+		if (message.getChannel().getIdLong() != IDs.BOT_CHANNEL_ID && commandBlockCategories.contains(category.getIdLong()) && rewardLimiter.tryAcquire(userID) == 0L)
+			MessageRewardBuffer.add(userID,
+					rawMessage.length() + 1 + message.getAttachments().size() + message.getStickers().size()); //說話加等級 +1當作加上\0 附加一個檔案或貼圖算1個 稍後才一起加上
 	}
 }
\ No newline at end of file
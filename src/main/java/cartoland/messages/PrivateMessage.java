@@ -2,6 +2,7 @@ package cartoland.messages;
 
 import cartoland.Cartoland;
 import cartoland.utilities.CommonFunctions;
+import cartoland.utilities.EventLog;
 import cartoland.utilities.FileHandle;
 import cartoland.utilities.IDs;
 import net.dv8tion.jda.api.entities.Guild;
@@ -15,6 +16,8 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.exceptions.ErrorHandler;
 import net.dv8tion.jda.api.requests.ErrorResponse;
 
+import java.time.Duration;
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -88,6 +91,8 @@ public class PrivateMessage implements IMessage
 
 			undergroundChannel.sendMessage(rawMessage).queue(); //私訊轉到地下聊天室
 			FileHandle.log(author.getName() + "(" + author.getId() + ") typed \"" + rawMessage + "\" in direct message.");
+			//私訊要等待成員資料 所以從訊息送出時開始算
+			EventLog.record(EventLog.DIRECT_MESSAGE, author.getIdLong(), "", Duration.between(message.getTimeCreated(), OffsetDateTime.now()).toNanos());
 		}, new ErrorHandler().handle(ErrorResponse.UNKNOWN_MEMBER, e ->
 				message.reply("You are not a member of " + cartoland.getName() + can_t).mentionRepliedUser(false).queue()));
 	}
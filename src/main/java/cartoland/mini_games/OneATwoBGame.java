@@ -28,7 +28,7 @@ public class OneATwoBGame implements IMiniGame
 	public OneATwoBGame()
 	{
 		int[] zeroToNine = { 0,1,2,3,4,5,6,7,8,9 };
-		Algorithm.shuffle(zeroToNine); //洗牌0 ~ 9
+		Algorithm.shuffle(zeroToNine, Algorithm.newGenerator()); //洗牌0 ~ 9 每場遊戲用自己的亂數
 
 		for (int i = 0; i < ANSWER_LENGTH; i++) //產生答案
 		{
@@ -4,6 +4,7 @@ import cartoland.commands.TicTacToeCommand;
 import cartoland.utilities.Algorithm;
 
 import java.util.Arrays;
+import java.util.random.RandomGenerator;
 
 import static cartoland.mini_games.TicTacToeGame.*;
 
@@ -38,6 +39,7 @@ public class TicTacToeGame implements IMiniGame
 	private int empty = BOARD_SIDE * BOARD_SIDE; //棋盤上還空著的格數
 	int[] notPlaced = null; //board還是EMPTY的index們 之所以不用ArrayList 是為了省效能 注意要到第三輪才會開始追蹤空棋盤
 	int round = 1;
+	final RandomGenerator random = Algorithm.newGenerator(); //這場遊戲自己的亂數 不和其他遊戲共用
 
 	private final int difficulty;
 	private final DifficultyBot difficultyBot;
@@ -246,7 +248,7 @@ class EasyBot extends DifficultyBot
 	private int randomPlace()
 	{
 		game.updateNotPlaced(); //更新空棋盤清單
-		return Algorithm.randomElement(game.notPlaced); //隨機選一個地方放X
+		return Algorithm.randomElement(game.notPlaced, game.random); //隨機選一個地方放X
 	}
 }
 
@@ -258,6 +260,10 @@ class NormalBot extends EasyBot
 {
 	private static final int[][] tryAtLeftCorner = {{1, 2}, {3, 6},{4, 8}}; //第一步下在左上角後 第二步可以下的位置
 	private static final int[][] tryAtCenter = {{0, 8}, {1, 7}, {2, 6}, {3, 5}}; //第一步下在中間後 第二步可以下的位置
+	//每場遊戲洗自己的複本 不能直接洗上面的static陣列 否則同時進行的遊戲會互相干擾
+	private final int[][] winningOrder = winningCombinations.clone();
+	private final int[][] leftCornerOrder = tryAtLeftCorner.clone();
+	private final int[][] centerOrder = tryAtCenter.clone();
 
 	NormalBot(TicTacToeGame game)
 	{
@@ -267,11 +273,11 @@ class NormalBot extends EasyBot
 	@Override
 	protected int round2()
 	{
-		Algorithm.shuffle(winningCombinations); //隨機更換檢測勝利的順序 為人類玩家的策略帶來不定性
+		Algorithm.shuffle(winningOrder, game.random); //隨機更換檢測勝利的順序 為人類玩家的策略帶來不定性
 
 		int first, second, third;
 		char f, s, t;
-		for (int[] winLine: winningCombinations) //檢查O是否即將連線 如果O確實即將連線則阻止
+		for (int[] winLine: winningOrder) //檢查O是否即將連線 如果O確實即將連線則阻止
 		{
 			f = game.board[first = winLine[0]];
 			s = game.board[second = winLine[1]];
@@ -290,17 +296,17 @@ class NormalBot extends EasyBot
 		//因為這是第二回合 O只放了兩個 代表必定能找到一組空的
 		if (game.board[LEFT_CORNER] == CROSS) //第一手下在左上角
 		{
-			Algorithm.shuffle(tryAtLeftCorner);
-			for (int[] bothEmpty : tryAtLeftCorner)
+			Algorithm.shuffle(leftCornerOrder, game.random);
+			for (int[] bothEmpty : leftCornerOrder)
 				if (bothEmpty[0] + bothEmpty[1] == EMPTY << 1) //bothEmpty[0] == TicTacToeGame.EMPTY && bothEmpty[1] == TicTacToeGame.EMPTY
 					return bothEmpty[1]; //搶角落
 		}
 		else //如果不是下在左上角 那就肯定是下在中間了
 		{
-			Algorithm.shuffle(tryAtCenter);
-			for (int[] bothEmpty : tryAtLeftCorner)
+			Algorithm.shuffle(centerOrder, game.random);
+			for (int[] bothEmpty : centerOrder)
 				if (bothEmpty[0] + bothEmpty[1] == EMPTY << 1) //bothEmpty[0] == TicTacToeGame.EMPTY && bothEmpty[1] == TicTacToeGame.EMPTY
-					return Algorithm.chance(50) ? bothEmpty[0] : bothEmpty[1];
+					return game.random.nextBoolean() ? bothEmpty[0] : bothEmpty[1];
 		}
 
 		//如果以上都不通過
@@ -276,7 +276,21 @@ public final class AddCommands
 																.setNameLocalization(CHINESE_CHINA, "甲子"),
 														new Command.Choice("Century", "century")
 																.setNameLocalization(CHINESE_TAIWAN, "世紀")
-																.setNameLocalization(CHINESE_CHINA, "世纪")))),
+																.setNameLocalization(CHINESE_CHINA, "世纪"))),
+						new SubcommandData("history", "Show where the command blocks of a user came from")
+								.setDescriptionLocalization(CHINESE_TAIWAN, "查看一名使用者的指令方塊從哪裡來")
+								.setDescriptionLocalization(CHINESE_CHINA, "查看一名用户的命令方块从哪里来")
+								.addOptions(
+										new OptionData(OptionType.USER, "target", "The user that you want to check", true, false)
+												.setNameLocalization(CHINESE_TAIWAN, "目標")
+												.setNameLocalization(CHINESE_CHINA, "目标")
+												.setDescriptionLocalization(CHINESE_TAIWAN, "你想查看的使用者")
+												.setDescriptionLocalization(CHINESE_CHINA, "你想查看的用户"),
+										new OptionData(OptionType.INTEGER, "page", "The page of the history, the newest changes are on page 1", false, false)
+												.setNameLocalization(CHINESE_TAIWAN, "頁數")
+												.setNameLocalization(CHINESE_CHINA, "页数")
+												.setDescriptionLocalization(CHINESE_TAIWAN, "紀錄的頁數 最新的變動在第一頁")
+												.setDescriptionLocalization(CHINESE_CHINA, "记录的页数 最新的变动在第一页"))),
 
 		Commands.slash(ONE_A_TWO_B, "Play a game of 1A2B")
 				.setDescriptionLocalization(CHINESE_TAIWAN, "玩一場1A2B遊戲")
@@ -325,7 +339,21 @@ public final class AddCommands
 												.setDescriptionLocalization(CHINESE_CHINA, "排名清单的页数")),
 						new SubcommandData("daily", "Daily rewards")
 								.setDescriptionLocalization(CHINESE_TAIWAN, "每日獎勵")
-								.setDescriptionLocalization(CHINESE_CHINA, "每日奖励")),
+								.setDescriptionLocalization(CHINESE_CHINA, "每日奖励"),
+						new SubcommandData("history", "Show how the command blocks and the rank of a user changed")
+								.setDescriptionLocalization(CHINESE_TAIWAN, "查看使用者的指令方塊和名次的變化")
+								.setDescriptionLocalization(CHINESE_CHINA, "查看用户的命令方块和名次的变化")
+								.addOptions(
+										new OptionData(OptionType.USER, "target", "The user that you want to check", false, false)
+												.setNameLocalization(CHINESE_TAIWAN, "目標")
+												.setNameLocalization(CHINESE_CHINA, "目标")
+												.setDescriptionLocalization(CHINESE_TAIWAN, "你想查看的使用者")
+												.setDescriptionLocalization(CHINESE_CHINA, "你想查看的用户"),
+										new OptionData(OptionType.INTEGER, "days", "How many days, at most 30", false, false)
+												.setNameLocalization(CHINESE_TAIWAN, "天數")
+												.setNameLocalization(CHINESE_CHINA, "天数")
+												.setDescriptionLocalization(CHINESE_TAIWAN, "幾天 最多30天")
+												.setDescriptionLocalization(CHINESE_CHINA, "几天 最多30天"))),
 		Commands.slash(TRANSFER, "Transfer your command blocks")
 				.setDescriptionLocalization(CHINESE_TAIWAN, "轉帳你的指令方塊")
 				.setDescriptionLocalization(CHINESE_CHINA, "转帐你的命令方块")
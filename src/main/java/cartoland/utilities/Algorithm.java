@@ -1,9 +1,15 @@
 package cartoland.utilities;
 
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 /**
- * {@code Algorithm} is a class that provides functions that helps calculate. Can not be instantiated or inherited.
+ * {@code Algorithm} is a class that provides functions that helps calculate. It is also where random numbers come
+ * from. Every thread uses its own {@link ThreadLocalRandom}, so threads never contend on a shared seed, and a game that
+ * needs random numbers for its whole life gets a generator of its own from {@link #newGenerator}. With
+ * {@code -Dcartoland.random.seed=<seed>}, every generator is split from a {@link SplittableRandom} of that seed instead,
+ * so that games can be replayed. Can not be instantiated or inherited.
  *
  * @since 1.5
  * @author Alex Cai
@@ -15,7 +21,39 @@ public final class Algorithm
 		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
 	}
 
-	private static final Random random = new Random();
+	private static final Long SEED = Long.getLong("cartoland.random.seed"); //null代表不固定
+	private static final SplittableRandom root = SEED != null ? new SplittableRandom(SEED) : null; //只在固定種子時使用
+	private static final ThreadLocal<RandomGenerator> seeded = ThreadLocal.withInitial(Algorithm::newGenerator); //固定種子時每個執行緒的產生器
+
+	/**
+	 * Get the random generator of the current thread. It must not be passed to other threads.
+	 *
+	 * @return The generator of the current thread.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static RandomGenerator generator()
+	{
+		return root == null ? ThreadLocalRandom.current() : seeded.get();
+	}
+
+	/**
+	 * Create a new random generator, for example for a game. The generators are independent of each other, and
+	 * deterministic if {@code cartoland.random.seed} was set.
+	 *
+	 * @return A new generator that is not thread-safe.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static RandomGenerator newGenerator()
+	{
+		if (root == null)
+			return new SplittableRandom(ThreadLocalRandom.current().nextLong());
+		synchronized (root) //split會改變root
+		{
+			return root.split();
+		}
+	}
 
 	/**
 	 * Shuffle an array.
@@ -25,6 +63,19 @@ public final class Algorithm
 	 * @author Alex Cai
 	 */
 	public static void shuffle(int[] array)
+	{
+		shuffle(array, generator());
+	}
+
+	/**
+	 * Shuffle an array with a specific generator.
+	 *
+	 * @param array The array that need to shuffle.
+	 * @param random The generator, such as the one of a game.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void shuffle(int[] array, RandomGenerator random)
 	{
 		int endIndex = array.length - 1;
 		int temp;
@@ -46,6 +97,19 @@ public final class Algorithm
 	 * @author Alex Cai
 	 */
 	public static<T> void shuffle(T[] array)
+	{
+		shuffle(array, generator());
+	}
+
+	/**
+	 * Shuffle an array with a specific generator.
+	 *
+	 * @param array The array that need to shuffle.
+	 * @param random The generator, such as the one of a game.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static<T> void shuffle(T[] array, RandomGenerator random)
 	{
 		int endIndex = array.length - 1;
 		T temp;
@@ -77,22 +141,32 @@ public final class Algorithm
 	}
 
 	public static boolean chance(int percent)
+	{
+		return chance(percent, generator());
+	}
+
+	public static boolean chance(int percent, RandomGenerator random)
 	{
 		return percent > random.nextInt(100);
 	}
 
 	public static<T> T randomElement(T[] array)
 	{
-		return array[random.nextInt(array.length)];
+		return array[generator().nextInt(array.length)];
 	}
 
 	public static int randomElement(int[] array)
+	{
+		return randomElement(array, generator());
+	}
+
+	public static int randomElement(int[] array, RandomGenerator random)
 	{
 		return array[random.nextInt(array.length)];
 	}
 
 	public static long randomElement(long[] array)
 	{
-		return array[random.nextInt(array.length)];
+		return array[generator().nextInt(array.length)];
 	}
 }
\ No newline at end of file
@@ -0,0 +1,302 @@
+package cartoland.utilities;
+
+import cartoland.Cartoland;
+import net.dv8tion.jda.api.JDA;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@code AsyncLogger} moves the file I/O of {@link FileHandle#log} off the JDA event threads. Producers claim a slot of
+ * a preallocated ring buffer with a CAS, fill it and publish it, without taking any lock. A single writer thread
+ * formats the published events in order, writes them in batches into {@code logs/<date>}, and opens a new file when
+ * the date changes. When the ring buffer is full, producers either wait for the writer or drop the line, according to
+ * {@code -Dcartoland.log.overflow=block|drop}. A producer that is waiting drops the line anyway once the logger is
+ * closed, and the writer survives any exception, so nobody waits forever. The bot logs through one shared logger with
+ * {@link #publish} and {@link #close}, tests create their own with a small ring buffer. Can not be inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class AsyncLogger
+{
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+	private static final AsyncLogger shared = new AsyncLogger(Integer.getInteger("cartoland.log.buffer_size", 8192),
+			"drop".equals(System.getProperty("cartoland.log.overflow")), "logs/"); //預設是block
+
+	static
+	{
+		shared.start();
+	}
+
+	private final int capacity;
+	private final int mask;
+	private final boolean dropOnOverflow;
+	private final String directory;
+
+	private final LogEvent[] ring;
+	private final AtomicLong claimed = new AtomicLong(); //下一個可以認領的序號
+	private volatile long consumed = 0L; //writer已經處理完的數量
+	private final AtomicLong dropped = new AtomicLong(); //buffer滿了而被丟掉的數量
+	private volatile boolean running = true;
+	private volatile boolean sleeping = false; //writer正在等待新的事件
+
+	private final Thread writer = new Thread(this::writeLoop, "Cartoland Log Writer");
+	//以下只有writer會使用
+	private LocalDate fileDate; //上一次有寫log的日期
+	private BufferedWriter logger;
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * Create a logger. The writer does not run until {@link #start} is called.
+	 *
+	 * @param capacity The size of the ring buffer, rounded down to a power of 2.
+	 * @param dropOnOverflow Whether to drop a line instead of waiting when the ring buffer is full.
+	 * @param directory The directory of the log files, ending with a slash. It must exist already.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	AsyncLogger(int capacity, boolean dropOnOverflow, String directory)
+	{
+		this.capacity = Integer.highestOneBit(Math.max(capacity, 2)); //2的次方
+		mask = this.capacity - 1;
+		this.dropOnOverflow = dropOnOverflow;
+		this.directory = directory;
+		ring = new LogEvent[this.capacity];
+		for (int i = 0; i < this.capacity; i++)
+			ring[i] = new LogEvent();
+		writer.setDaemon(true); //不阻止JVM結束 關機時由close等待寫完
+	}
+
+	/**
+	 * Put a line into the ring buffer of the shared logger.
+	 *
+	 * @param output The content of the line.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void publish(String output)
+	{
+		shared.append(output);
+	}
+
+	/**
+	 * Stop the shared logger, see {@link #shutdown}.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void close()
+	{
+		shared.shutdown();
+	}
+
+	/**
+	 * Start the writer thread.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void start()
+	{
+		writer.start();
+	}
+
+	/**
+	 * Put a line into the ring buffer. The time is taken now, but the line is formatted and written by the writer
+	 * thread later.
+	 *
+	 * @param output The content of the line.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void append(String output)
+	{
+		if (!running) //已經關閉了
+			return;
+		long time = System.currentTimeMillis();
+		long sequence;
+		while (true)
+		{
+			sequence = claimed.get();
+			if (sequence - consumed >= capacity) //滿了
+			{
+				if (dropOnOverflow || !running || !writer.isAlive()) //關機了就不會再有空位
+				{
+					dropped.incrementAndGet();
+					return;
+				}
+				LockSupport.unpark(writer);
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50L)); //等writer清出空位
+				continue;
+			}
+			if (claimed.compareAndSet(sequence, sequence + 1))
+				break; //認領成功
+		}
+
+		LogEvent event = ring[(int) sequence & mask];
+		event.time = time;
+		event.output = output;
+		event.sequence = sequence; //發布 writer看到序號後才會讀取內容
+
+		if (sleeping)
+			LockSupport.unpark(writer);
+	}
+
+	private void writeLoop()
+	{
+		while (true)
+		{
+			try
+			{
+				if (!writeNext()) //關機了 而且全部都寫完了
+					break;
+			}
+			catch (Exception exception) //writer停下來的話 等待空位的producer會永遠卡住
+			{
+				exception.printStackTrace();
+			}
+		}
+
+		try
+		{
+			if (logger != null)
+				logger.close();
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write the next event, or wait a little if there is none.
+	 *
+	 * @return false if the logger is closed and every event has been written.
+	 */
+	private boolean writeNext()
+	{
+		long next = consumed;
+		LogEvent event = ring[(int) next & mask];
+		if (event.sequence != next) //沒有新的事件
+		{
+			reportDropped();
+			if (!running && claimed.get() == next)
+				return false;
+			try
+			{
+				if (logger != null)
+					logger.flush(); //一批寫完了
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+			}
+			sleeping = true;
+			if (event.sequence != next && running) //再檢查一次 以免錯過剛發布的事件
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100L));
+			sleeping = false;
+			return true;
+		}
+
+		try
+		{
+			write(event.time, event.output);
+		}
+		finally //寫入失敗也要空出這格
+		{
+			event.output = null; //讓字串可以被回收
+			consumed = next + 1;
+		}
+		return true;
+	}
+
+	private void reportDropped()
+	{
+		long droppedCount = dropped.getAndSet(0L);
+		if (droppedCount != 0L) //不能用publish 以免writer等待自己
+			write(System.currentTimeMillis(), "Dropped " + droppedCount + " log lines because the log buffer was full.");
+	}
+
+	private void write(long time, String output)
+	{
+		LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZONE);
+		LocalDate date = dateTime.toLocalDate();
+		try
+		{
+			if (!date.equals(fileDate)) //如果今天跟上次有寫log的日期不同
+			{
+				if (logger != null)
+				{
+					logger.close();
+					logger = null;
+				}
+				//一定要事先備好logs資料夾
+				logger = new BufferedWriter(new FileWriter(directory + date, true));
+				fileDate = date; //打開成功才算 失敗的話下一行會再試一次
+			}
+
+			//時間 內容
+			line.setLength(0);
+			appendTwoDigits(line, dateTime.getHour()).append(':');
+			appendTwoDigits(line, dateTime.getMinute()).append(':');
+			appendTwoDigits(line, dateTime.getSecond()).append('\t').append(output).append('\n');
+			logger.append(line);
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			JDA jda = Cartoland.getJDA();
+			if (jda != null) //還沒上線時沒有東西要關
+				jda.shutdownNow();
+		}
+	}
+
+	private static StringBuilder appendTwoDigits(StringBuilder builder, int value)
+	{
+		if (value < 10)
+			builder.append('0');
+		return builder.append(value);
+	}
+
+	/**
+	 * Stop accepting new lines, wait for the writer to write everything that was published, and close the file.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void shutdown()
+	{
+		running = false;
+		LockSupport.unpark(writer);
+		try
+		{
+			writer.join(TimeUnit.SECONDS.toMillis(10L));
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A slot of the ring buffer. Slots are allocated once and reused forever.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	private static class LogEvent
+	{
+		private volatile long sequence = -1L; //寫入完成後才會設定 -1代表從來沒用過
+		private long time;
+		private String output;
+	}
+}
@@ -1,13 +1,13 @@
 package cartoland.utilities;
 
-import cartoland.Cartoland;
-import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.Role;
-
-import java.io.Serial;
-import java.io.Serializable;
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * {@code CommandBlocksHandle} is a utility class that handles command blocks of users. Command blocks is a
@@ -24,24 +24,24 @@ public final class CommandBlocksHandle
 		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
 	}
 
-	public static boolean changed = true;
-	private static final String LOTTERY_DATA_FILE_NAME = "serialize/lottery_data.ser";
-	private static final long GAMBLE_ROLE_MIN = 100000L;
-
-	//會有unchecked assignment的警告 but I did it anyway
-	@SuppressWarnings("unchecked")
-	private static final Map<Long, LotteryData> lotteryDataMap = (FileHandle.deserialize(LOTTERY_DATA_FILE_NAME) instanceof HashMap map) ? map : new HashMap<>();
+	static final long GAMBLE_ROLE_MIN = 100000L; //有這麼多方塊就會得到賭神身分組
+	private static final IStateStore stateStore = IStateStore.INSTANCE;
 
-	private static final List<LotteryData> lotteryDataList = new ArrayList<>(lotteryDataMap.values()); //將map轉換為array list
-	//因為每次修改的是LotteryData的內容 而不是參考本身 所以可以事先建好
+	private static final LongMap<LotteryData> lotteryDataMap = new LongMap<>();
+	private static final ReentrantLock[] stripes = new ReentrantLock[64]; //轉帳用的鎖 依照使用者ID分散
 
 	static
 	{
-		FileHandle.registerSerialize(LOTTERY_DATA_FILE_NAME, lotteryDataMap);
+		stateStore.loadLotteryData(lotteryDataMap);
+		CommandBlocksLedger.restore(lotteryDataMap); //帳本比快照、日誌和資料庫更早寫入 方塊數以帳本為準 映射檔則相反
+		lotteryDataMap.forEach(RankingHandle::insert); //建立排名
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new ReentrantLock();
 	}
 
 	/**
-	 * Get the lottery data of a user from ID.
+	 * Get the lottery data of a user from ID. The command blocks that the user earned by talking and are still in
+	 * {@link MessageRewardBuffer} are added first, so the returned lottery data is always up to date.
 	 *
 	 * @param userID The ID of the user.
 	 * @return The lottery data of the user. It will never be null.
@@ -50,39 +50,178 @@ public final class CommandBlocksHandle
 	 */
 	public static LotteryData getLotteryData(long userID)
 	{
-		LotteryData lotteryData = lotteryDataMap.get(userID);
-		if (lotteryData != null) //已經有這名玩家
-			return lotteryData;
-
-		//如果沒有記錄這名玩家
-		LotteryData newUser = new LotteryData(userID);
-		lotteryDataMap.put(userID, newUser); //放入這名玩家
-		lotteryDataList.add(newUser); //放入這名玩家
-		Cartoland.getJDA().retrieveUserById(userID).queue(user -> newUser.name = user.getEffectiveName());
-		return newUser; //絕不回傳null
+		LotteryData lotteryData;
+		boolean isNewUser = false;
+		synchronized (lotteryDataMap) //發放訊息獎勵的執行緒也會呼叫
+		{
+			lotteryData = lotteryDataMap.get(userID);
+			if (lotteryData == null) //如果沒有記錄這名玩家
+			{
+				lotteryData = new LotteryData(userID);
+				lotteryDataMap.put(userID, lotteryData); //放入這名玩家
+				RankingHandle.insert(userID, lotteryData);
+				isNewUser = true;
+			}
+		}
+
+		if (isNewUser)
+		{
+			stateStore.putLotteryData(lotteryData);
+			NameResolver.resolve(lotteryData);
+		}
+		long pending = MessageRewardBuffer.take(userID); //還沒加上的訊息獎勵
+		if (pending != 0L)
+			lotteryData.addBlocks(pending, CommandBlocksLedger.MESSAGE);
+		return lotteryData; //絕不回傳null
 	}
 
-	public static int size()
+	/**
+	 * Get the lottery data of a user from ID without creating it, for readers that must not add every user they look at
+	 * to the lottery data. Like {@link #getLotteryData}, the command blocks still in {@link MessageRewardBuffer} are
+	 * added first.
+	 *
+	 * @param userID The ID of the user.
+	 * @return The lottery data of the user, or null if the user has never played.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static LotteryData findLotteryData(long userID)
+	{
+		LotteryData lotteryData;
+		synchronized (lotteryDataMap)
+		{
+			lotteryData = lotteryDataMap.get(userID);
+		}
+		if (lotteryData == null) //沒有記錄這名玩家 也不要建立
+			return null;
+		long pending = MessageRewardBuffer.take(userID); //還沒加上的訊息獎勵
+		if (pending != 0L)
+			lotteryData.addBlocks(pending, CommandBlocksLedger.MESSAGE);
+		return lotteryData;
+	}
+
+	/**
+	 * Move command blocks from one user to another as a single operation. See {@link #airdrop} for how it is kept
+	 * atomic.
+	 *
+	 * @param fromID The ID of the user who pays.
+	 * @param toID The ID of the user who receives.
+	 * @param amount The amount of command blocks.
+	 * @return The command blocks of the payer after the transfer, or -1 if the payer did not have enough command blocks or
+	 *         the receiver would have too many.
+	 * @throws IllegalArgumentException If the amount is not positive.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static long transfer(long fromID, long toID, long amount)
 	{
-		return lotteryDataMap.size();
+		return airdrop(fromID, new long[] { toID }, amount);
 	}
 
-	public static List<LotteryData> toArrayList()
+	/**
+	 * Give the same amount of command blocks from one user to many users as a single operation. Either every receiver
+	 * gets the command blocks, or nothing happens. The locks of every user involved are acquired before anything
+	 * changes, in the order of their stripes, so two airdrops that share users can not deadlock and can not see each
+	 * other half done. A single user changing its own command blocks, such as a bet, does not take these locks, but
+	 * its compare-and-set can never create or destroy command blocks of a transfer. Nothing happens if a receiver would
+	 * go over {@link Long#MAX_VALUE}, and if a receiver got there anyway by a change that does not take these locks,
+	 * whatever it could not receive goes back to the payer.
+	 *
+	 * @param fromID The ID of the user who pays.
+	 * @param toIDs The IDs of the users who receive.
+	 * @param amountEach The amount of command blocks that each receiver gets.
+	 * @return The command blocks of the payer after the airdrop, or -1 if the payer did not have enough command blocks or
+	 *         a receiver would have too many.
+	 * @throws IllegalArgumentException If the amount is not positive or there is no receiver, since a negative amount
+	 *         would take command blocks from the receivers.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static long airdrop(long fromID, long[] toIDs, long amountEach)
 	{
-		return lotteryDataList;
+		if (amountEach <= 0L)
+			throw new IllegalArgumentException("The amount must be positive: " + amountEach);
+		if (toIDs.length == 0)
+			throw new IllegalArgumentException("There must be at least one receiver.");
+
+		long total;
+		try
+		{
+			total = Math.multiplyExact(amountEach, (long) toIDs.length);
+		}
+		catch (ArithmeticException exception) //不可能有這麼多方塊
+		{
+			return -1L;
+		}
+
+		LotteryData from = getLotteryData(fromID);
+		LotteryData[] to = new LotteryData[toIDs.length];
+		int[] stripeIndexes = new int[toIDs.length + 1];
+		stripeIndexes[0] = stripeOf(fromID);
+		for (int i = 0; i < toIDs.length; i++)
+		{
+			to[i] = getLotteryData(toIDs[i]);
+			stripeIndexes[i + 1] = stripeOf(toIDs[i]);
+		}
+		Arrays.sort(stripeIndexes); //永遠由小到大上鎖 才不會死結
+
+		int locked = 0;
+		try
+		{
+			for (; locked < stripeIndexes.length; locked++)
+				if (locked == 0 || stripeIndexes[locked] != stripeIndexes[locked - 1]) //同一個stripe只鎖一次
+					stripes[stripeIndexes[locked]].lock();
+
+			for (LotteryData receiver : to)
+				if (receiver.getBlocks() > Long.MAX_VALUE - total) //加上去會超過上限 扣款之前就要拒絕 否則多的方塊會消失
+					return -1L;
+			if (from.tryTakeBlocks(total, CommandBlocksLedger.TRANSFER_OUT, toIDs.length == 1 ? toIDs[0] : 0L) == -1L) //先扣再給 不夠就什麼都不做
+				return -1L;
+			long refund = 0L;
+			for (LotteryData receiver : to)
+				refund += amountEach - receiver.receiveBlocks(amountEach, fromID);
+			if (refund != 0L) //檢查之後有人不拿鎖就加到了上限 加不進去的退給付款人
+				from.receiveBlocks(refund, fromID);
+			return from.getBlocks(); //付款人也可能在接收者之中
+		}
+		finally
+		{
+			while (locked-- > 0)
+				if (locked == 0 || stripeIndexes[locked] != stripeIndexes[locked - 1])
+					stripes[stripeIndexes[locked]].unlock();
+		}
+	}
+
+	private static int stripeOf(long userID)
+	{
+		long h = userID * 0x9E3779B97F4A7C15L; //和LongMap一樣的費氏雜湊
+		return (int) (h >>> 58); //最高的6 bit 剛好是64個stripe
+	}
+
+	public static int size()
+	{
+		synchronized (lotteryDataMap)
+		{
+			return lotteryDataMap.size();
+		}
 	}
 
 	public static void initial()
 	{
-		Set<Long> keySet = lotteryDataMap.keySet();
-		JDA jda = Cartoland.getJDA();
-		for (long userID : keySet) //找到每位使用者
-			jda.retrieveUserById(userID).queue(user -> lotteryDataMap.get(userID).name = user.getEffectiveName()); //更新名字
-		changed = true;
+		List<LotteryData> lotteryDataList;
+		synchronized (lotteryDataMap)
+		{
+			lotteryDataList = lotteryDataMap.values();
+		}
+		NameResolver.resolveAll(lotteryDataList); //更新名字 排名在那之前先顯示上次的名字
 	}
 
 	/**
-	 * This is a data class that stores members' lottery data.
+	 * This is a data class that stores members' lottery data. Only the name lives in the object, the numeric fields
+	 * live in a fixed slot of {@link LotteryDataStore}. The serialized form stays the same as before, so that
+	 * {@code lottery_data.ser} can still be migrated. JDA may dispatch events of the same user on different threads, so
+	 * every field of the slot is accessed through {@link VarHandle}s, and the command blocks, the counters and the daily
+	 * claim are changed with compare-and-set loops instead of read-modify-write, without any lock.
 	 *
 	 * @since 2.0
 	 * @author Alex Cai
@@ -94,33 +233,131 @@ public final class CommandBlocksHandle
 		public static final long MONTHLY = 100L;
 		public static final long YEARLY = 1000L;
 		private String name; //名字
-		private final long userID;
-		private long blocks; //方塊數
-		private int won; //勝場
-		private int lost; //敗場
-		private int showHandWon; //梭哈勝
-		private int showHandLost; //梭哈敗(破產)
-		private long lastClaimSecond; //上次領每日獎勵的時間
-		private int streak; //連續領每日獎勵
+		private long userID; //反序列化時才會指派 所以不是final
+		private transient ByteBuffer chunk; //方塊數、勝場、敗場等等都在這個chunk裡
+		private transient int offset; //在chunk裡的位置
+		transient long rankedBlocks; //排名樹裡的方塊數 只能在RankingHandle.lock內讀寫
+		private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN); //slot裡的long
+		private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN); //slot裡的int
 
 		@Serial
 		private static final long serialVersionUID = 3_141592653589793238L;
+		@Serial
+		private static final ObjectStreamField[] serialPersistentFields = //和以前的欄位相同 才能讀取lottery_data.ser
+		{
+			new ObjectStreamField("name", String.class),
+			new ObjectStreamField("userID", long.class),
+			new ObjectStreamField("blocks", long.class), //方塊數
+			new ObjectStreamField("won", int.class), //勝場
+			new ObjectStreamField("lost", int.class), //敗場
+			new ObjectStreamField("showHandWon", int.class), //梭哈勝
+			new ObjectStreamField("showHandLost", int.class), //梭哈敗(破產)
+			new ObjectStreamField("lastClaimSecond", long.class), //上次領每日獎勵的時間
+			new ObjectStreamField("streak", int.class) //連續領每日獎勵
+		};
+		static final int STATE_SIZE = 44; //userID, blocks, won, lost, showHandWon, showHandLost, lastClaimSecond, streak
+
+		LotteryData(long userID)
+		{
+			this.userID = userID;
+			allocateSlot(); //新的slot全部都是0
+		}
 
-		private LotteryData(long userID)
+		LotteryData(long userID, ByteBuffer chunk, int offset)
 		{
 			this.userID = userID;
-			blocks = 0L;
-			won = 0;
-			lost = 0;
-			showHandWon = 0;
-			showHandLost = 0;
-			lastClaimSecond = 0L;
-			streak = 0;
+			this.chunk = chunk;
+			this.offset = offset;
+		}
+
+		private void allocateSlot()
+		{
+			int slot = LotteryDataStore.allocate(userID);
+			chunk = LotteryDataStore.chunkOf(slot);
+			offset = LotteryDataStore.offsetOf(slot);
+		}
+
+		@Serial
+		private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException
+		{
+			ObjectInputStream.GetField fields = stream.readFields();
+			name = (String) fields.get("name", null);
+			userID = fields.get("userID", 0L);
+			allocateSlot();
+			putLong(LotteryDataStore.BLOCKS, fields.get("blocks", 0L));
+			putInt(LotteryDataStore.WON, fields.get("won", 0));
+			putInt(LotteryDataStore.LOST, fields.get("lost", 0));
+			putInt(LotteryDataStore.SHOW_HAND_WON, fields.get("showHandWon", 0));
+			putInt(LotteryDataStore.SHOW_HAND_LOST, fields.get("showHandLost", 0));
+			putLong(LotteryDataStore.LAST_CLAIM_SECOND, fields.get("lastClaimSecond", 0L));
+			putInt(LotteryDataStore.STREAK, fields.get("streak", 0));
+		}
+
+		@Serial
+		private void writeObject(ObjectOutputStream stream) throws IOException
+		{
+			ObjectOutputStream.PutField fields = stream.putFields();
+			fields.put("name", name);
+			fields.put("userID", userID);
+			fields.put("blocks", getBlocks());
+			fields.put("won", getWon());
+			fields.put("lost", getLost());
+			fields.put("showHandWon", getShowHandWon());
+			fields.put("showHandLost", getShowHandLost());
+			fields.put("lastClaimSecond", getLong(LotteryDataStore.LAST_CLAIM_SECOND));
+			fields.put("streak", getStreak());
+			stream.writeFields();
+		}
+
+		private long getLong(int field)
+		{
+			return (long) LONG.getVolatile(chunk, offset + field);
+		}
+
+		private int getInt(int field)
+		{
+			return (int) INT.getVolatile(chunk, offset + field);
+		}
+
+		private void putLong(int field, long value)
+		{
+			LONG.setVolatile(chunk, offset + field, value);
+		}
+
+		private void putInt(int field, int value)
+		{
+			INT.setVolatile(chunk, offset + field, value);
+		}
+
+		private boolean compareAndSetLong(int field, long expected, long newValue)
+		{
+			return LONG.compareAndSet(chunk, offset + field, expected, newValue);
+		}
+
+		private void incrementInt(int field)
+		{
+			INT.getAndAdd(chunk, offset + field, 1);
 		}
 
 		public void setName(String newName)
 		{
+			if (Objects.equals(name, newName)) //每次上線都會重設名字 大部分都沒變
+				return;
 			name = newName;
+			persist();
+			RankingHandle.markChanged(); //排名上的名字也要改
+		}
+
+		/**
+		 * Set the name that was loaded by an {@link IStateStore}, without persisting it again.
+		 *
+		 * @param loadedName The name of the user.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void restoreName(String loadedName)
+		{
+			name = loadedName;
 		}
 
 		public String getName()
@@ -128,17 +365,51 @@ public final class CommandBlocksHandle
 			return name;
 		}
 
+		public long getUserID()
+		{
+			return userID;
+		}
+
 		/**
-		 * Add command blocks to the user. This method calls {@link Algorithm#safeAdd(long, long) in
-		 * order to add without overflow.
+		 * Add command blocks to the user. This method calls {@link Algorithm#safeAdd(long, long)} in order to add
+		 * without overflow, and retries until no other thread changed the command blocks in between.
 		 *
 		 * @param add The amount of command blocks that are going to add on this user.
+		 * @param type Why the command blocks were added, one of the types of {@link CommandBlocksLedger}.
+		 * @return The command blocks after adding.
 		 * @since 2.0
 		 * @author Alex Cai
 		 */
-		public void addBlocks(long add)
+		public long addBlocks(long add, int type)
 		{
-			setBlocks(Algorithm.safeAdd(blocks, add));
+			long oldValue, newValue;
+			do
+			{
+				oldValue = getBlocks();
+				newValue = Algorithm.safeAdd(oldValue, add);
+			}
+			while (!compareAndSetLong(LotteryDataStore.BLOCKS, oldValue, newValue)); //被別的執行緒改過了 重來
+			blocksChanged(oldValue, newValue, type, 0L);
+			return newValue;
+		}
+
+		/**
+		 * Add command blocks that were transferred from another user, as {@link CommandBlocksLedger#TRANSFER_IN}.
+		 *
+		 * @return How many command blocks were really added, which is less than {@code add} only if the command blocks
+		 *         reached {@link Long#MAX_VALUE}.
+		 */
+		private long receiveBlocks(long add, long counterparty)
+		{
+			long oldValue, newValue;
+			do
+			{
+				oldValue = getBlocks();
+				newValue = Algorithm.safeAdd(oldValue, add);
+			}
+			while (!compareAndSetLong(LotteryDataStore.BLOCKS, oldValue, newValue));
+			blocksChanged(oldValue, newValue, CommandBlocksLedger.TRANSFER_IN, counterparty);
+			return newValue - oldValue;
 		}
 
 		/**
@@ -146,16 +417,54 @@ public final class CommandBlocksHandle
 		 * blocks in order to prevent negative command blocks.
 		 *
 		 * @param sub The amount of command blocks that are going to subtract on this user.
+		 * @param type Why the command blocks were subtracted, one of the types of {@link CommandBlocksLedger}.
 		 * @since 2.1
 		 * @author Alex Cai
 		 */
-		public void subBlocks(long sub)
+		public void subBlocks(long sub, int type)
+		{
+			long oldValue, newValue;
+			do
+			{
+				oldValue = getBlocks();
+				newValue = oldValue > sub ? oldValue - sub : 0L;
+			}
+			while (!compareAndSetLong(LotteryDataStore.BLOCKS, oldValue, newValue));
+			blocksChanged(oldValue, newValue, type, 0L);
+		}
+
+		/**
+		 * Take command blocks from the user only if the user has at least {@code take} command blocks. Unlike
+		 * {@link #subBlocks}, nothing is taken if the user does not have enough, so that a bet or a transfer can not
+		 * spend the same command blocks twice.
+		 *
+		 * @param take The amount of command blocks that are going to take from this user.
+		 * @param type Why the command blocks were taken, one of the types of {@link CommandBlocksLedger}.
+		 * @return The command blocks after taking, or -1 if the user did not have enough command blocks.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		public long tryTakeBlocks(long take, int type)
+		{
+			return tryTakeBlocks(take, type, 0L);
+		}
+
+		private long tryTakeBlocks(long take, int type, long counterparty)
 		{
-			setBlocks(blocks > sub ? blocks - sub : 0L);
+			long oldValue;
+			do
+			{
+				oldValue = getBlocks();
+				if (oldValue < take) //不夠 什麼都不做
+					return -1L;
+			}
+			while (!compareAndSetLong(LotteryDataStore.BLOCKS, oldValue, oldValue - take));
+			blocksChanged(oldValue, oldValue - take, type, counterparty);
+			return oldValue - take;
 		}
 
 		/**
-		 * Set command blocks to the user.
+		 * Set command blocks to the user. The change is recorded as {@link CommandBlocksLedger#ADJUSTMENT}.
 		 *
 		 * @param newValue The amount of command blocks that are going to set on this user.
 		 * @since 2.0
@@ -163,70 +472,69 @@ public final class CommandBlocksHandle
 		 */
 		public void setBlocks(long newValue)
 		{
-			changed = true; //指令方塊改變過了
-
-			long oldValue = blocks;
-			blocks = newValue;
+			blocksChanged((long) LONG.getAndSet(chunk, offset + LotteryDataStore.BLOCKS, newValue), newValue, CommandBlocksLedger.ADJUSTMENT, 0L);
+		}
 
-			boolean less = newValue < GAMBLE_ROLE_MIN; //true = 新值依舊比GAMBLE_ROLE_MIN少
-			if (oldValue < GAMBLE_ROLE_MIN == less) //沒有跨過GAMBLE_ROLE_MIN
+		/**
+		 * Called after the command blocks were changed from {@code oldValue} to {@code newValue} by this thread. The
+		 * change itself is recorded in {@link CommandBlocksLedger} as a delta, which is added to the balance in the order
+		 * of the ledger. That is the only lock taken here, held only to copy the record into a buffer. The ranking, the
+		 * journal and {@link RoleSyncHandle} only remember the user in a concurrent map, and read the latest command
+		 * blocks themselves later in a batch, so even if another thread changed them again, the latest value always
+		 * wins.
+		 */
+		private void blocksChanged(long oldValue, long newValue, int type, long counterparty)
+		{
+			if (oldValue == newValue)
 				return;
+			CommandBlocksLedger.append(userID, type, newValue - oldValue, counterparty); //帳本依照自己的順序累加餘額
+			RankingHandle.update(this); //下次讀取排名時移到最新的方塊數
+			persist(); //寫入日誌或資料庫
 
-			Guild cartoland = Cartoland.getJDA().getGuildById(IDs.CARTOLAND_SERVER_ID); //創聯
-			if (cartoland == null) //找不到創聯
-				return;
-			cartoland.retrieveMemberById(userID).queue(member ->
-			{
-				Role godOfGamblersRole = cartoland.getRoleById(IDs.GOD_OF_GAMBLERS_ROLE_ID); //賭神身分組
-				if (godOfGamblersRole == null) //找不到賭神身分組
-					return;
-				boolean hasRole = member.getRoles().contains(godOfGamblersRole);
-				if (!less && !hasRole) //大於等於GAMBLE_ROLE_MIN 且沒有身分組
-					cartoland.addRoleToMember(member, godOfGamblersRole).queue(); //給予賭神身分組
-				else if (less && hasRole) //小於GAMBLE_ROLE_MIN 且有身分組
-					cartoland.removeRoleFromMember(member, godOfGamblersRole).queue(); //剝奪賭神身分組
-			});
+			if (oldValue < GAMBLE_ROLE_MIN != newValue < GAMBLE_ROLE_MIN) //跨過GAMBLE_ROLE_MIN
+				RoleSyncHandle.request(userID); //等一下再一起同步身分組
 		}
 
 		public long getBlocks()
 		{
-			return blocks;
+			return getLong(LotteryDataStore.BLOCKS);
 		}
 
 		public int getWon()
 		{
-			return won;
+			return getInt(LotteryDataStore.WON);
 		}
 
 		public int getLost()
 		{
-			return lost;
+			return getInt(LotteryDataStore.LOST);
 		}
 
 		public int getShowHandWon()
 		{
-			return showHandWon;
+			return getInt(LotteryDataStore.SHOW_HAND_WON);
 		}
 
 		public int getShowHandLost()
 		{
-			return showHandLost;
+			return getInt(LotteryDataStore.SHOW_HAND_LOST);
 		}
 
 		public void addGame(boolean isWon, boolean isShowHand)
 		{
 			if (isWon)
 			{
-				won++;
+				incrementInt(LotteryDataStore.WON);
 				if (isShowHand)
-					showHandWon++;
+					incrementInt(LotteryDataStore.SHOW_HAND_WON);
 			}
 			else
 			{
-				lost++;
+				incrementInt(LotteryDataStore.LOST);
 				if (isShowHand)
-					showHandLost++;
+					incrementInt(LotteryDataStore.SHOW_HAND_LOST);
 			}
+			persist(); //寫入日誌或資料庫
 		}
 
 		/**
@@ -240,48 +548,184 @@ public final class CommandBlocksHandle
 		public boolean tryClaimDaily(int[] until)
 		{
 			long nowSecond = System.currentTimeMillis() / 1000L; //現在距離1970/1/1有幾秒
-			long difference = nowSecond - lastClaimSecond; //和上次領的時間差
-			if (difference < 60 * 60 * 24) //時間小於一天 86400秒
+			long lastClaimSecond, difference;
+			do
 			{
-				//不超過一天
-				int secondsUntil = 60 * 60 * 24 - (int) difference;
-				until[0] = secondsUntil / (60 * 60);
-				until[1] = (secondsUntil / 60) % 60;
-				until[2] = secondsUntil % 60;
-				return false;
+				lastClaimSecond = getLong(LotteryDataStore.LAST_CLAIM_SECOND);
+				difference = nowSecond - lastClaimSecond; //和上次領的時間差
+				if (difference < 60 * 60 * 24) //時間小於一天 86400秒
+				{
+					//不超過一天
+					int secondsUntil = 60 * 60 * 24 - (int) difference;
+					until[0] = secondsUntil / (60 * 60);
+					until[1] = (secondsUntil / 60) % 60;
+					until[2] = secondsUntil % 60;
+					return false;
+				}
 			}
+			while (!compareAndSetLong(LotteryDataStore.LAST_CLAIM_SECOND, lastClaimSecond, nowSecond)); //同時領兩次時 只有一次會成功
+			//成功改掉最後一次領的時間後 一天內只有這個執行緒會改連續天數
 
-			addBlocks(DAILY); //增加每日獎勵
-			lastClaimSecond = nowSecond; //最後一次領的時間為現在
-			if (difference >= 60 * 60 * 24 * 2) //大於兩天 代表超過48小時沒領了
-				streak = 0; //連續歸零
-			streak++; //+1 連續領
+			addBlocks(DAILY, CommandBlocksLedger.DAILY); //增加每日獎勵
+			//大於兩天 代表超過48小時沒領了 連續歸零 否則+1 連續領
+			putInt(LotteryDataStore.STREAK, difference >= 60 * 60 * 24 * 2 ? 1 : getStreak() + 1);
+			persist(); //寫入日誌或資料庫
 			return true;
 		}
 
 		public boolean tryClaimBonus(boolean[] bonus)
 		{
-			long addBonus = 0L; //獎勵的額外指令方塊
+			int streak = getStreak();
 
+			//每一種獎勵分開記在帳本裡
 			if (bonus[0] = (streak % 7 == 0)) //一週
-				addBonus += WEEKLY;
+				addBlocks(WEEKLY, CommandBlocksLedger.WEEKLY);
 			if (bonus[1] = (streak % 30 == 0)) //一個月
-				addBonus += MONTHLY;
+				addBlocks(MONTHLY, CommandBlocksLedger.MONTHLY);
 			if (bonus[2] = (streak % 365 == 0)) //一年
-				addBonus += YEARLY;
+				addBlocks(YEARLY, CommandBlocksLedger.YEARLY);
+
+			return bonus[0] || bonus[1] || bonus[2];
+		}
 
-			if (addBonus != 0L)
+		public int getStreak()
+		{
+			return getInt(LotteryDataStore.STREAK);
+		}
+
+		/**
+		 * Hand the current state of this user to the {@link IStateStore}, which appends it to the journal or queues it
+		 * for the database.
+		 *
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		private void persist()
+		{
+			stateStore.putLotteryData(this);
+		}
+
+		/**
+		 * Write the user ID and the numeric state of this user, exactly {@link #STATE_SIZE} bytes. This is the payload of
+		 * a journal record, and also the beginning of a record in {@code lottery_data.bin}.
+		 *
+		 * @param buffer The buffer that the state is going to be written.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void writeState(ByteBuffer buffer)
+		{
+			buffer.putLong(userID)
+					.putLong(getBlocks())
+					.putInt(getWon())
+					.putInt(getLost())
+					.putInt(getShowHandWon())
+					.putInt(getShowHandLost())
+					.putLong(getLong(LotteryDataStore.LAST_CLAIM_SECOND))
+					.putInt(getStreak());
+		}
+
+		/**
+		 * Restore the numeric state of this user, right after the user ID that was written by {@link #writeState}.
+		 *
+		 * @param buffer The buffer that the state is going to be read.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void readState(ByteBuffer buffer)
+		{
+			putLong(LotteryDataStore.BLOCKS, buffer.getLong());
+			putInt(LotteryDataStore.WON, buffer.getInt());
+			putInt(LotteryDataStore.LOST, buffer.getInt());
+			putInt(LotteryDataStore.SHOW_HAND_WON, buffer.getInt());
+			putInt(LotteryDataStore.SHOW_HAND_LOST, buffer.getInt());
+			putLong(LotteryDataStore.LAST_CLAIM_SECOND, buffer.getLong());
+			putInt(LotteryDataStore.STREAK, buffer.getInt());
+		}
+
+		/**
+		 * Set the command blocks to the balance in {@link CommandBlocksLedger} while loading, without recording it in
+		 * the ledger again.
+		 *
+		 * @param blocks The balance after the last event of this user.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void restoreBlocks(long blocks)
+		{
+			putLong(LotteryDataStore.BLOCKS, blocks);
+			persist(); //寫入日誌或資料庫 下次就不用再修正了
+		}
+
+		/**
+		 * Restore the numeric state of this user from a slot of another {@link LotteryDataStore}, such as the slots
+		 * that were left by the mapped engine.
+		 *
+		 * @param slots The buffer that holds the slot.
+		 * @param slotOffset The offset of the slot in the buffer.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void restoreSlot(ByteBuffer slots, int slotOffset)
+		{
+			putLong(LotteryDataStore.BLOCKS, slots.getLong(slotOffset + LotteryDataStore.BLOCKS));
+			putInt(LotteryDataStore.WON, slots.getInt(slotOffset + LotteryDataStore.WON));
+			putInt(LotteryDataStore.LOST, slots.getInt(slotOffset + LotteryDataStore.LOST));
+			putInt(LotteryDataStore.SHOW_HAND_WON, slots.getInt(slotOffset + LotteryDataStore.SHOW_HAND_WON));
+			putInt(LotteryDataStore.SHOW_HAND_LOST, slots.getInt(slotOffset + LotteryDataStore.SHOW_HAND_LOST));
+			putLong(LotteryDataStore.LAST_CLAIM_SECOND, slots.getLong(slotOffset + LotteryDataStore.LAST_CLAIM_SECOND));
+			putInt(LotteryDataStore.STREAK, slots.getInt(slotOffset + LotteryDataStore.STREAK));
+		}
+
+		/**
+		 * Write a length-prefixed record of {@code lottery_data.bin}: the state written by {@link #writeState}, then the
+		 * length of the UTF-8 name and the name itself. A null name has length -1.
+		 *
+		 * @param stream The stream of the file.
+		 * @param state A buffer of {@link #STATE_SIZE} bytes that can be reused between records.
+		 * @throws IOException If an I/O error occurs.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void writeRecord(DataOutputStream stream, ByteBuffer state) throws IOException
+		{
+			byte[] nameBytes = (name != null) ? name.getBytes(StandardCharsets.UTF_8) : null;
+			state.clear();
+			writeState(state);
+			stream.writeInt(STATE_SIZE + Integer.BYTES + (nameBytes != null ? nameBytes.length : 0)); //長度
+			stream.write(state.array(), 0, STATE_SIZE);
+			if (nameBytes != null)
 			{
-				addBlocks(addBonus);
-				return true;
+				stream.writeInt(nameBytes.length);
+				stream.write(nameBytes);
 			}
 			else
-				return false;
+				stream.writeInt(-1);
 		}
 
-		public int getStreak()
+		/**
+		 * Read a record that was written by {@link #writeRecord}, starting from the user ID. The limit of the buffer
+		 * must be the end of the record.
+		 *
+		 * @param buffer The buffer that the record is going to be read.
+		 * @param withState If false, only the name is read, because the numeric state was loaded from the mapped slots.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void readRecord(ByteBuffer buffer, boolean withState)
 		{
-			return streak;
+			buffer.position(buffer.position() + Long.BYTES); //略過userID
+			if (withState)
+				readState(buffer);
+			else
+				buffer.position(buffer.position() + STATE_SIZE - Long.BYTES);
+			if (buffer.remaining() < Integer.BYTES) //沒有名字的欄位
+				return;
+			int nameLength = buffer.getInt();
+			if (nameLength < 0) //null
+				return;
+			name = new String(buffer.array(), buffer.position(), nameLength, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + nameLength);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,337 @@
+package cartoland.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * {@code CommandBlocksJournal} is an append-only write-ahead journal of {@link CommandBlocksHandle.LotteryData}. A record
+ * has a fixed size and holds the whole numeric state of a user, so replaying the journal on top of the last snapshot is
+ * idempotent. Records are group-committed: a mutation only remembers the user in a concurrent map without taking any
+ * lock, and a background thread writes one record with the latest state of every remembered user, then fsyncs, every
+ * {@link #FSYNC_INTERVAL} milliseconds. A user that changed many times in between is written once. The journal is
+ * rotated around every snapshot taken by {@link FileHandle}. Can not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class CommandBlocksJournal
+{
+	private CommandBlocksJournal()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	private static final String JOURNAL_FILE_NAME = "serialize/lottery_data.journal";
+	private static final String ROTATED_FILE_NAME = JOURNAL_FILE_NAME + ".old"; //正在等待快照完成的日誌
+	private static final int PAYLOAD_SIZE = CommandBlocksHandle.LotteryData.STATE_SIZE;
+	private static final int RECORD_SIZE = PAYLOAD_SIZE + Integer.BYTES; //再加上CRC32
+	private static final long FSYNC_INTERVAL = Long.getLong("cartoland.journal.fsync_interval", 1000L); //毫秒 0代表每筆紀錄都立即寫入
+
+	private static final Map<Long, CommandBlocksHandle.LotteryData> dirty = new ConcurrentHashMap<>(); //等待寫入的使用者 寫入時才讀取最新的狀態
+	private static final Object appendLock = new Object(); //保護pending
+	private static final Object flushLock = new Object(); //保護channel和writing
+	private static final CRC32 crc = new CRC32(); //只在appendLock內使用
+	private static ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 256); //等待寫入的紀錄
+	private static ByteBuffer writing = ByteBuffer.allocate(RECORD_SIZE * 256); //正在寫入的紀錄
+	private static FileChannel channel;
+
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland Journal Writer");
+		thread.setDaemon(true); //不阻止JVM結束
+		return thread;
+	});
+
+	static
+	{
+		try
+		{
+			channel = FileChannel.open(Paths.get(JOURNAL_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+		}
+		if (FSYNC_INTERVAL > 0L)
+			writer.scheduleWithFixedDelay(CommandBlocksJournal::flush, FSYNC_INTERVAL, FSYNC_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Replay every intact record in the journal file. Each record overwrites the numeric state of the user, so records
+	 * that are already reflected in the snapshot do no harm. Reading stops at the first torn or corrupted record, which
+	 * can only be the tail written when the process died.
+	 *
+	 * @param lotteryDataOf Returns the lottery data of a user ID, creating it if absent.
+	 * @return How many records were replayed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static int replay(LongFunction<CommandBlocksHandle.LotteryData> lotteryDataOf)
+	{
+		//先重播上次快照沒完成的舊日誌 再重播新日誌
+		return replay(Paths.get(ROTATED_FILE_NAME), lotteryDataOf) + replay(Paths.get(JOURNAL_FILE_NAME), lotteryDataOf);
+	}
+
+	private static int replay(Path path, LongFunction<CommandBlocksHandle.LotteryData> lotteryDataOf)
+	{
+		if (!Files.exists(path))
+			return 0;
+
+		ByteBuffer records;
+		try
+		{
+			records = ByteBuffer.wrap(Files.readAllBytes(path));
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			return 0;
+		}
+
+		CRC32 replayCRC = new CRC32();
+		int replayed = 0;
+		while (records.remaining() >= RECORD_SIZE)
+		{
+			int start = records.position();
+			replayCRC.reset();
+			replayCRC.update(records.array(), start, PAYLOAD_SIZE);
+			if ((int) replayCRC.getValue() != records.getInt(start + PAYLOAD_SIZE)) //損毀的紀錄
+				break; //之後的都不可信
+
+			lotteryDataOf.apply(records.getLong(start)).readState(records.position(start + Long.BYTES));
+			records.position(start + RECORD_SIZE);
+			replayed++;
+		}
+		return replayed;
+	}
+
+	/**
+	 * Append the current state of a user to the journal. The state is read and written to disk by the next group
+	 * commit, or immediately if {@link #FSYNC_INTERVAL} is 0.
+	 *
+	 * @param lotteryData The lottery data that just changed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void append(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		if (FSYNC_INTERVAL > 0L)
+		{
+			dirty.put(lotteryData.getUserID(), lotteryData); //不拿鎖 已經在裡面的話就不會再多一筆
+			return;
+		}
+		synchronized (appendLock)
+		{
+			appendRecord(lotteryData);
+		}
+		flush();
+	}
+
+	/**
+	 * Put a record of the current state of a user into {@link #pending}. Must be called while holding
+	 * {@link #appendLock}.
+	 */
+	private static void appendRecord(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		if (pending.remaining() < RECORD_SIZE) //滿了 就擴大 反正下次寫入時就會清空
+		{
+			ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() << 1);
+			pending.flip();
+			pending = bigger.put(pending);
+		}
+		int start = pending.position();
+		lotteryData.writeState(pending); //在鎖內讀取 確保最後一筆紀錄永遠是最新的狀態
+		crc.reset();
+		crc.update(pending.array(), start, PAYLOAD_SIZE);
+		pending.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * Write every pending record to the journal file and force them onto the storage device.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void flush()
+	{
+		synchronized (flushLock)
+		{
+			synchronized (appendLock) //交換兩個buffer 讓append不必等待fsync
+			{
+				for (Long userID : dirty.keySet())
+				{
+					CommandBlocksHandle.LotteryData lotteryData = dirty.remove(userID); //先移除再讀取 之後的變動會再放進來
+					if (lotteryData != null)
+						appendRecord(lotteryData);
+				}
+				ByteBuffer temp = pending;
+				pending = writing;
+				writing = temp;
+			}
+			//這些紀錄的帳本紀錄都在它們之前加入 先寫入帳本 啟動時帳本就不會比日誌舊
+			CommandBlocksLedger.flush();
+			if (writing.position() == 0 || channel == null) //沒有東西要寫
+			{
+				writing.clear();
+				return;
+			}
+
+			writing.flip();
+			try
+			{
+				while (writing.hasRemaining())
+					channel.write(writing);
+				channel.force(false);
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+			writing.clear();
+		}
+	}
+
+	/**
+	 * Start a new journal file right before a snapshot is taken. Records in the rotated file are all reflected in the
+	 * snapshot, so they can be deleted by {@link #checkpoint} once the snapshot is on disk. Records that are appended
+	 * while the snapshot is being written go to the new file and will be replayed on top of it.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void rotate()
+	{
+		flush();
+		synchronized (flushLock)
+		{
+			if (channel == null)
+				return;
+			Path journal = Paths.get(JOURNAL_FILE_NAME);
+			Path rotated = Paths.get(ROTATED_FILE_NAME);
+			boolean moved = false;
+			try
+			{
+				channel.close(); //Windows不能搬動開著的檔案
+				if (Files.exists(rotated)) //上一次的快照失敗了 舊的紀錄還不能丟
+					Files.write(rotated, Files.readAllBytes(journal), StandardOpenOption.APPEND);
+				else
+					Files.move(journal, rotated, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				moved = true;
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+			finally //不論有沒有搬走 都要重新打開 否則之後的紀錄都會被丟掉
+			{
+				try
+				{
+					//搬走失敗的話 繼續寫在原本的日誌後面 就算舊日誌裡多了一份也沒關係 重播是冪等的
+					channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+											   moved ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+				}
+				catch (IOException exception)
+				{
+					exception.printStackTrace();
+					FileHandle.log(exception);
+					channel = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete the rotated journal file after a snapshot of every lottery data has been written successfully.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void checkpoint()
+	{
+		try
+		{
+			Files.deleteIfExists(Paths.get(ROTATED_FILE_NAME));
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+		}
+	}
+
+	/**
+	 * Throw away every record, including the rotated file. This is only safe when every record is already reflected
+	 * somewhere newer, such as the mapped slots or a snapshot that was just written.
+	 *
+	 * @return true if both files are empty or gone.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static boolean discard()
+	{
+		flush();
+		synchronized (flushLock)
+		{
+			try
+			{
+				if (channel != null)
+				{
+					channel.truncate(0L);
+					channel.force(true);
+				}
+				Files.deleteIfExists(Paths.get(ROTATED_FILE_NAME));
+				return true;
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Flush the journal and stop the writer thread.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void close()
+	{
+		writer.shutdown();
+		flush();
+		synchronized (flushLock)
+		{
+			if (channel == null)
+				return;
+			try
+			{
+				channel.close();
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,486 @@
+package cartoland.utilities;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * {@code CommandBlocksLedger} is an append-only ledger of every change of command blocks. Unlike
+ * {@link CommandBlocksJournal}, which only keeps the latest state of a user, every record here is a typed event: who,
+ * when, why, how many, the balance after it, and the other user of a transfer. Every record also points back to the
+ * previous record of the same user, so the history of a user is read by following the pointers from the last record,
+ * without scanning the whole ledger. The last record and balance of every user is kept in memory and snapshotted to
+ * {@code command_blocks_ledger.index} by {@link FileHandle}, so that startup only needs to replay the records after
+ * the snapshot. The balance of a record is the balance of the previous record plus the delta, in the order that the
+ * records were appended, so even if two threads append their changes in the other order than they made them, the last
+ * balance is always the real command blocks. The ledger is flushed after the state of the users is read and before it
+ * is committed anywhere, so except for the mapped slots, which the OS writes whenever it likes, no committed state is
+ * newer than the ledger, and the ledger is the source of the command blocks at startup, see {@link #restore}. Records are group-committed like the journal, and records that failed to be written are kept
+ * and written again by the next commit. Can not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class CommandBlocksLedger
+{
+	private CommandBlocksLedger()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	//事件的種類 寫進檔案裡了 只能新增不能修改
+	public static final int MESSAGE = 0; //說話
+	public static final int DAILY = 1; //每日獎勵
+	public static final int WEEKLY = 2; //連續一週
+	public static final int MONTHLY = 3; //連續一個月
+	public static final int YEARLY = 4; //連續一年
+	public static final int BET_WIN = 5; //賭贏
+	public static final int BET_LOSS = 6; //賭輸
+	public static final int TRANSFER_OUT = 7; //轉出
+	public static final int TRANSFER_IN = 8; //轉入
+	public static final int GAME_REWARD = 9; //小遊戲獎勵
+	public static final int PUNISHMENT = 10; //小遊戲懲罰
+	public static final int ADJUSTMENT = 11; //直接設定方塊數
+	private static final String[] TYPE_NAMES =
+	{
+		"message", "daily", "weekly", "monthly", "yearly", "bet_win", "bet_loss",
+		"transfer_out", "transfer_in", "game_reward", "punishment", "adjustment"
+	};
+
+	static final String LEDGER_FILE_NAME = "serialize/command_blocks.ledger";
+	private static final String INDEX_FILE_NAME = "serialize/command_blocks_ledger.index";
+	//userID, time, delta, balance, counterparty, previous, type, CRC32
+	private static final int PAYLOAD_SIZE = Long.BYTES * 6 + Integer.BYTES;
+	static final int RECORD_SIZE = PAYLOAD_SIZE + Integer.BYTES;
+	private static final int PREVIOUS = Long.BYTES * 5; //上一筆紀錄的位置 在紀錄中的位置
+	private static final long FLUSH_INTERVAL = Long.getLong("cartoland.ledger.flush_interval", 1000L); //毫秒
+
+	private static final Object appendLock = new Object(); //保護pending、lastRecords和length
+	private static final Object flushLock = new Object(); //保護channel、writing和written
+	private static final CRC32 crc = new CRC32(); //只在appendLock內使用
+	private static final LongMap<long[]> lastRecords = new LongMap<>(); //userID為key 最後一筆紀錄的位置為value[0] 餘額為value[1]
+	private static long length; //加上還沒寫入的紀錄後 帳本的長度
+	private static long written; //已經寫入硬碟的長度
+	private static ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 256); //等待寫入的紀錄
+	private static ByteBuffer writing = ByteBuffer.allocate(RECORD_SIZE * 256); //正在寫入的紀錄
+	private static FileChannel channel;
+
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland Ledger Writer");
+		thread.setDaemon(true); //不阻止JVM結束
+		return thread;
+	});
+
+	static
+	{
+		try
+		{
+			channel = FileChannel.open(Paths.get(LEDGER_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			long snapshotLength = readIndex();
+			long fileLength = channel.size();
+			if (snapshotLength > fileLength) //快照比帳本還新 帳本的結尾遺失了 只好從頭重播
+			{
+				lastRecords.clear();
+				snapshotLength = 0L;
+			}
+			length = replay(Paths.get(LEDGER_FILE_NAME), snapshotLength, fileLength, lastRecords);
+			int replayed = (int) ((length - snapshotLength) / RECORD_SIZE);
+			channel.truncate(length); //丟掉寫到一半的紀錄 之後才能從正確的位置繼續寫
+			channel.position(length);
+			written = length;
+			if (replayed != 0)
+				FileHandle.log("Replayed " + replayed + " records from the command blocks ledger.");
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			channel = null;
+		}
+		FileHandle.registerSerialize(INDEX_FILE_NAME, CommandBlocksLedger::writeIndex, CommandBlocksLedger::flush, null);
+		writer.scheduleWithFixedDelay(CommandBlocksLedger::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Read the snapshot of the index.
+	 *
+	 * @return The length of the ledger that the snapshot covers.
+	 */
+	private static long readIndex()
+	{
+		Path index = Paths.get(INDEX_FILE_NAME);
+		if (!Files.exists(index))
+			return 0L;
+		try (DataInputStream stream = new DataInputStream(Files.newInputStream(index)))
+		{
+			long snapshotLength = stream.readLong();
+			for (int i = stream.readInt(); i > 0; i--)
+				lastRecords.put(stream.readLong(), new long[] { stream.readLong(), stream.readLong() });
+			return snapshotLength;
+		}
+		catch (IOException exception) //快照壞了 從頭重播就好
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			lastRecords.clear();
+			return 0L;
+		}
+	}
+
+	private static void writeIndex(DataOutputStream stream) throws IOException
+	{
+		long indexLength;
+		long[] entries; //userID, 最後一筆紀錄的位置, 餘額 一個接一個
+		synchronized (appendLock) //只在鎖內複製 和紀錄的長度一致 寫入檔案時不擋住append
+		{
+			indexLength = length;
+			entries = new long[lastRecords.size() * 3];
+			int[] index = new int[1];
+			lastRecords.forEach((userID, lastRecord) ->
+			{
+				entries[index[0]++] = userID;
+				entries[index[0]++] = lastRecord[0];
+				entries[index[0]++] = lastRecord[1];
+			});
+		}
+		stream.writeLong(indexLength);
+		stream.writeInt(entries.length / 3);
+		for (long entry : entries)
+			stream.writeLong(entry);
+	}
+
+	/**
+	 * Replay the records of a ledger file between two positions, until the first torn or corrupted record, which can
+	 * only be the tail written when the process died.
+	 *
+	 * @param ledger The ledger file.
+	 * @param from The position after the last record that {@code records} already has, such as the snapshot of the index.
+	 * @param to The length of the file.
+	 * @param records The last record and balance of every user, updated by every replayed record.
+	 * @return The position after the last intact record, where the next record should be written.
+	 * @throws IOException If the file can not be read.
+	 */
+	static long replay(Path ledger, long from, long to, LongMap<long[]> records) throws IOException
+	{
+		long position = from;
+		if (from >= to)
+			return position;
+		CRC32 replayCRC = new CRC32();
+		try (InputStream stream = Files.newInputStream(ledger))
+		{
+			stream.skipNBytes(from);
+			byte[] record = new byte[RECORD_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			while (position + RECORD_SIZE <= to && stream.readNBytes(record, 0, RECORD_SIZE) == RECORD_SIZE)
+			{
+				replayCRC.reset();
+				replayCRC.update(record, 0, PAYLOAD_SIZE);
+				if ((int) replayCRC.getValue() != buffer.getInt(PAYLOAD_SIZE)) //損毀的紀錄
+					break; //之後的都不可信
+				records.put(buffer.getLong(0), new long[] { position, buffer.getLong(Long.BYTES * 3) });
+				position += RECORD_SIZE;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Append an event to the ledger. The record will be written to disk by the next group commit. The balance after the
+	 * event is the balance of the last record of the user plus {@code delta}, so the caller only needs to know how much
+	 * its own compare-and-set changed.
+	 *
+	 * @param userID The ID of the user.
+	 * @param type The type of the event, such as {@link #BET_WIN}.
+	 * @param delta How many command blocks were added, negative if subtracted.
+	 * @param counterparty The other user of a transfer, or 0.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void append(long userID, int type, long delta, long counterparty)
+	{
+		synchronized (appendLock)
+		{
+			if (pending.remaining() < RECORD_SIZE) //滿了 就擴大 反正下次寫入時就會清空
+			{
+				ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() << 1);
+				pending.flip();
+				pending = bigger.put(pending);
+			}
+			long[] lastRecord = lastRecords.get(userID);
+			long balance = (lastRecord != null ? lastRecord[1] : 0L) + delta; //沒有紀錄的使用者是剛建立的 從0開始
+			int start = pending.position();
+			pending.putLong(userID)
+					.putLong(System.currentTimeMillis())
+					.putLong(delta)
+					.putLong(balance)
+					.putLong(counterparty)
+					.putLong(lastRecord != null ? lastRecord[0] : -1L) //第一筆紀錄
+					.putInt(type);
+			crc.reset();
+			crc.update(pending.array(), start, PAYLOAD_SIZE);
+			pending.putInt((int) crc.getValue());
+
+			if (lastRecord != null)
+			{
+				lastRecord[0] = length;
+				lastRecord[1] = balance;
+			}
+			else
+				lastRecords.put(userID, new long[] { length, balance });
+			length += RECORD_SIZE;
+		}
+		FileHandle.markDirty(INDEX_FILE_NAME);
+	}
+
+	/**
+	 * Write every pending record to the ledger file.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void flush()
+	{
+		synchronized (flushLock)
+		{
+			synchronized (appendLock) //交換兩個buffer 讓append不必等待寫入
+			{
+				ByteBuffer temp = pending;
+				pending = writing;
+				writing = temp;
+			}
+			if (writing.position() == 0 || channel == null) //沒有東西要寫
+			{
+				writing.clear();
+				return;
+			}
+
+			writing.flip();
+			try
+			{
+				if (channel.position() != written) //上次寫到一半就失敗了 先丟掉那一半
+					channel.truncate(written).position(written);
+				while (writing.hasRemaining())
+					channel.write(writing);
+				channel.force(false);
+				written = channel.position();
+				writing.clear();
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+				writing.rewind(); //紀錄的位置已經決定了 只能留到下次 排在新的紀錄前面重寫
+				synchronized (appendLock)
+				{
+					pending.flip();
+					ByteBuffer retry = ByteBuffer.allocate(Math.max(writing.remaining() + pending.remaining(), pending.capacity()) << 1);
+					pending = retry.put(writing).put(pending);
+				}
+				writing.clear();
+			}
+		}
+	}
+
+	/**
+	 * Make the command blocks that were loaded and the balance after the last event of every user agree. Unless the
+	 * mapped slots are used, the ledger is flushed before any state is committed, so a user differs if the snapshot,
+	 * the journal or the database lost a change that the ledger kept, and the ledger wins. The mapped slots are written
+	 * in place right away while the ledger is written every second, so the slots are the newer ones, and the ledger
+	 * gets an {@link #ADJUSTMENT} instead. Users that have never been recorded, such as the ones from before the ledger
+	 * existed, start their balance in the ledger from their current command blocks.
+	 *
+	 * @param lotteryDataMap The lottery data that was loaded. Users that only exist in the ledger are added to it.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void restore(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap)
+	{
+		restore(lotteryDataMap, !LotteryDataStore.MAPPED);
+	}
+
+	/**
+	 * @param ledgerIsNewer true if the loaded state can only be older than the ledger, false if it can only be newer.
+	 */
+	static void restore(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap, boolean ledgerIsNewer)
+	{
+		LongMap<long[]> differ = new LongMap<>();
+		synchronized (appendLock)
+		{
+			if (channel != null) //帳本打不開的話 lastRecords只有快照的內容 不能拿來比較
+			{
+				lotteryDataMap.forEach((userID, lotteryData) ->
+				{
+					long[] lastRecord = lastRecords.get(userID);
+					if (lastRecord != null && lotteryData.getBlocks() != lastRecord[1])
+						differ.put(userID, lastRecord.clone());
+				});
+				lastRecords.forEach((userID, lastRecord) ->
+				{
+					if (!lotteryDataMap.containsKey(userID)) //快照和日誌都遺失了這名使用者 不論哪邊比較新 方塊都不能消失
+						differ.put(userID, lastRecord.clone());
+				});
+			}
+			lotteryDataMap.forEach((userID, lotteryData) ->
+			{
+				if (!lastRecords.containsKey(userID)) //還沒有任何紀錄 之後的紀錄從現在的方塊數開始累加
+					lastRecords.put(userID, new long[] { -1L, lotteryData.getBlocks() });
+			});
+		}
+		if (differ.isEmpty())
+			return;
+
+		differ.forEach((userID, lastRecord) -> //寫入日誌和帳本時不能拿著appendLock
+		{
+			CommandBlocksHandle.LotteryData lotteryData = lotteryDataMap.get(userID);
+			if (lotteryData == null)
+			{
+				lotteryData = new CommandBlocksHandle.LotteryData(userID);
+				lotteryDataMap.put(userID, lotteryData);
+				lotteryData.restoreBlocks(lastRecord[1]);
+			}
+			else if (ledgerIsNewer)
+				lotteryData.restoreBlocks(lastRecord[1]);
+			else //slot比較新 補一筆紀錄讓帳本跟上
+				append(userID, ADJUSTMENT, lotteryData.getBlocks() - lastRecord[1], 0L);
+		});
+		FileHandle.log((ledgerIsNewer ? "Restored the command blocks of " : "Adjusted the ledger of ") + differ.size() + " users.");
+	}
+
+	/**
+	 * Get the events of a user, from the newest to the oldest. Only the records of this user are read.
+	 *
+	 * @param userID The ID of the user.
+	 * @param skip How many of the newest events to skip.
+	 * @param limit The maximum number of events.
+	 * @return The events, newest first.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static List<Event> history(long userID, int skip, int limit)
+	{
+		long offset;
+		synchronized (appendLock)
+		{
+			long[] lastRecord = lastRecords.get(userID);
+			if (lastRecord == null) //沒有任何紀錄
+				return List.of();
+			offset = lastRecord[0];
+		}
+		flush(); //還在記憶體中的紀錄也要讀得到
+
+		List<Event> events = new ArrayList<>(limit);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		synchronized (flushLock)
+		{
+			if (channel == null)
+				return events;
+			try
+			{
+				for (int i = 0; offset != -1L && offset < written && events.size() < limit; i++) //寫入失敗的紀錄還讀不到
+				{
+					record.clear();
+					while (record.hasRemaining() && channel.read(record, offset + record.position()) != -1);
+					if (i >= skip)
+						events.add(new Event(record));
+					offset = record.getLong(PREVIOUS);
+				}
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * Flush the ledger and stop the writer thread.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void close()
+	{
+		writer.shutdown();
+		flush();
+		synchronized (flushLock)
+		{
+			if (channel == null)
+				return;
+			try
+			{
+				channel.close();
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * An event read from the ledger.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static final class Event
+	{
+		private final long time;
+		private final long delta;
+		private final long balance;
+		private final long counterparty;
+		private final int type;
+
+		private Event(ByteBuffer record)
+		{
+			time = record.getLong(Long.BYTES);
+			delta = record.getLong(Long.BYTES * 2);
+			balance = record.getLong(Long.BYTES * 3);
+			counterparty = record.getLong(Long.BYTES * 4);
+			type = record.getInt(Long.BYTES * 6);
+		}
+
+		public long getTime()
+		{
+			return time;
+		}
+
+		public long getDelta()
+		{
+			return delta;
+		}
+
+		public long getBalance()
+		{
+			return balance;
+		}
+
+		public long getCounterparty()
+		{
+			return counterparty;
+		}
+
+		public String getTypeName()
+		{
+			return type >= 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : "unknown";
+		}
+	}
+}
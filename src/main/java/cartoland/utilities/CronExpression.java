@@ -0,0 +1,168 @@
+package cartoland.utilities;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * {@code CronExpression} is a cron expression of five fields: minute, hour, day of month, month and day of week, in
+ * that order. Each field can be {@code *}, a number, a range such as {@code 1-5}, any of them followed by a step such as
+ * {@code *}{@code /15}, or a list of those separated by commas. Sunday is both 0 and 7. Like cron, if neither the day
+ * of month nor the day of week starts with {@code *}, a day matches when either of them matches, otherwise it has to
+ * match both. Every field is kept as a bit mask, so checking a time is a few bit operations. The times are local times,
+ * and {@link #toEpochMilli} decides what they mean around a daylight saving change.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class CronExpression
+{
+	private static final int SEARCH_YEARS = 5; //找不到的話 就當作永遠不會執行
+
+	private final String expression;
+	private final long minutes; //第n個bit代表第n分鐘
+	private final long hours;
+	private final long daysOfMonth;
+	private final long months;
+	private final long daysOfWeek; //0為星期日
+	private final boolean eitherDay; //日期和星期都有指定的話 符合其中一個即可
+
+	/**
+	 * Parse a cron expression.
+	 *
+	 * @param expression The expression, such as {@code "0 12 * * *"}.
+	 * @throws IllegalArgumentException If the expression is not valid.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	CronExpression(String expression)
+	{
+		String[] fields = expression.trim().split("\\s+");
+		if (fields.length != 5)
+			throw new IllegalArgumentException("A cron expression must have 5 fields: " + expression);
+		this.expression = expression;
+		minutes = parseField(fields[0], 0, 59);
+		hours = parseField(fields[1], 0, 23);
+		daysOfMonth = parseField(fields[2], 1, 31);
+		months = parseField(fields[3], 1, 12);
+		long week = parseField(fields[4], 0, 7);
+		daysOfWeek = (week | week >>> 7) & 0x7FL; //7也是星期日
+		eitherDay = !fields[2].startsWith("*") && !fields[4].startsWith("*"); //和cron一樣 */2也算是沒有限制
+	}
+
+	private long parseField(String field, int min, int max)
+	{
+		long mask = 0L;
+		for (String part : field.split(","))
+		{
+			int step = 1;
+			int slash = part.indexOf('/');
+			if (slash != -1)
+			{
+				step = parseNumber(part.substring(slash + 1), 1, max);
+				part = part.substring(0, slash);
+			}
+
+			int from, to;
+			if (part.equals("*"))
+			{
+				from = min;
+				to = max;
+			}
+			else
+			{
+				int dash = part.indexOf('-');
+				if (dash != -1)
+				{
+					from = parseNumber(part.substring(0, dash), min, max);
+					to = parseNumber(part.substring(dash + 1), from, max);
+				}
+				else
+				{
+					from = parseNumber(part, min, max);
+					to = slash != -1 ? max : from; //5/15代表從5開始每15
+				}
+			}
+
+			for (int i = from; i <= to; i += step)
+				mask |= 1L << i;
+		}
+		return mask;
+	}
+
+	private int parseNumber(String number, int min, int max)
+	{
+		int value;
+		try
+		{
+			value = Integer.parseInt(number);
+		}
+		catch (NumberFormatException exception)
+		{
+			throw new IllegalArgumentException("Invalid cron field \"" + number + "\" in: " + expression);
+		}
+		if (value < min || value > max)
+			throw new IllegalArgumentException(number + " is not between " + min + " and " + max + " in: " + expression);
+		return value;
+	}
+
+	/**
+	 * Find the first time that matches this expression after a time. Fields that do not match are skipped as a whole,
+	 * for example a wrong month jumps straight to the next month.
+	 *
+	 * @param after The time to start from. The seconds are ignored.
+	 * @return The first matching minute strictly after {@code after}, or null if nothing matches within five years.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	LocalDateTime next(LocalDateTime after)
+	{
+		LocalDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1L);
+		int lastYear = time.getYear() + SEARCH_YEARS;
+		while (time.getYear() <= lastYear)
+		{
+			if ((months & 1L << time.getMonthValue()) == 0L) //下個月
+				time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1L);
+			else if (!dayMatches(time)) //明天
+				time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1L);
+			else if ((hours & 1L << time.getHour()) == 0L) //下個小時
+				time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1L);
+			else if ((minutes & 1L << time.getMinute()) == 0L) //下一分鐘
+				time = time.plusMinutes(1L);
+			else
+				return time;
+		}
+		return null; //例如2月31日
+	}
+
+	/**
+	 * Turn a time returned by {@link #next} into an instant in a zone. A time that does not exist because the clock
+	 * was turned forward is moved later by the length of the gap, so it still runs once. A time that happens twice
+	 * because the clock was turned back is the earlier one, and since {@link #next} only returns each local time once,
+	 * it does not run again an hour later.
+	 *
+	 * @param time The local time.
+	 * @param zone The zone of the time.
+	 * @return The milliseconds since 1970.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static long toEpochMilli(LocalDateTime time, ZoneId zone)
+	{
+		return ZonedDateTime.of(time, zone).toInstant().toEpochMilli(); //重疊時預設就是較早的offset
+	}
+
+	private boolean dayMatches(LocalDateTime time)
+	{
+		boolean dayOfMonth = (daysOfMonth & 1L << time.getDayOfMonth()) != 0L;
+		boolean dayOfWeek = (daysOfWeek & 1L << (time.getDayOfWeek().getValue() % 7)) != 0L; //星期日是7 % 7 = 0
+		return eitherDay ? dayOfMonth || dayOfWeek : dayOfMonth && dayOfWeek;
+	}
+
+	@Override
+	public String toString()
+	{
+		return expression;
+	}
+}
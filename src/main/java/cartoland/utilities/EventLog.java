@@ -0,0 +1,231 @@
+package cartoland.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code EventLog} is an optional structured log next to the text log of {@link FileHandle#log}. Every event is a
+ * fixed-size record of {@link #RECORD_SIZE} bytes in {@code logs/<date>.events}, so that {@link cartoland.EventLogQuery}
+ * can scan months of them with memory-mapped I/O instead of parsing text. Records are buffered in memory and written by
+ * a background thread every second. It is enabled by {@code -Dcartoland.event_log=true}. Can not be instantiated or
+ * inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class EventLog
+{
+	private EventLog()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	public static final boolean ENABLED = Boolean.getBoolean("cartoland.event_log");
+	public static final String FILE_EXTENSION = ".events";
+	public static final int MAGIC = 0x43455654; //"CEVT"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = Integer.BYTES * 2; //MAGIC, VERSION
+
+	//一筆紀錄的格式
+	public static final int TIME = 0; //long 毫秒
+	public static final int USER_ID = 8; //long
+	public static final int LATENCY = 16; //int 微秒
+	public static final int KIND = 20; //byte
+	public static final int NAME_LENGTH = 21; //byte
+	public static final int NAME = 22; //UTF-8 超過的部分會被截掉
+	public static final int RECORD_SIZE = 64;
+	public static final int MAX_NAME_LENGTH = RECORD_SIZE - NAME;
+
+	//事件的種類
+	public static final byte COMMAND = 0;
+	public static final byte CONTEXT_MENU = 1;
+	public static final byte DIRECT_MESSAGE = 2;
+
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+	private static final Object appendLock = new Object(); //保護pending
+	private static final Object flushLock = new Object(); //保護channel和writing
+	private static ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 256); //等待寫入的紀錄
+	private static ByteBuffer writing = ByteBuffer.allocate(RECORD_SIZE * 256); //正在寫入的紀錄
+	private static FileChannel channel;
+	private static long dayStart, dayEnd; //channel那一天的開始和結束 毫秒
+
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland Event Log Writer");
+		thread.setDaemon(true); //不阻止JVM結束
+		return thread;
+	});
+
+	static
+	{
+		if (ENABLED)
+			writer.scheduleWithFixedDelay(EventLog::flush, 1L, 1L, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Record an event. This only copies the event into a buffer, the file is written later.
+	 *
+	 * @param kind {@link #COMMAND}, {@link #CONTEXT_MENU} or {@link #DIRECT_MESSAGE}.
+	 * @param userID The ID of the user that caused the event.
+	 * @param name The name of the command or the context menu, can be empty.
+	 * @param latencyNanos How long the bot spent on the event, in nanoseconds.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void record(byte kind, long userID, String name, long latencyNanos)
+	{
+		if (!ENABLED)
+			return;
+
+		long time = System.currentTimeMillis();
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		synchronized (appendLock)
+		{
+			if (pending.remaining() < RECORD_SIZE) //滿了 就擴大 反正下次寫入時就會清空
+			{
+				ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() << 1);
+				pending.flip();
+				pending = bigger.put(pending);
+			}
+			put(pending, time, kind, userID, nameBytes, latencyNanos);
+		}
+	}
+
+	/**
+	 * Put a record at the position of a buffer and move the position to the next record. The name is cut to
+	 * {@link #MAX_NAME_LENGTH} bytes without splitting a character, and the latency is stored in microseconds.
+	 *
+	 * @param records The buffer, which must have {@link #RECORD_SIZE} bytes remaining.
+	 * @param time The time of the event, in milliseconds since 1970.
+	 * @param kind {@link #COMMAND}, {@link #CONTEXT_MENU} or {@link #DIRECT_MESSAGE}.
+	 * @param userID The ID of the user that caused the event.
+	 * @param nameBytes The name in UTF-8.
+	 * @param latencyNanos How long the bot spent on the event, in nanoseconds.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void put(ByteBuffer records, long time, byte kind, long userID, byte[] nameBytes, long latencyNanos)
+	{
+		int nameLength = Math.min(nameBytes.length, MAX_NAME_LENGTH);
+		while (nameLength < nameBytes.length && nameLength > 0 && (nameBytes[nameLength] & 0xC0) == 0x80) //不要把一個字切成兩半
+			nameLength--;
+		int latency = (int) Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), Integer.MAX_VALUE);
+		int start = records.position();
+		records.putLong(start + TIME, time)
+				.putLong(start + USER_ID, userID)
+				.putInt(start + LATENCY, latency)
+				.put(start + KIND, kind)
+				.put(start + NAME_LENGTH, (byte) nameLength)
+				.put(start + NAME, nameBytes, 0, nameLength);
+		for (int i = start + NAME + nameLength; i < start + RECORD_SIZE; i++) //剩下的部分填0 buffer是重複使用的
+			records.put(i, (byte) 0);
+		records.position(start + RECORD_SIZE);
+	}
+
+	/**
+	 * Write every pending record into the file of its date.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void flush()
+	{
+		synchronized (flushLock)
+		{
+			synchronized (appendLock) //交換兩個buffer 讓record不必等待寫入
+			{
+				ByteBuffer temp = pending;
+				pending = writing;
+				writing = temp;
+			}
+			writing.flip();
+			try
+			{
+				//同一天的紀錄一次寫入
+				int runStart = 0;
+				for (int position = 0; position < writing.limit(); position += RECORD_SIZE)
+				{
+					long time = writing.getLong(position + TIME);
+					if (channel != null && time >= dayStart && time < dayEnd)
+						continue;
+					writeRun(runStart, position); //換日了
+					runStart = position;
+					openChannel(LocalDate.ofInstant(Instant.ofEpochMilli(time), ZONE));
+				}
+				writeRun(runStart, writing.limit());
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+			writing.clear();
+		}
+	}
+
+	private static void writeRun(int from, int to) throws IOException
+	{
+		if (from == to)
+			return;
+		ByteBuffer run = writing.slice(from, to - from);
+		while (run.hasRemaining())
+			channel.write(run);
+	}
+
+	private static void openChannel(LocalDate date) throws IOException
+	{
+		if (channel != null)
+		{
+			channel.close();
+			channel = null;
+		}
+		dayStart = date.atStartOfDay(ZONE).toInstant().toEpochMilli();
+		dayEnd = date.plusDays(1L).atStartOfDay(ZONE).toInstant().toEpochMilli();
+		//一定要事先備好logs資料夾
+		channel = FileChannel.open(Paths.get("logs/" + date + FILE_EXTENSION), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if (channel.size() != 0L) //已經有標頭了
+			return;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+		while (header.hasRemaining())
+			channel.write(header);
+	}
+
+	/**
+	 * Write every pending record and stop the writer thread.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void close()
+	{
+		if (!ENABLED)
+			return;
+		writer.shutdown();
+		flush();
+		synchronized (flushLock)
+		{
+			if (channel == null)
+				return;
+			try
+			{
+				channel.close();
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+			channel = null;
+		}
+	}
+}
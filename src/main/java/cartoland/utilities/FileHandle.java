@@ -1,15 +1,16 @@
 package cartoland.utilities;
 
-import cartoland.Cartoland;
-
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.time.LocalDate;
-import java.time.LocalTime;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.Arrays;
-import java.util.List;
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -26,24 +27,6 @@ public final class FileHandle
 		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
 	}
 
-	private static LocalDate lastDateHasLog; //上一次有寫log的日期
-	private static FileWriter logger;
-
-	static
-	{
-		lastDateHasLog = LocalDate.now();
-		try
-		{
-			//一定要事先備好logs資料夾
-			logger = new FileWriter("logs/" + lastDateHasLog, true);
-		}
-		catch (IOException exception)
-		{
-			exception.printStackTrace();
-			Cartoland.getJDA().shutdownNow();
-		}
-	}
-
 	//將JSON讀入進字串
 	static String buildJsonStringFromFile(String fileName)
 	{
@@ -59,14 +42,29 @@ public final class FileHandle
 		}
 	}
 
-	private static final List<SerializeObject> serializeObjects = new ArrayList<>();
+	private static final Map<String, SerializeObject> serializeObjects = new ConcurrentHashMap<>(); //檔名為key
+	private static final long SNAPSHOT_INTERVAL = Long.getLong("cartoland.snapshot.interval", 60L); //秒
+	private static final ScheduledExecutorService snapshotService = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland Snapshotter");
+		thread.setDaemon(true); //不阻止JVM結束
+		return thread;
+	});
+
+	static
+	{
+		//定期將有變動過的物件寫入檔案 關機時就只需要寫最後一點點的變動
+		snapshotService.scheduleWithFixedDelay(FileHandle::snapshot, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.SECONDS);
+	}
 
 	/**
-	 * Register an object to the {@link #serializeObjects} list, then the objects in that list will be serialized by
-	 * {@link #serialize} when {@link cartoland.events.BotOnlineOffline#onShutdown} was executed. Be aware
+	 * Register an object to the {@link #serializeObjects} map, then the object will be serialized by the snapshot
+	 * service every {@link #SNAPSHOT_INTERVAL} seconds after it was marked by {@link #markDirty}, and one last time
+	 * by {@link #serialize} when {@link cartoland.events.BotOnlineOffline#onShutdown} was executed. Be aware
 	 * that the object must implement {@link Serializable} interface. Most importantly, this object must be <b>final</b>,
 	 * since Java doesn't have double pointer, there's no way to serialize correct contents if the class reference
-	 * changed its pointing address.
+	 * changed its pointing address. The object is written while holding its own monitor, so every thread that changes
+	 * it must also synchronize on it.
 	 *
 	 * @param fileName The name of the serialize file. Usually has {@code .ser} as file name extension.
 	 * @param object The object that is going to be serialized.
@@ -75,37 +73,158 @@ public final class FileHandle
 	 */
 	public static void registerSerialize(String fileName, Object object)
 	{
-		serializeObjects.add(new SerializeObject(fileName, object));
+		if (!(object instanceof Serializable))
+			return;
+		registerSerialize(fileName, stream ->
+		{
+			ObjectOutputStream objectStream = new ObjectOutputStream(stream);
+			synchronized (object) //快照執行緒和修改它的執行緒不能同時碰它
+			{
+				objectStream.writeObject(object);
+			}
+			objectStream.flush();
+		}, null, null);
+	}
+
+	/**
+	 * Register a file to the {@link #serializeObjects} map like {@link #registerSerialize(String, Object)}, but the
+	 * content is written by {@code writer} instead of {@link ObjectOutputStream}, so that the file can use a compact
+	 * format of its own. There are also two hooks around every write. For example, a journal can be rotated right
+	 * before its snapshot is taken, and the rotated part can be deleted once the snapshot is safely on disk. The writer
+	 * runs on the snapshot thread, so it must take whatever lock the owner of the content uses.
+	 *
+	 * @param fileName The name of the file.
+	 * @param writer The function that writes the whole content of the file.
+	 * @param beforeSerialize The function that runs right before the file is written, can be null.
+	 * @param afterSerialize The function that runs after the file was written successfully, can be null.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void registerSerialize(String fileName, DataWriter writer, Runnable beforeSerialize, Runnable afterSerialize)
+	{
+		serializeObjects.put(fileName, new SerializeObject(fileName, writer, beforeSerialize, afterSerialize));
 	}
 
 	/**
-	 * This method will be call when {@link cartoland.events.BotOnlineOffline#onShutdown} was executed.
-	 * It will serialize every objects in {@link #serializeObjects}, which was registered by {@link #registerSerialize}.
+	 * Mark a registered object as changed, so that the next snapshot will write it into its file. This is cheap enough
+	 * to be called on every modification.
+	 *
+	 * @param fileName The name of the serialize file that was used in {@link #registerSerialize}.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void markDirty(String fileName)
+	{
+		SerializeObject so = serializeObjects.get(fileName);
+		if (so != null)
+			so.dirty = true;
+	}
+
+	/**
+	 * This method will be call when {@link cartoland.events.BotOnlineOffline#onShutdown} was executed. It stops the
+	 * snapshot service, then serialize every objects in {@link #serializeObjects} that changed since the last snapshot,
+	 * which was registered by {@link #registerSerialize}.
 	 *
 	 * @since 2.0
 	 * @author Alex Cai
 	 */
 	public static void serialize()
 	{
-		for (SerializeObject so : serializeObjects)
-			serialize(so.fileName, so.object);
+		snapshotService.shutdown();
+		try
+		{
+			if (!snapshotService.awaitTermination(1L, TimeUnit.MINUTES)) //等待正在進行的快照
+				log("Snapshot service did not stop in time.");
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+		}
+		snapshot(); //最後一次
 	}
 
-	private static void serialize(String fileName, Object object)
+	private static synchronized void snapshot()
 	{
-		if (!(object instanceof Serializable))
-			return;
-		try (FileOutputStream fileStream = new FileOutputStream(fileName);
-			 ObjectOutputStream objectStream = new ObjectOutputStream(fileStream))
+		//任何例外都不能離開這裡 否則scheduleWithFixedDelay會默默取消之後所有的快照
+		for (SerializeObject so : serializeObjects.values())
 		{
-			objectStream.writeObject(object);
-			objectStream.flush();
+			if (!so.dirty) //沒有變動過
+				continue;
+			so.dirty = false; //在寫入前清除 寫入途中又有變動的話 下次會再寫一次
+			try
+			{
+				if (so.beforeSerialize != null)
+					so.beforeSerialize.run();
+				if (!writeFile(so.fileName, so.writer))
+				{
+					so.dirty = true; //下次再試
+					continue;
+				}
+				if (so.afterSerialize != null) //成功寫入
+					so.afterSerialize.run();
+			}
+			catch (Exception exception)
+			{
+				so.dirty = true; //下次再試
+				exception.printStackTrace();
+				log("Snapshot of " + so.fileName + " failed: " + exception);
+				log(exception);
+			}
+		}
+	}
+
+	/**
+	 * Write a file atomically. The content is built in memory first, then written into a temporary file which is
+	 * forced onto the storage device, and finally renamed over the target, so a crash never leaves a half-written file.
+	 *
+	 * @param fileName The name of the file.
+	 * @param writer The function that writes the whole content of the file.
+	 * @return true if the file was written successfully.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static boolean writeFile(String fileName, DataWriter writer)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream dataStream = new DataOutputStream(bytes))
+		{
+			writer.write(dataStream);
+		}
+		catch (IOException | ConcurrentModificationException exception) //其他執行緒正在修改 下次再寫
+		{
+			exception.printStackTrace();
+			log(exception);
+			return false;
+		}
+
+		//先寫到暫存檔 再一口氣取代原檔
+		Path target = Paths.get(fileName);
+		Path temp = Paths.get(fileName + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(true);
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			log(exception);
+			return false;
+		}
+
+		try
+		{
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		}
 		catch (IOException exception)
 		{
 			exception.printStackTrace();
 			log(exception);
+			return false;
 		}
+		return true;
 	}
 
 	public static Object deserialize(String fileName)
@@ -125,37 +244,17 @@ public final class FileHandle
 		return object;
 	}
 
+	/**
+	 * Log a line into {@code logs/<date>}. The line is only put into the ring buffer of {@link AsyncLogger}, so this
+	 * returns without waiting for the file, and lines from different threads never interleave.
+	 *
+	 * @param output The content of the line.
+	 * @since 1.0
+	 * @author Alex Cai
+	 */
 	public static void log(String output)
 	{
-		LocalDate today = LocalDate.now(); //今天
-		if (!today.isEqual(lastDateHasLog)) //如果今天跟上次有寫log的日期不同
-		{
-			lastDateHasLog = today;
-			try
-			{
-				closeLog0();
-				//一定要事先備好logs資料夾
-				logger = new FileWriter("logs/" + today, true);
-			}
-			catch (IOException exception)
-			{
-				exception.printStackTrace();
-				Cartoland.getJDA().shutdownNow();
-			}
-		}
-
-		LocalTime now = LocalTime.now(); //現在
-		//時間 內容
-		String logString = String.format("%02d:%02d:%02d\t%s\n", now.getHour(), now.getMinute(), now.getSecond(), output);
-		try
-		{
-			logger.write(logString);
-		}
-		catch (IOException exception)
-		{
-			exception.printStackTrace();
-			Cartoland.getJDA().shutdownNow();
-		}
+		AsyncLogger.publish(output);
 	}
 
 	public static void log(Exception exception)
@@ -165,23 +264,51 @@ public final class FileHandle
 					.collect(Collectors.joining("\n")));
 	}
 
-	private static void closeLog0() throws IOException
+	/**
+	 * Write every line that was logged and close the log file. Lines logged after this are ignored.
+	 *
+	 * @since 1.0
+	 * @author Alex Cai
+	 */
+	public static void closeLog()
 	{
-		logger.close();
+		AsyncLogger.close();
 	}
 
-	public static void closeLog()
+	/**
+	 * {@code DataWriter} writes the whole content of a file. It is used by {@link #registerSerialize} and
+	 * {@link #writeFile}.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@FunctionalInterface
+	public interface DataWriter
 	{
-		try
-		{
-			closeLog0();
-		}
-		catch (IOException exception)
+		void write(DataOutputStream stream) throws IOException;
+	}
+
+	/**
+	 * A file that was registered by {@link #registerSerialize}, with a flag that records if it changed since the last
+	 * snapshot.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	private static class SerializeObject
+	{
+		private final String fileName;
+		private final DataWriter writer;
+		private final Runnable beforeSerialize;
+		private final Runnable afterSerialize;
+		private volatile boolean dirty = false; //剛讀取完 和檔案內容相同
+
+		private SerializeObject(String fileName, DataWriter writer, Runnable beforeSerialize, Runnable afterSerialize)
 		{
-			exception.printStackTrace();
-			Cartoland.getJDA().shutdownNow();
+			this.fileName = fileName;
+			this.writer = writer;
+			this.beforeSerialize = beforeSerialize;
+			this.afterSerialize = afterSerialize;
 		}
 	}
-
-	private static record SerializeObject(String fileName, Object object) {}
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package cartoland.utilities;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * {@code FileStateStore} is the default {@link IStateStore}. Every table is a file in {@code serialize/} that is
+ * registered to {@link FileHandle}, and a change only marks the file as dirty, so the whole file is written by the next
+ * snapshot. Maps are serialized {@link LongMap}s in {@code <table>.ser}, sets are {@link LongSet} binary files in
+ * {@code <table>.bin}, and lottery data is {@link LotteryDataFile} with {@link CommandBlocksJournal} or the mapped
+ * slots of {@link LotteryDataStore}.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class FileStateStore implements IStateStore
+{
+	FileStateStore()
+	{
+	}
+
+	private static String mapFileName(String table)
+	{
+		return "serialize/" + table + ".ser";
+	}
+
+	private static String setFileName(String table)
+	{
+		return "serialize/" + table + ".bin";
+	}
+
+	/**
+	 * Read a map from its file without registering it, so that other stores can import it.
+	 */
+	static <V> LongMap<V> readMap(String table)
+	{
+		return LongMap.from(FileHandle.deserialize(mapFileName(table)));
+	}
+
+	/**
+	 * Read a set from its file without registering it, so that other stores can import it.
+	 */
+	static LongSet readLongSet(String table)
+	{
+		return LongSet.load(setFileName(table), mapFileName(table)); //舊版本是HashSet的.ser
+	}
+
+	/**
+	 * Read the snapshot of lottery data and replay the journal on top of it, without registering anything. If the
+	 * mapped engine left its slots behind, the slots are read instead of the journal, since they are newer.
+	 *
+	 * @return How many journal records or stale slots were read.
+	 */
+	static int readLotteryData(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap)
+	{
+		LongFunction<CommandBlocksHandle.LotteryData> lotteryDataOf = userID -> lotteryDataMap.computeIfAbsent(userID, CommandBlocksHandle.LotteryData::new);
+		if (!LotteryDataFile.read(lotteryDataOf, true)) //還沒有二進位檔
+			LotteryDataFile.migrate(lotteryDataMap); //從lottery_data.ser轉換過來
+
+		//映射檔啟動時已經重播過日誌了 日誌裡的紀錄都比映射檔舊
+		if (LotteryDataStore.hasStaleSlots())
+			return LotteryDataStore.readStaleSlots((userID, slots, offset) -> lotteryDataOf.apply(userID).restoreSlot(slots, offset));
+
+		//在上一次的快照之上 重播日誌裡的變動
+		return CommandBlocksJournal.replay(lotteryDataOf);
+	}
+
+	@Override
+	public LongMap<String> loadStrings(String table)
+	{
+		LongMap<String> map = readMap(table);
+		FileHandle.registerSerialize(mapFileName(table), map);
+		return map;
+	}
+
+	@Override
+	public void putString(String table, long key, String value)
+	{
+		FileHandle.markDirty(mapFileName(table));
+	}
+
+	@Override
+	public LongMap<long[]> loadLongArrays(String table, int length)
+	{
+		LongMap<long[]> map = readMap(table);
+		FileHandle.registerSerialize(mapFileName(table), map);
+		return map;
+	}
+
+	@Override
+	public void putLongArray(String table, long key, long[] value)
+	{
+		FileHandle.markDirty(mapFileName(table));
+	}
+
+	@Override
+	public LongSet loadLongSet(String table)
+	{
+		LongSet set = readLongSet(table);
+		FileHandle.registerSerialize(setFileName(table), stream ->
+		{
+			synchronized (set) //擁有這個set的類別 修改時也會鎖住它
+			{
+				set.write(stream);
+			}
+		}, null, null);
+		return set;
+	}
+
+	@Override
+	public void putLongSetElement(String table, long element, boolean contains)
+	{
+		FileHandle.markDirty(setFileName(table));
+	}
+
+	@Override
+	public void loadLotteryData(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap)
+	{
+		int replayed = 0;
+		if (LotteryDataStore.hasMappedSlots()) //映射檔本身就是最新的狀態
+		{
+			LotteryDataStore.load((userID, chunk, offset) -> lotteryDataMap.put(userID, new CommandBlocksHandle.LotteryData(userID, chunk, offset)));
+			LotteryDataFile.read(lotteryDataMap::get, false); //只需要名字
+		}
+		else if (LotteryDataStore.hasStaleSlots()) //從映射檔切換回來
+		{
+			int restored = readLotteryData(lotteryDataMap);
+			retireStaleSlots(lotteryDataMap);
+			FileHandle.log("Restored " + restored + " users from the stale lottery data slots.");
+		}
+		else
+		{
+			replayed = readLotteryData(lotteryDataMap);
+			if (LotteryDataStore.MAPPED && replayed != 0) //日誌已經重播進新的slot裡了 不清掉的話 切換回來時會蓋掉更新的資料
+			{
+				LotteryDataStore.force();
+				if (!CommandBlocksJournal.discard()) //下次啟動時slot還是比日誌新 所以只需要記錄下來
+					FileHandle.log("The lottery data journal could not be discarded after replaying it into the slots.");
+			}
+		}
+
+		//快照前換一份新的日誌 快照寫入成功後 舊的日誌就不需要了
+		//使用映射檔時沒有日誌 改成在快照前把映射檔寫入硬碟
+		FileHandle.registerSerialize(LotteryDataFile.FILE_NAME, stream -> writeLotteryData(stream, lotteryDataMap),
+									 LotteryDataStore.MAPPED ? LotteryDataStore::force : CommandBlocksJournal::rotate,
+									 CommandBlocksJournal::checkpoint);
+		if (replayed == 0)
+			return;
+		FileHandle.markDirty(LotteryDataFile.FILE_NAME); //重播過的紀錄要寫進快照
+		FileHandle.log("Replayed " + replayed + " records from the lottery data journal.");
+	}
+
+	/**
+	 * Write the state that was read from the stale slots into {@code lottery_data.bin}, then discard the journal, and
+	 * finally retire the slots. If any step fails, the next start would either lose the slots or skip the new journal
+	 * records, so the bot refuses to start instead.
+	 */
+	private static void retireStaleSlots(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap)
+	{
+		if (!FileHandle.writeFile(LotteryDataFile.FILE_NAME, stream -> writeLotteryData(stream, lotteryDataMap)))
+			throw new IllegalStateException("Can't write " + LotteryDataFile.FILE_NAME + " from the stale slots");
+		if (!CommandBlocksJournal.discard())
+			throw new IllegalStateException("Can't discard the lottery data journal");
+		LotteryDataStore.retireStaleSlots();
+	}
+
+	private static void writeLotteryData(DataOutputStream stream, LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap) throws IOException
+	{
+		List<CommandBlocksHandle.LotteryData> lotteryDataList;
+		synchronized (lotteryDataMap) //CommandBlocksHandle修改時也會鎖住它
+		{
+			lotteryDataList = lotteryDataMap.values();
+		}
+		LotteryDataFile.write(stream, lotteryDataList);
+		CommandBlocksLedger.flush(); //快照取代原檔之前先寫入帳本 快照就不會比帳本新
+	}
+
+	@Override
+	public void putLotteryData(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		if (!LotteryDataStore.MAPPED) //映射檔不需要日誌 slot已經直接寫入了
+			CommandBlocksJournal.append(lotteryData);
+		FileHandle.markDirty(LotteryDataFile.FILE_NAME);
+	}
+
+	@Override
+	public void close()
+	{
+		CommandBlocksJournal.close();
+		LotteryDataStore.force();
+	}
+}
@@ -1,6 +1,8 @@
 package cartoland.utilities;
 
+import cartoland.Cartoland;
 import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.entities.MessageReaction;
@@ -11,14 +13,12 @@ import net.dv8tion.jda.api.entities.channel.forums.ForumTag;
 import net.dv8tion.jda.api.entities.emoji.Emoji;
 import net.dv8tion.jda.api.exceptions.ErrorHandler;
 import net.dv8tion.jda.api.requests.ErrorResponse;
+import net.dv8tion.jda.api.utils.TimeUtil;
 
 import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * {@code ForumsHandle} is a utility class that has functions which controls map-discuss forum and question forum
@@ -64,22 +64,17 @@ public final class ForumsHandle
 			If it didn't, try offer more information of question.
 			""".formatted(resolvedFormat, resolvedFormat);
 
-	private static final String IDLED_QUESTIONS_SET_FILE_NAME = "serialize/idled_questions.ser";
-	private static final String HAS_START_MESSAGE_FILE_NAME = "serialize/has_start_message.ser";
-	//https://stackoverflow.com/questions/41778276/casting-from-object-to-arraylist
-	private static final Set<Long> idledQuestionForumPosts = FileHandle.deserialize(IDLED_QUESTIONS_SET_FILE_NAME) instanceof HashSet<?> set ?
-			set.stream().map(element -> (Long)element).collect(Collectors.toSet()) : new HashSet<>();
-	private static final Set<Long> hasStartMessageForumPosts = FileHandle.deserialize(HAS_START_MESSAGE_FILE_NAME) instanceof HashSet<?> set ?
-			set.stream().map(element -> (Long)element).collect(Collectors.toSet()) : new HashSet<>();
-
-	static
-	{
-		FileHandle.registerSerialize(IDLED_QUESTIONS_SET_FILE_NAME, idledQuestionForumPosts);
-		FileHandle.registerSerialize(HAS_START_MESSAGE_FILE_NAME, hasStartMessageForumPosts);
-	}
+	private static final String IDLED_QUESTIONS = "idled_questions";
+	private static final String HAS_START_MESSAGE = "has_start_message";
+	private static final IStateStore stateStore = IStateStore.INSTANCE;
+	private static final LongSet idledQuestionForumPosts = stateStore.loadLongSet(IDLED_QUESTIONS);
+	private static final LongSet hasStartMessageForumPosts = stateStore.loadLongSet(HAS_START_MESSAGE);
+	private static final long RETENTION_DAYS = Long.getLong("cartoland.forum.retention_days", 90L); //貼文建立超過這麼多天後 就不再記錄
 
 	/**
 	 * This method is being used in {@link cartoland.messages.ForumMessage} in order to check if the message event is the first message in a forum post.
+	 * A forum post that is older than {@link #RETENTION_DAYS} days is never considered new, since it might have been
+	 * evicted by {@link #evictArchivedForumPosts}.
 	 *
 	 * @param forumPost The forum post that needs check.
 	 * @return true if this is the first time this forum post received a message
@@ -88,7 +83,47 @@ public final class ForumsHandle
 	 */
 	public static boolean isFirstMessage(ThreadChannel forumPost)
 	{
-		return !hasStartMessageForumPosts.contains(forumPost.getIdLong());
+		long forumPostID = forumPost.getIdLong();
+		synchronized (hasStartMessageForumPosts) //快照執行緒會在鎖內寫入
+		{
+			if (hasStartMessageForumPosts.contains(forumPostID))
+				return false;
+		}
+		return !isExpired(forumPostID);
+	}
+
+	/**
+	 * Stop remembering forum posts that were created more than {@link #RETENTION_DAYS} days ago and are archived or
+	 * deleted, so that {@link #hasStartMessageForumPosts} does not grow forever. The creation time is read from the
+	 * snowflake ID, so no request is sent to Discord.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void evictArchivedForumPosts()
+	{
+		JDA jda = Cartoland.getJDA();
+		int evicted;
+		synchronized (hasStartMessageForumPosts)
+		{
+			evicted = hasStartMessageForumPosts.removeIf(forumPostID ->
+			{
+				if (!isExpired(forumPostID)) //還很新
+					return false;
+				ThreadChannel forumPost = jda.getThreadChannelById(forumPostID); //關閉的貼文不在快取內
+				if (forumPost != null && !forumPost.isArchived())
+					return false;
+				stateStore.putLongSetElement(HAS_START_MESSAGE, forumPostID, false);
+				return true;
+			});
+		}
+		if (evicted != 0)
+			FileHandle.log("Evicted " + evicted + " archived forum posts.");
+	}
+
+	private static boolean isExpired(long forumPostID)
+	{
+		return Duration.between(TimeUtil.getTimeCreated(forumPostID), OffsetDateTime.now()).toDays() >= RETENTION_DAYS;
 	}
 
 	public static void startStuff(ThreadChannel forumPost)
@@ -98,7 +133,14 @@ public final class ForumsHandle
 			forumPost.retrieveStartMessage().queue(message -> message.pin().queue()); //釘選第一則訊息
 		else if (parentChannelID == IDs.QUESTIONS_CHANNEL_ID) //是問題論壇
 			forumPost.sendMessageEmbeds(startEmbed).queue(); //傳送發問指南
-		hasStartMessageForumPosts.add(forumPost.getIdLong());
+		long forumPostID = forumPost.getIdLong();
+		boolean added;
+		synchronized (hasStartMessageForumPosts)
+		{
+			added = hasStartMessageForumPosts.add(forumPostID);
+		}
+		if (added)
+			stateStore.putLongSetElement(HAS_START_MESSAGE, forumPostID, true);
 	}
 
 	public static void createForumPost(ThreadChannel forumPost)
@@ -148,7 +190,9 @@ public final class ForumsHandle
 		tags.remove(unresolvedForumTag); //移除unresolved
 		tags.add(resolvedForumTag); //新增resolved
 		forumPost.getManager().setAppliedTags(tags).queue();
-		idledQuestionForumPosts.remove(forumPost.getIdLong());
+		long forumPostID = forumPost.getIdLong();
+		if (removeIdledQuestionForumPost(forumPostID))
+			stateStore.putLongSetElement(IDLED_QUESTIONS, forumPostID, false);
 
 		//移除🎗️ 並關閉貼文
 		unIdleQuestionForumPost(forumPost, true);
@@ -171,7 +215,14 @@ public final class ForumsHandle
 			String mentionOwner = "<@" + forumPost.getOwnerIdLong() + ">";
 			forumPost.sendMessage(String.format(remindMessage, mentionOwner, mentionOwner)).queue(); //提醒開串者
 
-			idledQuestionForumPosts.add(forumPost.getIdLong()); //記錄這個貼文正在idle
+			long forumPostID = forumPost.getIdLong();
+			boolean added;
+			synchronized (idledQuestionForumPosts) //快照執行緒會在鎖內寫入
+			{
+				added = idledQuestionForumPosts.add(forumPostID); //記錄這個貼文正在idle
+			}
+			if (added)
+				stateStore.putLongSetElement(IDLED_QUESTIONS, forumPostID, true);
 
 			//增加🎗️
 			forumPost.retrieveStartMessage().queue(message -> message.addReaction(reminder_ribbon).queue());
@@ -193,7 +244,9 @@ public final class ForumsHandle
 			if (message.getReactions().stream().anyMatch(reaction -> reaction.getEmoji().equals(reminder_ribbon)))
 				message.removeReaction(reminder_ribbon).queue();
 
-			idledQuestionForumPosts.remove(forumPost.getIdLong());
+			long forumPostID = forumPost.getIdLong();
+			if (removeIdledQuestionForumPost(forumPostID))
+				stateStore.putLongSetElement(IDLED_QUESTIONS, forumPostID, false);
 
 			if (archive)
 				forumPost.getManager().setArchived(true).queue(); //關閉貼文
@@ -202,6 +255,19 @@ public final class ForumsHandle
 
 	public static boolean questionForumPostIsIdled(ThreadChannel forumPost)
 	{
-		return forumPost.getParentChannel().getIdLong() == IDs.QUESTIONS_CHANNEL_ID && idledQuestionForumPosts.contains(forumPost.getIdLong());
+		if (forumPost.getParentChannel().getIdLong() != IDs.QUESTIONS_CHANNEL_ID)
+			return false;
+		synchronized (idledQuestionForumPosts)
+		{
+			return idledQuestionForumPosts.contains(forumPost.getIdLong());
+		}
+	}
+
+	private static boolean removeIdledQuestionForumPost(long forumPostID)
+	{
+		synchronized (idledQuestionForumPosts)
+		{
+			return idledQuestionForumPosts.remove(forumPostID);
+		}
 	}
 }
\ No newline at end of file
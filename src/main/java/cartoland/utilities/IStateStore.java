@@ -0,0 +1,108 @@
+package cartoland.utilities;
+
+/**
+ * {@code IStateStore} is where the handles keep the state that must survive a restart: introductions, language
+ * settings, temporary bans, forum posts, members and lottery data. Every handle still keeps its own {@link LongMap} or
+ * {@link LongSet} in memory for lookups, loads it from the store once, and tells the store about every change it made.
+ * The store decides how the change is persisted. {@link FileStateStore} writes the {@code serialize/} files through
+ * {@link FileHandle} as before, and {@link SqlStateStore} writes rows into an embedded H2 database. The implementation
+ * is chosen by {@code -Dcartoland.state=file|sql}, and {@code file} is the default.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public interface IStateStore
+{
+	IStateStore INSTANCE = "sql".equals(System.getProperty("cartoland.state")) ? new SqlStateStore() : new FileStateStore();
+
+	/**
+	 * Load a table of strings, such as introductions.
+	 *
+	 * @param table The name of the table.
+	 * @return Every row of the table. It will never be null.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	LongMap<String> loadStrings(String table);
+
+	/**
+	 * Persist a row of a table that was loaded by {@link #loadStrings}.
+	 *
+	 * @param table The name of the table.
+	 * @param key The key of the row, usually an ID.
+	 * @param value The new value of the row, or null if the row was removed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void putString(String table, long key, String value);
+
+	/**
+	 * Load a table of {@code long} arrays that have the same length, such as temporary bans.
+	 *
+	 * @param table The name of the table.
+	 * @param length The length of every array.
+	 * @return Every row of the table. It will never be null.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	LongMap<long[]> loadLongArrays(String table, int length);
+
+	/**
+	 * Persist a row of a table that was loaded by {@link #loadLongArrays}.
+	 *
+	 * @param table The name of the table.
+	 * @param key The key of the row, usually an ID.
+	 * @param value The new value of the row, or null if the row was removed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void putLongArray(String table, long key, long[] value);
+
+	/**
+	 * Load a set of IDs, such as forum posts.
+	 *
+	 * @param table The name of the table.
+	 * @return Every element of the set. It will never be null.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	LongSet loadLongSet(String table);
+
+	/**
+	 * Persist an element that was added into or removed from a set that was loaded by {@link #loadLongSet}.
+	 *
+	 * @param table The name of the table.
+	 * @param element The element.
+	 * @param contains true if the element was added, false if it was removed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void putLongSetElement(String table, long element, boolean contains);
+
+	/**
+	 * Load the lottery data of every user into {@code lotteryDataMap}.
+	 *
+	 * @param lotteryDataMap The map of {@link CommandBlocksHandle}, it should be empty.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void loadLotteryData(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap);
+
+	/**
+	 * Persist the current state of a user, including the name.
+	 *
+	 * @param lotteryData The lottery data that just changed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void putLotteryData(CommandBlocksHandle.LotteryData lotteryData);
+
+	/**
+	 * Write everything that is still pending and release the resources. This should be called after
+	 * {@link FileHandle#serialize()} when the bot is shutting down.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	void close();
+}
@@ -1,8 +1,5 @@
 package cartoland.utilities;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * {@code IntroduceHandle} is a utility class that handles introduction of users. Whenever user typed anything in the
  * self-intro channel, the message will be store into {@link #introduction}. Users can also modify their introduction
@@ -18,15 +15,10 @@ public final class IntroduceHandle
 		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
 	}
 
-	private static final String INTRODUCTION_FILE_NAME = "serialize/introduction.ser";
-
-	@SuppressWarnings("unchecked")
-	private static final Map<Long, String> introduction = (FileHandle.deserialize(INTRODUCTION_FILE_NAME) instanceof HashMap map) ? map : new HashMap<>();
+	private static final String INTRODUCTION = "introduction";
+	private static final IStateStore stateStore = IStateStore.INSTANCE;
 
-	static
-	{
-		FileHandle.registerSerialize(INTRODUCTION_FILE_NAME, introduction);
-	}
+	private static final LongMap<String> introduction = stateStore.loadStrings(INTRODUCTION);
 
 	/**
 	 * Update the user introduction.
@@ -38,7 +30,11 @@ public final class IntroduceHandle
 	 */
 	public static void updateIntroduction(long userID, String content)
 	{
-		introduction.put(userID, content);
+		synchronized (introduction) //快照執行緒會在鎖內寫入
+		{
+			introduction.put(userID, content);
+		}
+		stateStore.putString(INTRODUCTION, userID, content);
 	}
 
 	/**
@@ -50,7 +46,13 @@ public final class IntroduceHandle
 	 */
 	public static void deleteIntroduction(long userID)
 	{
-		introduction.remove(userID);
+		String removed;
+		synchronized (introduction)
+		{
+			removed = introduction.remove(userID);
+		}
+		if (removed != null)
+			stateStore.putString(INTRODUCTION, userID, null);
 	}
 
 	/**
@@ -62,6 +64,9 @@ public final class IntroduceHandle
 	 */
 	public static String getIntroduction(long userID)
 	{
-		return introduction.get(userID);
+		synchronized (introduction)
+		{
+			return introduction.get(userID);
+		}
 	}
 }
\ No newline at end of file
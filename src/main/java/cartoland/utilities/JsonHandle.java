@@ -23,10 +23,10 @@ public final class JsonHandle
 		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
 	}
 
-	private static final String USERS_FILE_NAME = "serialize/users.ser";
+	private static final String USERS = "users";
+	private static final IStateStore stateStore = IStateStore.INSTANCE;
 
-	@SuppressWarnings("unchecked")
-	private static final Map<Long, String> users = (FileHandle.deserialize(USERS_FILE_NAME) instanceof HashMap map) ? map : new HashMap<>(); //使用者的語言設定 id為key en, tw 等等的語言字串為value
+	private static final LongMap<String> users = stateStore.loadStrings(USERS); //使用者的語言設定 id為key en, tw 等等的語言字串為value
 	private static final Map<String, JSONObject> languageFileMap = new HashMap<>(7); //語言字串為key 語言檔案為value
 	private static final Map<String, List<String>> commandListMap = new HashMap<>(); //cmd.list等等為key 語言檔案對應的JSONArray為value
 	private static final StringBuilder builder = new StringBuilder();
@@ -37,14 +37,40 @@ public final class JsonHandle
 	static
 	{
 		reloadLanguageFiles();
-		FileHandle.registerSerialize(USERS_FILE_NAME, users);
 	}
 
 	private static void lastUse(long userID)
 	{
 		//獲取使用者設定的語言
 		//找不到設定的語言就放英文進去
-		file = languageFileMap.get(users.computeIfAbsent(userID, k -> Languages.ENGLISH));
+		String language;
+		synchronized (users) //快照執行緒會在鎖內寫入
+		{
+			language = users.computeIfAbsent(userID, k ->
+			{
+				stateStore.putString(USERS, userID, Languages.ENGLISH); //新的使用者
+				return Languages.ENGLISH;
+			});
+		}
+		file = languageFileMap.get(language);
+	}
+
+	/**
+	 * Get the language that a user has chosen by /lang.
+	 *
+	 * @param userID The ID of the user.
+	 * @return The language string, such as {@link Languages#ENGLISH}.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static String getLanguage(long userID)
+	{
+		String language;
+		synchronized (users)
+		{
+			language = users.get(userID);
+		}
+		return language != null ? language : Languages.ENGLISH;
 	}
 
 	public static String command(long userID, String commandName)
@@ -72,7 +98,11 @@ public final class JsonHandle
 		String result = getStringFromJsonKey(userID, commandName + ".name." + argument);
 		if (commandName.equals("lang"))
 		{
-			users.put(userID, argument);
+			synchronized (users)
+			{
+				users.put(userID, argument);
+			}
+			stateStore.putString(USERS, userID, argument);
 			return result;
 		}
 
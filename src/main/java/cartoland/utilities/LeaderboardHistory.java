@@ -0,0 +1,264 @@
+package cartoland.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * {@code LeaderboardHistory} keeps a snapshot of the ranking for every day in {@code leaderboard.history}, so that
+ * {@code /lottery history} can show how the command blocks and the rank of a user moved. Every snapshot is a frame:
+ * the length, the day, the number of users, the users in the ranking order, and a CRC32. A user is written as the
+ * varint of its ID and the varint of how many command blocks less it has than the user before it, which is usually a
+ * byte or two. The rank is not written at all, since it can be counted from the order. Users without command blocks
+ * are left out. Only the offsets of the frames are kept in memory, and a query reads one frame at a time. Can not be
+ * instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class LeaderboardHistory
+{
+	private LeaderboardHistory()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	private static final String HISTORY_FILE_NAME = "serialize/leaderboard.history";
+	private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES; //長度、日期、人數
+	private static final List<long[]> frames = new ArrayList<>(); //每一天的value[0]為日期 value[1]為位置 value[2]為長度
+	private static FileChannel channel;
+
+	static
+	{
+		try
+		{
+			channel = FileChannel.open(Paths.get(HISTORY_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			channel.truncate(scan(channel, frames));
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			channel = null;
+		}
+	}
+
+	/**
+	 * Append a snapshot of the current ranking as the snapshot of today. This is called once a day by
+	 * {@link TimerHandle}.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void snapshot()
+	{
+		long today = LocalDate.now().toEpochDay();
+		MessageRewardBuffer.flushAll(); //快照要包含還沒加上的訊息獎勵
+		ByteBuffer frame = encode(today, RankingHandle.snapshot());
+		int frameSize = frame.remaining();
+
+		synchronized (frames)
+		{
+			if (channel == null || (!frames.isEmpty() && frames.get(frames.size() - 1)[0] == today)) //今天已經有了
+				return;
+			try
+			{
+				long position = channel.size();
+				while (frame.hasRemaining())
+					channel.write(frame, position + frame.position());
+				channel.force(false);
+				frames.add(new long[] { today, position, frameSize });
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+		}
+	}
+
+	/**
+	 * Find the frames of a history file by reading only their headers.
+	 *
+	 * @param channel The history file.
+	 * @param frames The list that the day, the position and the length of every frame are added to.
+	 * @return The position after the last whole frame. Anything after it is a frame that was being written.
+	 * @throws IOException If an I/O error occurs.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static long scan(FileChannel channel, List<long[]> frames) throws IOException
+	{
+		long position = 0L, size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (position + HEADER_SIZE <= size) //只讀每個frame的開頭 跳過內容
+		{
+			header.clear();
+			while (header.hasRemaining() && channel.read(header, position + header.position()) != -1);
+			int frameSize = header.getInt(0);
+			if (frameSize < HEADER_SIZE + Integer.BYTES || position + frameSize > size) //寫到一半的frame
+				break;
+			frames.add(new long[] { header.getLong(Integer.BYTES), position, frameSize });
+			position += frameSize;
+		}
+		return position;
+	}
+
+	/**
+	 * Encode a snapshot of the ranking as a frame.
+	 *
+	 * @param day The day of the snapshot, counted from 1970-01-01.
+	 * @param ranking The user ID and the command blocks of every user in the ranking order, as returned by
+	 *                {@link RankingHandle#snapshot}.
+	 * @return The whole frame, ready to be written.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static ByteBuffer encode(long day, long[] ranking)
+	{
+		ByteArrayOutputStream entries = new ByteArrayOutputStream(ranking.length * 4);
+		int count = 0;
+		long previousBlocks = Long.MAX_VALUE;
+		for (int i = 0; i < ranking.length; i += 2)
+		{
+			long blocks = ranking[i + 1];
+			if (blocks <= 0L) //後面都是沒有方塊的人了
+				break;
+			writeVarLong(entries, ranking[i]);
+			writeVarLong(entries, previousBlocks - blocks); //排名是由高到低 所以一定不是負數
+			previousBlocks = blocks;
+			count++;
+		}
+
+		byte[] entryBytes = entries.toByteArray();
+		int frameSize = HEADER_SIZE + entryBytes.length + Integer.BYTES;
+		ByteBuffer frame = ByteBuffer.allocate(frameSize);
+		frame.putInt(frameSize).putLong(day).putInt(count).put(entryBytes);
+		CRC32 crc = new CRC32();
+		crc.update(frame.array(), 0, frameSize - Integer.BYTES);
+		return frame.putInt((int) crc.getValue()).flip();
+	}
+
+	/**
+	 * Get the command blocks and the rank of a user in the snapshots of the last {@code days} days.
+	 *
+	 * @param userID The ID of the user.
+	 * @param days How many snapshots, counted from the newest one.
+	 * @return The day, the command blocks and the rank of each snapshot, from the oldest to the newest. The rank of a
+	 * user without command blocks is one after the last user.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static List<long[]> trend(long userID, int days)
+	{
+		List<long[]> targetFrames;
+		synchronized (frames)
+		{
+			int size = frames.size();
+			targetFrames = new ArrayList<>(frames.subList(Math.max(size - days, 0), size));
+		}
+
+		List<long[]> trend = new ArrayList<>(targetFrames.size());
+		for (long[] targetFrame : targetFrames)
+		{
+			ByteBuffer frame = readFrame(targetFrame[1], (int) targetFrame[2]);
+			if (frame == null) //損毀的frame
+				continue;
+			trend.add(find(frame, targetFrame[0], userID));
+		}
+		return trend;
+	}
+
+	private static ByteBuffer readFrame(long position, int frameSize)
+	{
+		ByteBuffer frame = ByteBuffer.allocate(frameSize);
+		try
+		{
+			synchronized (frames)
+			{
+				while (frame.hasRemaining() && channel.read(frame, position + frame.position()) != -1);
+			}
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			return null;
+		}
+		return intact(frame) ? frame : null;
+	}
+
+	/**
+	 * Check the CRC32 at the end of a frame.
+	 *
+	 * @param frame The whole frame, from its first byte to its limit.
+	 * @return true if the frame is not damaged.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static boolean intact(ByteBuffer frame)
+	{
+		int frameSize = frame.limit();
+		CRC32 crc = new CRC32();
+		crc.update(frame.duplicate().position(0).limit(frameSize - Integer.BYTES)); //不動到frame的位置
+		return (int) crc.getValue() == frame.getInt(frameSize - Integer.BYTES);
+	}
+
+	/**
+	 * Decode the users of a frame one by one until the user is found.
+	 *
+	 * @param frame An intact frame.
+	 * @param day The day of the frame.
+	 * @param userID The ID of the user.
+	 * @return The day, the command blocks and the rank of the user.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static long[] find(ByteBuffer frame, long day, long userID)
+	{
+		frame.position(HEADER_SIZE);
+		int count = frame.getInt(Integer.BYTES + Long.BYTES);
+		long blocks = Long.MAX_VALUE;
+		int rank = 0;
+		for (int i = 0; i < count; i++)
+		{
+			long entryID = readVarLong(frame);
+			long difference = readVarLong(frame);
+			blocks -= difference;
+			if (difference != 0L || i == 0) //同樣方塊數的人同名次
+				rank = i + 1;
+			if (entryID == userID)
+				return new long[] { day, blocks, rank };
+		}
+		return new long[] { day, 0L, count + 1 }; //沒有方塊
+	}
+
+	static void writeVarLong(ByteArrayOutputStream stream, long value)
+	{
+		while ((value & ~0x7FL) != 0L) //一個byte放7 bit 最高的bit代表後面還有
+		{
+			stream.write((int) (value & 0x7FL) | 0x80);
+			value >>>= 7;
+		}
+		stream.write((int) value);
+	}
+
+	static long readVarLong(ByteBuffer buffer)
+	{
+		long value = 0L;
+		for (int shift = 0; ; shift += 7)
+		{
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) //最高的bit是0 結束了
+				return value;
+		}
+	}
+}
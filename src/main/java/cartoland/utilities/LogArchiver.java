@@ -0,0 +1,144 @@
+package cartoland.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code LogArchiver} keeps the {@code logs/} folder from growing forever. Every day file that is finished, which means
+ * every {@code logs/<date>} and {@code logs/<date>.events} before today, is compressed into a {@code .gz} file, and
+ * every file older than {@code -Dcartoland.log.retention_days} days (90 by default) is deleted. The file of today is
+ * never touched, since {@link FileHandle#log} and {@link EventLog} are still writing it. {@link #archive} is
+ * registered to {@link TimerHandle}, and the work runs on a background thread so that other timer events are not
+ * delayed. Can not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class LogArchiver
+{
+	private LogArchiver()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	public static final String GZIP_EXTENSION = ".gz";
+	private static final String LOGS_FOLDER = "logs";
+	private static final long RETENTION_DAYS = Long.getLong("cartoland.log.retention_days", 90L);
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final int DATE_LENGTH = "yyyy-MM-dd".length();
+
+	private static final ExecutorService archiver = Executors.newSingleThreadExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland Log Archiver");
+		thread.setDaemon(true); //不阻止JVM結束 沒壓縮完的檔案下次會再壓縮
+		return thread;
+	});
+
+	/**
+	 * Compress finished day files and delete expired ones on the background thread.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void archive()
+	{
+		archiver.execute(() -> archive(Paths.get(LOGS_FOLDER), LocalDate.now(), RETENTION_DAYS));
+	}
+
+	/**
+	 * Compress the day files before {@code today} and delete the ones older than the retention, on this thread.
+	 *
+	 * @param folder The folder of the day files.
+	 * @param today The date of the files that are still being written.
+	 * @param retentionDays How many days before {@code today} the files are kept.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void archive(Path folder, LocalDate today, long retentionDays)
+	{
+		LocalDate oldest = today.minusDays(retentionDays); //比這天還早的都刪掉
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder))
+		{
+			for (Path file : files)
+			{
+				String fileName = file.getFileName().toString();
+				LocalDate date = dateOf(fileName);
+				if (date == null || !date.isBefore(today)) //不是日誌 或是今天正在寫的日誌
+					continue;
+				try
+				{
+					if (date.isBefore(oldest) || fileName.endsWith(TEMP_EXTENSION)) //過期了 或是上次沒壓縮完的暫存檔
+						Files.delete(file);
+					else if (!fileName.endsWith(GZIP_EXTENSION))
+						compress(file);
+				}
+				catch (IOException exception) //繼續處理下一個檔案
+				{
+					exception.printStackTrace();
+					FileHandle.log(exception);
+				}
+			}
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+		}
+	}
+
+	private static LocalDate dateOf(String fileName)
+	{
+		if (fileName.length() < DATE_LENGTH)
+			return null;
+		try
+		{
+			return LocalDate.parse(fileName.substring(0, DATE_LENGTH));
+		}
+		catch (DateTimeParseException exception)
+		{
+			return null;
+		}
+	}
+
+	private static void compress(Path file) throws IOException
+	{
+		Path compressed = file.resolveSibling(file.getFileName() + GZIP_EXTENSION);
+		Path temp = file.resolveSibling(compressed.getFileName() + TEMP_EXTENSION);
+		try (InputStream input = Files.newInputStream(file);
+			 OutputStream output = new GZIPOutputStream(Files.newOutputStream(temp)))
+		{
+			input.transferTo(output);
+		}
+		//壓縮完成後才取代 中途關機的話原檔還在
+		Files.move(temp, compressed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.delete(file);
+	}
+
+	/**
+	 * Read a day file, whether it was compressed by {@link #archive} or not.
+	 *
+	 * @param file The path of the file without {@link #GZIP_EXTENSION}.
+	 * @return The content of the file, or null if neither the file nor its compressed version exists.
+	 * @throws IOException If an I/O error occurs.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static byte[] readCompressed(Path file) throws IOException
+	{
+		Path compressed = file.resolveSibling(file.getFileName() + GZIP_EXTENSION);
+		if (Files.exists(compressed))
+			try (InputStream input = new GZIPInputStream(Files.newInputStream(compressed)))
+			{
+				return input.readAllBytes();
+			}
+		return Files.exists(file) ? Files.readAllBytes(file) : null;
+	}
+}
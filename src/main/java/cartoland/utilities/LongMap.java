@@ -0,0 +1,379 @@
+package cartoland.utilities;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongFunction;
+
+/**
+ * {@code LongMap} is a map from primitive {@code long} keys to objects, designed for Discord snowflakes. It uses open
+ * addressing with linear probing on two parallel arrays, so a lookup neither boxes the key nor chases a node, and an
+ * entry costs a {@code long} and a reference instead of a {@code Long} and a {@code HashMap.Node}. Null values are not
+ * allowed, because {@link #get} uses null to tell that the key is absent. Like {@link java.util.HashMap}, this class is
+ * not synchronized, and a map that is registered to {@link FileHandle} must only be used while holding its monitor,
+ * since the snapshot thread serializes it with that monitor held. It serializes itself as its size followed by every
+ * key and value, and {@link #from} also accepts the {@code HashMap<Long, V>} that was serialized by the older versions.
+ *
+ * @param <V> The type of the values.
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class LongMap<V> implements Serializable
+{
+	@Serial
+	private static final long serialVersionUID = 2_718281828459045235L;
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final long EMPTY = 0L; //snowflake不會是0 所以拿0當作空格 真的放入0的話另外存
+
+	private transient long[] keys;
+	private transient Object[] values;
+	private transient int mask; //陣列長度-1
+	private transient int size; //不包含0
+	private transient Object zeroValue; //key為0時的value
+	private transient int modCount; //和HashMap一樣 走訪時被修改就拋出ConcurrentModificationException
+
+	public LongMap()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a map that can hold {@code expectedSize} entries without resizing.
+	 *
+	 * @param expectedSize How many entries are expected to be put.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public LongMap(int expectedSize)
+	{
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Convert a deserialized object into a {@code LongMap}. If the object is already a {@code LongMap}, it is returned
+	 * as is. If it is a {@code Map} with {@code Long} keys, which was how the older versions stored the data, every
+	 * entry is copied. Otherwise, for example when the file does not exist, an empty map is returned.
+	 *
+	 * @param object The object that was returned by {@link FileHandle#deserialize}.
+	 * @param <V> The type of the values.
+	 * @return A map that will never be null.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> LongMap<V> from(Object object)
+	{
+		if (object instanceof LongMap<?> map)
+			return (LongMap<V>) map;
+		if (!(object instanceof Map<?, ?> legacy)) //沒有檔案
+			return new LongMap<>();
+
+		LongMap<V> map = new LongMap<>(legacy.size());
+		for (Map.Entry<?, ?> entry : legacy.entrySet())
+			if (entry.getKey() instanceof Long key && entry.getValue() != null)
+				map.put(key, (V) entry.getValue());
+		return map;
+	}
+
+	private static int tableSizeFor(int expectedSize)
+	{
+		//最多只填一半 探測的距離才會短
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, DEFAULT_CAPACITY / 2) * 2 - 1) << 1;
+		if (capacity <= 0) //溢位
+			throw new IllegalArgumentException("Too many entries: " + expectedSize);
+		return capacity;
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L; //費氏雜湊 把高位元也混進來
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Find the slot of a key.
+	 *
+	 * @param key The key, must not be {@link #EMPTY}.
+	 * @return The slot that holds the key, or the empty slot where the key should be put.
+	 */
+	private int indexOf(long key)
+	{
+		int index = hash(key) & mask;
+		long existing;
+		while ((existing = keys[index]) != EMPTY && existing != key)
+			index = (index + 1) & mask; //線性探測
+		return index;
+	}
+
+	public int size()
+	{
+		return zeroValue != null ? size + 1 : size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key)
+	{
+		if (key == EMPTY)
+			return (V) zeroValue;
+		return (V) values[indexOf(key)];
+	}
+
+	public boolean containsKey(long key)
+	{
+		return get(key) != null;
+	}
+
+	/**
+	 * Associate a value with a key, replacing the old value if there is one.
+	 *
+	 * @param key The key.
+	 * @param value The value, must not be null.
+	 * @return The old value, or null if there was none.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value)
+	{
+		Objects.requireNonNull(value);
+		if (key == EMPTY)
+		{
+			V old = (V) zeroValue;
+			zeroValue = value;
+			if (old == null)
+				modCount++;
+			return old;
+		}
+
+		int index = indexOf(key);
+		V old = (V) values[index];
+		values[index] = value;
+		if (old != null) //只是取代
+			return old;
+
+		keys[index] = key;
+		modCount++;
+		if (++size > (mask + 1) >>> 1) //超過一半
+			resize();
+		return null;
+	}
+
+	/**
+	 * Get the value of a key. If the key is absent, compute a value by {@code mappingFunction} and put it.
+	 *
+	 * @param key The key.
+	 * @param mappingFunction The function that computes a value from the key. It must not return null.
+	 * @return The existing value or the computed value.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public V computeIfAbsent(long key, LongFunction<? extends V> mappingFunction)
+	{
+		V value = get(key);
+		if (value != null)
+			return value;
+		value = mappingFunction.apply(key);
+		put(key, value);
+		return value;
+	}
+
+	/**
+	 * Remove a key. Entries after the removed one are shifted back, so that there are no tombstones to slow down later
+	 * lookups.
+	 *
+	 * @param key The key.
+	 * @return The removed value, or null if the key was absent.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key)
+	{
+		if (key == EMPTY)
+		{
+			V old = (V) zeroValue;
+			if (old != null)
+			{
+				zeroValue = null;
+				modCount++;
+			}
+			return old;
+		}
+
+		int index = indexOf(key);
+		V old = (V) values[index];
+		if (old == null) //本來就沒有
+			return null;
+
+		//把後面探測到一半的元素往前移
+		int hole = index;
+		for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask)
+		{
+			int home = hash(keys[next]) & mask; //這個元素原本應該在的位置
+			if (((next - home) & mask) >= ((next - hole) & mask)) //從home探測到next的途中會經過hole
+			{
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		keys[hole] = EMPTY;
+		values[hole] = null;
+		size--;
+		modCount++;
+		return old;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, null);
+		size = 0;
+		zeroValue = null;
+		modCount++;
+	}
+
+	private void resize()
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != EMPTY)
+			{
+				int index = indexOf(oldKeys[i]);
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+	}
+
+	/**
+	 * Run an action on every entry. The map must not be modified by the action.
+	 *
+	 * @param action The action that receives every key and value.
+	 * @throws ConcurrentModificationException If the map was modified during the iteration.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(EntryConsumer<? super V> action)
+	{
+		int expectedModCount = modCount;
+		long[] keys = this.keys;
+		Object[] values = this.values;
+		if (zeroValue != null)
+			action.accept(EMPTY, (V) zeroValue);
+		for (int i = 0; i < keys.length && i < values.length; i++)
+		{
+			Object value = values[i];
+			if (keys[i] != EMPTY && value != null)
+				action.accept(keys[i], (V) value);
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * Copy every key into a new array, so that the caller can remove entries while iterating over the keys.
+	 *
+	 * @return The keys in no particular order.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public long[] keys()
+	{
+		long[] result = new long[size()];
+		int[] count = { 0 };
+		forEach((key, value) -> result[count[0]++] = key);
+		return result;
+	}
+
+	/**
+	 * Copy every value into a new list.
+	 *
+	 * @return The values in no particular order.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public List<V> values()
+	{
+		List<V> result = new ArrayList<>(size());
+		forEach((key, value) -> result.add(value));
+		return result;
+	}
+
+	@Serial
+	private void writeObject(ObjectOutputStream stream) throws IOException
+	{
+		//先複製出來 寫入的數量一定和真正寫入的entry數量相同
+		long[] entryKeys = new long[size()];
+		Object[] entryValues = new Object[entryKeys.length];
+		int[] count = { 0 };
+		forEach((key, value) ->
+		{
+			if (count[0] == entryKeys.length) //比size()還多 代表被修改了
+				throw new ConcurrentModificationException();
+			entryKeys[count[0]] = key;
+			entryValues[count[0]++] = value;
+		});
+
+		stream.defaultWriteObject();
+		stream.writeInt(count[0]);
+		for (int i = 0; i < count[0]; i++)
+		{
+			stream.writeLong(entryKeys[i]);
+			stream.writeObject(entryValues[i]);
+		}
+	}
+
+	@Serial
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException
+	{
+		stream.defaultReadObject();
+		int entries = stream.readInt();
+		if (entries < 0)
+			throw new IOException("Negative size: " + entries);
+		allocate(tableSizeFor(entries));
+		for (int i = 0; i < entries; i++)
+		{
+			long key = stream.readLong();
+			Object value = stream.readObject();
+			if (value != null)
+				put(key, (V) value);
+		}
+	}
+
+	/**
+	 * {@code EntryConsumer} receives an entry of {@link LongMap} without boxing the key.
+	 *
+	 * @param <V> The type of the values.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer<V>
+	{
+		void accept(long key, V value);
+	}
+}
@@ -0,0 +1,328 @@
+package cartoland.utilities;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * {@code LongSet} is a set of primitive {@code long}, designed for Discord snowflakes. Like {@link LongMap}, it uses
+ * open addressing with linear probing, so every element costs 8 bytes instead of a {@code Long} and a
+ * {@code HashMap.Node}. It is persisted in a binary format of its own: the number of elements followed by every
+ * element, which can be loaded without any casting. This class is not synchronized, and a set that is registered to
+ * {@link FileHandle} must only be used while holding its monitor, since the snapshot thread writes it with that monitor
+ * held.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class LongSet
+{
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final long EMPTY = 0L; //snowflake不會是0 所以拿0當作空格 真的放入0的話另外記
+
+	private long[] elements;
+	private int mask; //陣列長度-1
+	private int size; //不包含0
+	private boolean hasZero;
+	private int modCount; //和HashSet一樣 走訪時被修改就拋出ConcurrentModificationException
+
+	public LongSet()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a set that can hold {@code expectedSize} elements without resizing.
+	 *
+	 * @param expectedSize How many elements are expected to be added.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public LongSet(int expectedSize)
+	{
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Load a set from a file that was written by {@link #write}. If the file does not exist yet, the set is converted
+	 * from {@code legacyFileName}, which is a {@code HashSet<Long>} serialized by the older versions. The converted set
+	 * is written into {@code fileName} at once, and the legacy file is renamed with a {@code .migrated} suffix. A binary
+	 * file that can not be read is never replaced by an empty set, the loading fails instead, so that the file stays on
+	 * disk for the operator to recover.
+	 *
+	 * @param fileName The name of the binary file.
+	 * @param legacyFileName The name of the serialized {@code HashSet<Long>}.
+	 * @return The loaded set. It will never be null.
+	 * @throws UncheckedIOException If {@code fileName} exists but can not be read completely.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static LongSet load(String fileName, String legacyFileName)
+	{
+		Path path = Paths.get(fileName);
+		if (Files.exists(path))
+		{
+			try (DataInputStream stream = new DataInputStream(Files.newInputStream(path)))
+			{
+				int count = stream.readInt();
+				if (count < 0)
+					throw new IOException("Negative size: " + count);
+				LongSet set = new LongSet(count);
+				for (int i = 0; i < count; i++)
+					set.add(stream.readLong());
+				return set;
+			}
+			catch (IOException exception)
+			{
+				//回傳空的set的話 下次快照就會把檔案覆蓋掉 所以寧可不要啟動
+				exception.printStackTrace();
+				FileHandle.log(fileName + " can not be read, it is left untouched: " + exception);
+				FileHandle.log(exception);
+				throw new UncheckedIOException(fileName + " can not be read", exception);
+			}
+		}
+
+		Path legacy = Paths.get(legacyFileName);
+		if (!Files.exists(legacy) || !(FileHandle.deserialize(legacyFileName) instanceof Collection<?> collection))
+			return new LongSet(); //新的機器人 沒有東西要轉換
+
+		LongSet set = new LongSet(collection.size());
+		for (Object element : collection)
+			if (element instanceof Long value)
+				set.add(value);
+		if (!FileHandle.writeFile(fileName, set::write))
+			return set; //下次啟動時再試
+		try
+		{
+			Files.move(legacy, Paths.get(legacyFileName + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+		}
+		FileHandle.log("Migrated " + set.size() + " elements from " + legacyFileName + " to " + fileName + '.');
+		return set;
+	}
+
+	private static int tableSizeFor(int expectedSize)
+	{
+		//最多只填一半 探測的距離才會短
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, DEFAULT_CAPACITY / 2) * 2 - 1) << 1;
+		if (capacity <= 0) //溢位
+			throw new IllegalArgumentException("Too many elements: " + expectedSize);
+		return capacity;
+	}
+
+	private void allocate(int capacity)
+	{
+		elements = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(long element)
+	{
+		long h = element * 0x9E3779B97F4A7C15L; //費氏雜湊 把高位元也混進來
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int indexOf(long element)
+	{
+		int index = hash(element) & mask;
+		long existing;
+		while ((existing = elements[index]) != EMPTY && existing != element)
+			index = (index + 1) & mask; //線性探測
+		return index;
+	}
+
+	public int size()
+	{
+		return hasZero ? size + 1 : size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	public boolean contains(long element)
+	{
+		if (element == EMPTY)
+			return hasZero;
+		return elements[indexOf(element)] != EMPTY;
+	}
+
+	/**
+	 * Add an element.
+	 *
+	 * @param element The element.
+	 * @return true if the set did not contain the element.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public boolean add(long element)
+	{
+		if (element == EMPTY)
+		{
+			if (hasZero)
+				return false;
+			modCount++;
+			return hasZero = true;
+		}
+
+		int index = indexOf(element);
+		if (elements[index] != EMPTY) //已經有了
+			return false;
+		elements[index] = element;
+		modCount++;
+		if (++size > (mask + 1) >>> 1) //超過一半
+			resize();
+		return true;
+	}
+
+	/**
+	 * Remove an element. Elements after the removed one are shifted back, so that there are no tombstones to slow down
+	 * later lookups.
+	 *
+	 * @param element The element.
+	 * @return true if the set contained the element.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public boolean remove(long element)
+	{
+		if (element == EMPTY)
+		{
+			if (!hasZero)
+				return false;
+			hasZero = false;
+			modCount++;
+			return true;
+		}
+
+		int index = indexOf(element);
+		if (elements[index] == EMPTY) //本來就沒有
+			return false;
+
+		//把後面探測到一半的元素往前移
+		int hole = index;
+		for (int next = (hole + 1) & mask; elements[next] != EMPTY; next = (next + 1) & mask)
+		{
+			int home = hash(elements[next]) & mask; //這個元素原本應該在的位置
+			if (((next - home) & mask) >= ((next - hole) & mask)) //從home探測到next的途中會經過hole
+			{
+				elements[hole] = elements[next];
+				hole = next;
+			}
+		}
+		elements[hole] = EMPTY;
+		size--;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Remove every element that matches {@code filter}.
+	 *
+	 * @param filter Returns true if the element should be removed.
+	 * @return How many elements were removed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public int removeIf(LongPredicate filter)
+	{
+		int removed = 0;
+		for (long element : toArray()) //複製一份 才能邊走訪邊移除
+			if (filter.test(element) && remove(element))
+				removed++;
+		return removed;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(elements, EMPTY);
+		size = 0;
+		hasZero = false;
+		modCount++;
+	}
+
+	private void resize()
+	{
+		long[] oldElements = elements;
+		allocate(oldElements.length << 1);
+		for (long element : oldElements)
+			if (element != EMPTY)
+				elements[indexOf(element)] = element;
+	}
+
+	/**
+	 * Run an action on every element. The set must not be modified by the action.
+	 *
+	 * @param action The action that receives every element.
+	 * @throws ConcurrentModificationException If the set was modified during the iteration.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public void forEach(LongConsumer action)
+	{
+		int expectedModCount = modCount;
+		long[] elements = this.elements;
+		if (hasZero)
+			action.accept(EMPTY);
+		for (long element : elements)
+		{
+			if (element != EMPTY)
+				action.accept(element);
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * Copy every element into a new array.
+	 *
+	 * @return The elements in no particular order.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public long[] toArray()
+	{
+		long[] result = new long[size()];
+		int[] count = { 0 };
+		forEach(element ->
+		{
+			if (count[0] == result.length) //比size()還多 代表被修改了
+				throw new ConcurrentModificationException();
+			result[count[0]++] = element;
+		});
+		return count[0] == result.length ? result : Arrays.copyOf(result, count[0]);
+	}
+
+	/**
+	 * Write the set in the format that {@link #load} reads. This can be registered by
+	 * {@link FileHandle#registerSerialize(String, FileHandle.DataWriter, Runnable, Runnable)}.
+	 *
+	 * @param stream The stream of the file.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws ConcurrentModificationException If the set was modified while being written.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public void write(DataOutputStream stream) throws IOException
+	{
+		long[] elements = toArray(); //先複製出來 寫入的數量一定和真正寫入的元素數量相同
+		stream.writeInt(elements.length);
+		for (long element : elements)
+			stream.writeLong(element);
+	}
+}
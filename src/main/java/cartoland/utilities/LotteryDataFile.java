@@ -0,0 +1,167 @@
+package cartoland.utilities;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * {@code LotteryDataFile} reads and writes {@code lottery_data.bin}, the compact binary format of every
+ * {@link CommandBlocksHandle.LotteryData}. The file starts with a magic number and a format version, followed by
+ * records until the end of the file. Every record is prefixed by its length, so a newer version can append fields to
+ * a record and an older reader will simply skip them. This replaces {@code lottery_data.ser}, which paid for boxed keys,
+ * class descriptors and reflection on every load. Can not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class LotteryDataFile
+{
+	private LotteryDataFile()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	static final String FILE_NAME = "serialize/lottery_data.bin";
+	private static final String LEGACY_FILE_NAME = "serialize/lottery_data.ser";
+	private static final int MAGIC = 0x43424C44; //"CBLD"
+	private static final int VERSION = 1;
+
+	/**
+	 * Write every lottery data into a stream in the binary format.
+	 *
+	 * @param stream The stream of the file.
+	 * @param lotteryData Every lottery data that is going to be written.
+	 * @throws IOException If an I/O error occurs.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void write(DataOutputStream stream, Collection<CommandBlocksHandle.LotteryData> lotteryData) throws IOException
+	{
+		stream.writeInt(MAGIC);
+		stream.writeInt(VERSION);
+		ByteBuffer state = ByteBuffer.allocate(CommandBlocksHandle.LotteryData.STATE_SIZE); //重複使用
+		for (CommandBlocksHandle.LotteryData data : lotteryData)
+			data.writeRecord(stream, state);
+	}
+
+	/**
+	 * Read every record in {@code lottery_data.bin}. Reading stops at the first record that is not complete.
+	 *
+	 * @param lotteryDataOf Returns the lottery data of a user ID. Records whose lottery data is null are skipped.
+	 * @param withState If false, only the names are read.
+	 * @return false if the file does not exist or is not in the binary format.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static boolean read(LongFunction<CommandBlocksHandle.LotteryData> lotteryDataOf, boolean withState)
+	{
+		Path path = Paths.get(FILE_NAME);
+		if (!Files.exists(path))
+			return false;
+
+		ByteBuffer buffer;
+		try
+		{
+			buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			return false;
+		}
+		return read(buffer, lotteryDataOf, withState);
+	}
+
+	/**
+	 * Read every record of a buffer that holds the whole content of {@code lottery_data.bin}, the same way as
+	 * {@link #read(LongFunction, boolean)}.
+	 *
+	 * @param buffer The content of the file.
+	 * @param lotteryDataOf Returns the lottery data of a user ID. Records whose lottery data is null are skipped.
+	 * @param withState If false, only the names are read.
+	 * @return false if the buffer is not in the binary format.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static boolean read(ByteBuffer buffer, LongFunction<CommandBlocksHandle.LotteryData> lotteryDataOf, boolean withState)
+	{
+		if (buffer.remaining() < Integer.BYTES * 2 || buffer.getInt() != MAGIC)
+		{
+			FileHandle.log(FILE_NAME + " is not a lottery data file.");
+			return false;
+		}
+		int version = buffer.getInt();
+		if (version > VERSION) //比現在的版本還新 讀了也不知道多出來的欄位是什麼 但還是能讀
+			FileHandle.log(FILE_NAME + " has version " + version + ", newer than " + VERSION + '.');
+
+		while (buffer.remaining() >= Integer.BYTES)
+		{
+			int length = buffer.getInt();
+			int next = buffer.position() + length; //下一筆紀錄的開頭
+			if (length < CommandBlocksHandle.LotteryData.STATE_SIZE || next > buffer.limit()) //不完整的紀錄
+				break;
+			try
+			{
+				CommandBlocksHandle.LotteryData lotteryData = lotteryDataOf.apply(buffer.getLong(buffer.position()));
+				if (lotteryData != null)
+					lotteryData.readRecord(buffer.limit(next), withState);
+			}
+			catch (BufferUnderflowException exception) //長度和內容不符
+			{
+				FileHandle.log(exception);
+				break;
+			}
+			buffer.limit(buffer.capacity()).position(next); //跳過不認得的欄位
+		}
+		return true;
+	}
+
+	/**
+	 * Convert {@code lottery_data.ser} into {@code lottery_data.bin}. The old file is renamed to
+	 * {@code lottery_data.ser.migrated} once the new file was written, so this only happens once.
+	 *
+	 * @param lotteryDataMap The map that is going to be filled with the migrated lottery data.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void migrate(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap)
+	{
+		Path legacy = Paths.get(LEGACY_FILE_NAME);
+		if (!Files.exists(legacy)) //新的機器人 沒有東西要轉換
+			return;
+		if (!(FileHandle.deserialize(LEGACY_FILE_NAME) instanceof HashMap<?, ?> legacyMap))
+			return;
+
+		List<CommandBlocksHandle.LotteryData> migrated = new ArrayList<>(legacyMap.size());
+		for (Object value : legacyMap.values())
+			if (value instanceof CommandBlocksHandle.LotteryData lotteryData)
+			{
+				migrated.add(lotteryData);
+				lotteryDataMap.put(lotteryData.getUserID(), lotteryData);
+			}
+
+		if (!FileHandle.writeFile(FILE_NAME, stream -> write(stream, migrated)))
+			return; //下次啟動時再試
+		try
+		{
+			Files.move(legacy, Paths.get(LEGACY_FILE_NAME + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+		}
+		FileHandle.log("Migrated " + migrated.size() + " lottery data from " + LEGACY_FILE_NAME + " to " + FILE_NAME + '.');
+	}
+}
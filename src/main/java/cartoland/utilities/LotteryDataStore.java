@@ -0,0 +1,271 @@
+package cartoland.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code LotteryDataStore} holds the numeric fields of every {@link CommandBlocksHandle.LotteryData} in fixed-size
+ * slots. Slots are allocated in chunks and never move, so a lottery data only needs to remember its chunk and offset.
+ * By default the chunks are plain heap buffers, persisted by the journal and the snapshot. With
+ * {@code -Dcartoland.lottery.storage=mapped}, the chunks are mapped from {@code lottery_data.slots} instead: every
+ * update is an in-place write that the OS flushes for us, and startup only needs to scan the mapped slots rather than
+ * deserialize anything. {@link SqlStateStore} ignores this option, since the database persists the slots itself. Can
+ * not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class LotteryDataStore
+{
+	private LotteryDataStore()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	static final boolean MAPPED = "mapped".equals(System.getProperty("cartoland.lottery.storage")) && !"sql".equals(System.getProperty("cartoland.state")); //資料庫本身就會保存
+	private static final String SLOTS_FILE_NAME = "serialize/lottery_data.slots";
+
+	//一個slot的格式 long都對齊8 int都對齊4
+	static final int USER_ID = 0;
+	static final int BLOCKS = 8;
+	static final int LAST_CLAIM_SECOND = 16;
+	static final int WON = 24;
+	static final int LOST = 28;
+	static final int SHOW_HAND_WON = 32;
+	static final int SHOW_HAND_LOST = 36;
+	static final int STREAK = 40;
+	static final int SLOT_SIZE = 48; //最後4 byte保留
+
+	private static final int CHUNK_SLOTS = 4096; //一個chunk有幾個slot
+	private static final int CHUNK_BYTES = CHUNK_SLOTS * SLOT_SIZE;
+
+	private static final List<ByteBuffer> chunks = new ArrayList<>();
+	private static int size = 0; //已經用掉的slot數
+	private static FileChannel channel; //只有MAPPED時才會用到
+
+	static
+	{
+		if (MAPPED)
+		{
+			try
+			{
+				channel = FileChannel.open(Paths.get(SLOTS_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			catch (IOException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+				throw new IllegalStateException("Can't open " + SLOTS_FILE_NAME, exception);
+			}
+		}
+	}
+
+	/**
+	 * Check if the mapped engine is in use and {@code lottery_data.slots} already has data in it. If not, the lottery
+	 * data should be loaded from the snapshot, and will be copied into fresh slots while being loaded.
+	 *
+	 * @return true if the slots can be loaded by {@link #load}.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static boolean hasMappedSlots()
+	{
+		try
+		{
+			return MAPPED && Files.size(Paths.get(SLOTS_FILE_NAME)) >= CHUNK_BYTES;
+		}
+		catch (IOException exception)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Check if the heap engine is in use but {@code lottery_data.slots} was left by an earlier run of the mapped engine.
+	 * Those slots are newer than both {@code lottery_data.bin} and the journal, since the journal was replayed into
+	 * them when the mapped engine started. They must be read by {@link #readStaleSlots} instead of replaying the
+	 * journal, and only retired by {@link #retireStaleSlots} once a snapshot with their content is on disk.
+	 *
+	 * @return true if there are slots to be read.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static boolean hasStaleSlots()
+	{
+		return !MAPPED && Files.exists(Paths.get(SLOTS_FILE_NAME));
+	}
+
+	/**
+	 * Read every used slot of {@code lottery_data.slots} into the heap, without mapping it.
+	 *
+	 * @param consumer Receives the user ID, a buffer of the whole file and the offset of every used slot.
+	 * @return How many slots were read.
+	 * @throws IllegalStateException If the file can not be read, since the newest state would be lost otherwise.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static int readStaleSlots(SlotConsumer consumer)
+	{
+		ByteBuffer slots;
+		try
+		{
+			slots = ByteBuffer.wrap(Files.readAllBytes(Paths.get(SLOTS_FILE_NAME)));
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			throw new IllegalStateException("Can't read " + SLOTS_FILE_NAME, exception);
+		}
+
+		int count = 0;
+		for (int offset = 0; offset + SLOT_SIZE <= slots.limit(); offset += SLOT_SIZE, count++)
+		{
+			long userID = slots.getLong(offset + USER_ID);
+			if (userID == 0L) //後面都是空的
+				break;
+			consumer.accept(userID, slots, offset);
+		}
+		return count;
+	}
+
+	/**
+	 * Rename {@code lottery_data.slots} so that it is never read again, after its content was written into
+	 * {@code lottery_data.bin} and the journal was discarded.
+	 *
+	 * @throws IllegalStateException If the file can not be renamed, since reading it again would skip the journal.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void retireStaleSlots()
+	{
+		try
+		{
+			Files.move(Paths.get(SLOTS_FILE_NAME), Paths.get(SLOTS_FILE_NAME + ".stale"), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			throw new IllegalStateException("Can't rename " + SLOTS_FILE_NAME, exception);
+		}
+		FileHandle.log(SLOTS_FILE_NAME + " is stale and was renamed.");
+	}
+
+	/**
+	 * Map every chunk of {@code lottery_data.slots} and report every used slot. A slot whose user ID is 0 is the end
+	 * of the used slots, since Discord never gives out 0 as an ID.
+	 *
+	 * @param consumer Receives the user ID, the chunk and the offset of every used slot.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static synchronized void load(SlotConsumer consumer)
+	{
+		Path path = Paths.get(SLOTS_FILE_NAME);
+		long chunkCount;
+		try
+		{
+			chunkCount = Files.size(path) / CHUNK_BYTES;
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			return;
+		}
+
+		for (int i = 0; i < chunkCount; i++)
+			chunks.add(mapChunk(i));
+
+		for (size = 0; size < chunkCount * CHUNK_SLOTS; size++)
+		{
+			ByteBuffer chunk = chunks.get(size / CHUNK_SLOTS);
+			int offset = offsetOf(size);
+			long userID = chunk.getLong(offset + USER_ID);
+			if (userID == 0L) //後面都是空的
+				break;
+			consumer.accept(userID, chunk, offset);
+		}
+	}
+
+	/**
+	 * Allocate a new slot for a user. Every field of the slot is 0 except for the user ID.
+	 *
+	 * @param userID The ID of the user.
+	 * @return The index of the slot, which can be turned into a chunk by {@link #chunkOf} and an offset by
+	 * {@link #offsetOf}.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static synchronized int allocate(long userID)
+	{
+		int chunkIndex = size / CHUNK_SLOTS;
+		if (chunkIndex == chunks.size()) //需要新的chunk
+			chunks.add(MAPPED ? mapChunk(chunkIndex) : ByteBuffer.allocate(CHUNK_BYTES));
+		int slot = size++;
+		chunks.get(chunkIndex).putLong(offsetOf(slot) + USER_ID, userID);
+		return slot;
+	}
+
+	static synchronized ByteBuffer chunkOf(int slot)
+	{
+		return chunks.get(slot / CHUNK_SLOTS);
+	}
+
+	static int offsetOf(int slot)
+	{
+		return (slot % CHUNK_SLOTS) * SLOT_SIZE;
+	}
+
+	private static MappedByteBuffer mapChunk(int chunkIndex)
+	{
+		try
+		{
+			return channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex * CHUNK_BYTES, CHUNK_BYTES); //超出檔案大小的話 檔案會自動變大
+		}
+		catch (IOException exception)
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+			throw new IllegalStateException("Can't map " + SLOTS_FILE_NAME, exception);
+		}
+	}
+
+	/**
+	 * Force every mapped chunk onto the storage device. The OS writes them back by itself eventually, this only makes
+	 * sure it happens before the bot is shut down.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static synchronized void force()
+	{
+		if (!MAPPED)
+			return;
+		CommandBlocksLedger.flush(); //帳本盡量跟上 但OS隨時會寫入slot 所以啟動時仍以slot為準
+		for (ByteBuffer chunk : chunks)
+			((MappedByteBuffer) chunk).force();
+	}
+
+	/**
+	 * {@code SlotConsumer} receives a used slot from {@link #load} or {@link #readStaleSlots}.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@FunctionalInterface
+	interface SlotConsumer
+	{
+		void accept(long userID, ByteBuffer chunk, int offset);
+	}
+}
@@ -0,0 +1,139 @@
+package cartoland.utilities;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code MessageRewardBuffer} collects the command blocks that users earn by talking, so that a message only adds a
+ * number to a map instead of changing {@link CommandBlocksHandle.LotteryData} every time. The pending command blocks are
+ * kept in 64 stripes chosen by the user ID, and the worker moves them into the lottery data every
+ * {@code cartoland.rewards.flush_interval} milliseconds as a single {@link CommandBlocksLedger#MESSAGE} change per user.
+ * {@link CommandBlocksHandle#getLotteryData} takes the pending command blocks of the user before returning, so a user
+ * always sees its own balance with them. The ranking shows the others at most one interval late, since flushing on
+ * every lookup would change the ranking every time. Only the daily snapshot and the nightly role reconciliation call
+ * {@link #flushAll} first. Can not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class MessageRewardBuffer
+{
+	private MessageRewardBuffer()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	private static final long FLUSH_INTERVAL = Long.getLong("cartoland.rewards.flush_interval", 5000L); //毫秒
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final LongMap<long[]>[] stripes = new LongMap[64]; //使用者ID為key 還沒加上的方塊數為value[0] 每個stripe用自己上鎖
+	private static final ScheduledExecutorService flushService = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland Reward Flush");
+		thread.setDaemon(true); //不阻止JVM結束
+		return thread;
+	});
+
+	static
+	{
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new LongMap<>();
+		flushService.scheduleWithFixedDelay(MessageRewardBuffer::flushAll, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Give command blocks to a user for a message. They are added to the lottery data later.
+	 *
+	 * @param userID The ID of the user.
+	 * @param add The amount of command blocks.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void add(long userID, long add)
+	{
+		LongMap<long[]> stripe = stripeOf(userID);
+		synchronized (stripe)
+		{
+			long[] pending = stripe.computeIfAbsent(userID, key -> new long[1]);
+			pending[0] = Algorithm.safeAdd(pending[0], add);
+		}
+	}
+
+	/**
+	 * Remove and return the pending command blocks of a user. If the stripe of the user is being flushed, this waits
+	 * until it is done, so the caller either gets the command blocks or sees them in the lottery data already.
+	 *
+	 * @param userID The ID of the user.
+	 * @return The command blocks that were not added yet, 0 if none.
+	 */
+	static long take(long userID)
+	{
+		LongMap<long[]> stripe = stripeOf(userID);
+		synchronized (stripe)
+		{
+			long[] pending = stripe.remove(userID);
+			return pending != null ? pending[0] : 0L;
+		}
+	}
+
+	/**
+	 * Add the pending command blocks of every user to their lottery data. This is called by the worker, and before
+	 * something that is recorded, such as the daily snapshot of the ranking.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void flushAll()
+	{
+		try
+		{
+			for (LongMap<long[]> stripe : stripes)
+			{
+				synchronized (stripe) //加完之前 take會等待
+				{
+					if (stripe.isEmpty())
+						continue;
+					long[] userIDs = stripe.keys();
+					long[] amounts = new long[userIDs.length];
+					for (int i = 0; i < userIDs.length; i++)
+						amounts[i] = stripe.get(userIDs[i])[0];
+					stripe.clear(); //getLotteryData裡的take會拿到0
+					for (int i = 0; i < userIDs.length; i++)
+						CommandBlocksHandle.getLotteryData(userIDs[i]).addBlocks(amounts[i], CommandBlocksLedger.MESSAGE);
+				}
+			}
+		}
+		catch (Exception exception) //例外會讓排程停止
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+		}
+	}
+
+	/**
+	 * Stop the worker and add everything that is still pending. This is called when the bot shuts down, before the
+	 * lottery data is saved.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void close()
+	{
+		flushService.shutdown();
+		try
+		{
+			flushService.awaitTermination(10L, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+		}
+		flushAll();
+	}
+
+	private static LongMap<long[]> stripeOf(long userID)
+	{
+		long h = userID * 0x9E3779B97F4A7C15L; //和LongMap一樣的費氏雜湊
+		return stripes[(int) (h >>> 58)]; //最高的6 bit 剛好是64個stripe
+	}
+}
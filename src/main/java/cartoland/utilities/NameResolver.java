@@ -0,0 +1,166 @@
+package cartoland.utilities;
+
+import cartoland.Cartoland;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * {@code NameResolver} keeps the names of {@link CommandBlocksHandle.LotteryData} up to date without flooding the REST
+ * queue. A name is looked up in the member cache of Cartoland first. Only the users that are not members are fetched
+ * one by one, with at most {@code cartoland.names.concurrency} requests in flight, and every name that was found is
+ * persisted by {@link CommandBlocksHandle.LotteryData#setName}. Until then, the ranking simply shows the names that
+ * were stored last time. Can not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class NameResolver
+{
+	private NameResolver()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	private static final int CONCURRENCY = Integer.getInteger("cartoland.names.concurrency", 4); //同時最多幾個請求
+	private static final Throttle<CommandBlocksHandle.LotteryData> throttle = new Throttle<>(CONCURRENCY, NameResolver::send);
+
+	/**
+	 * Resolve the names of every user at startup. The members of Cartoland are loaded in one go through the gateway,
+	 * and the rest are queued.
+	 *
+	 * @param lotteryDataList The users whose names are going to be resolved. This method takes the ownership of the
+	 *                        collection.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void resolveAll(Collection<CommandBlocksHandle.LotteryData> lotteryDataList)
+	{
+		Guild cartoland = Cartoland.getJDA().getGuildById(IDs.CARTOLAND_SERVER_ID); //創聯
+		if (cartoland == null) //找不到創聯 只好一個一個請求
+		{
+			lotteryDataList.forEach(throttle::submit);
+			return;
+		}
+
+		cartoland.loadMembers().onSuccess(members -> //和快取一樣 不會用到REST
+		{
+			LongMap<CommandBlocksHandle.LotteryData> unresolved = new LongMap<>(lotteryDataList.size());
+			for (CommandBlocksHandle.LotteryData lotteryData : lotteryDataList)
+				unresolved.put(lotteryData.getUserID(), lotteryData);
+			for (Member member : members)
+			{
+				CommandBlocksHandle.LotteryData lotteryData = unresolved.remove(member.getIdLong());
+				if (lotteryData != null)
+					lotteryData.setName(member.getUser().getEffectiveName());
+			}
+			FileHandle.log("Resolved " + (lotteryDataList.size() - unresolved.size()) + " names from members, fetching " + unresolved.size() + " more.");
+			unresolved.forEach((userID, lotteryData) -> throttle.submit(lotteryData)); //已經不在群組內的人
+		}).onError(throwable ->
+		{
+			throwable.printStackTrace();
+			FileHandle.log("Can't load the members of Cartoland: " + throwable);
+			lotteryDataList.forEach(throttle::submit);
+		});
+	}
+
+	/**
+	 * Resolve the name of a user, from the member cache if possible. Nothing happens before the bot is online, since
+	 * {@link CommandBlocksHandle#initial} resolves every user after that.
+	 *
+	 * @param lotteryData The user whose name is going to be resolved.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void resolve(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		JDA jda = Cartoland.getJDA();
+		if (jda == null) //還沒上線 之後initial()會解析所有人的名字
+			return;
+		Guild cartoland = jda.getGuildById(IDs.CARTOLAND_SERVER_ID); //創聯
+		Member member = cartoland != null ? cartoland.getMemberById(lotteryData.getUserID()) : null;
+		if (member != null) //有快取
+			lotteryData.setName(member.getUser().getEffectiveName());
+		else
+			throttle.submit(lotteryData);
+	}
+
+	private static void send(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		JDA jda = Cartoland.getJDA();
+		jda.retrieveUserById(lotteryData.getUserID()).queue(user ->
+		{
+			lotteryData.setName(user.getEffectiveName());
+			throttle.done();
+		}, exception -> throttle.done()); //找不到這個使用者 保留原本的名字
+	}
+
+	/**
+	 * {@code Throttle} sends at most a number of requests at once, and queues the rest in the order they came. The
+	 * sender must call {@link #done} once for every request when it has finished, whether it succeeded or not.
+	 *
+	 * @param <T> The type of what a request is about.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static final class Throttle<T>
+	{
+		private final int concurrency;
+		private final Consumer<T> sender;
+		private final Queue<T> waiting = new ArrayDeque<>(); //等待請求的項目
+		private int inFlight = 0; //正在請求的數量 和waiting一起由waiting保護
+
+		Throttle(int concurrency, Consumer<T> sender)
+		{
+			this.concurrency = concurrency;
+			this.sender = sender;
+		}
+
+		/**
+		 * Send a request now if there is room, otherwise queue it.
+		 *
+		 * @param item What the request is about.
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void submit(T item)
+		{
+			synchronized (waiting)
+			{
+				if (inFlight >= concurrency) //請求太多了 排隊
+				{
+					waiting.add(item);
+					return;
+				}
+				inFlight++;
+			}
+			sender.accept(item);
+		}
+
+		/**
+		 * Tell that a request has finished, and send the next one in the queue with its room.
+		 *
+		 * @since 2.2
+		 * @author Alex Cai
+		 */
+		void done()
+		{
+			T next;
+			synchronized (waiting)
+			{
+				next = waiting.poll();
+				if (next == null) //沒有在排隊的了
+				{
+					inFlight--;
+					return;
+				}
+			}
+			sender.accept(next); //沿用同一個名額
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package cartoland.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code RankingHandle} is a utility class that ranks users by their command blocks. Every user is kept in a
+ * {@link RankingTree}, so a page of the ranking, the position of a user and the users around a user are all found in
+ * O(log n) plus the number of users returned, without sorting anything. Users that have the same command blocks share
+ * the same competition rank ("1224"), which counts the users that have more command blocks. The command
+ * blocks themselves are changed without any lock, and {@link #update} only remembers the user in a concurrent map,
+ * without any lock either. Whoever reads the ranking next moves every remembered user to whatever its latest command
+ * blocks are while holding {@link #lock}, so a user that changed many times in between is moved once, and readers
+ * always see the latest ranking. The tree remembers the command blocks of each user in
+ * {@link CommandBlocksHandle.LotteryData#rankedBlocks}, so a user is always found with them. Every change of the ranking,
+ * including a new name, increases {@link #getVersion}, so that rendered pages can tell if they are still up to date.
+ * Can not be instantiated or inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class RankingHandle
+{
+	private RankingHandle()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	private static final Object lock = new Object(); //保護排名樹和每位使用者的rankedBlocks
+	private static final RankingTree<CommandBlocksHandle.LotteryData> ranking = new RankingTree<>(); //依照方塊數排序
+	private static final Map<Long, CommandBlocksHandle.LotteryData> moved = new ConcurrentHashMap<>(); //方塊數變了 還沒在樹裡移動的使用者
+	private static volatile long version = 0L; //排名每變動一次就+1
+
+	/**
+	 * Add a user to the ranking with its current command blocks.
+	 *
+	 * @param userID The ID of the user.
+	 * @param lotteryData The lottery data of the user.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void insert(long userID, CommandBlocksHandle.LotteryData lotteryData)
+	{
+		synchronized (lock)
+		{
+			long blocks = lotteryData.rankedBlocks = lotteryData.getBlocks();
+			ranking.insert(userID, blocks, lotteryData);
+			version++;
+		}
+	}
+
+	/**
+	 * Remember that the command blocks of a user were changed. The user is moved by the next reader of the ranking,
+	 * which reads the command blocks again inside {@link #lock}, so the ranking ends up with the latest value no matter
+	 * in which order the threads that changed them get here.
+	 *
+	 * @param lotteryData The lottery data of the user.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void update(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		moved.put(lotteryData.getUserID(), lotteryData);
+	}
+
+	/**
+	 * Move every user that was remembered by {@link #update} to its latest command blocks. Must be called while holding
+	 * {@link #lock}.
+	 */
+	private static void applyMoves()
+	{
+		if (moved.isEmpty())
+			return;
+		for (Long userID : moved.keySet())
+		{
+			CommandBlocksHandle.LotteryData lotteryData = moved.remove(userID); //先移除再讀取 之後的變動會再放進來
+			if (lotteryData == null)
+				continue;
+			long oldBlocks = lotteryData.rankedBlocks;
+			long newBlocks = lotteryData.getBlocks();
+			if (oldBlocks == newBlocks) //變回原本的方塊數了
+				continue;
+			ranking.update(userID, oldBlocks, newBlocks, lotteryData);
+			lotteryData.rankedBlocks = newBlocks;
+			version++;
+		}
+	}
+
+	/**
+	 * Tell the ranking that something it displays other than the command blocks, such as the name of a user, has
+	 * changed.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static void markChanged()
+	{
+		synchronized (lock)
+		{
+			version++;
+		}
+	}
+
+	/**
+	 * Get the version of the ranking, which increases whenever the ranking changes.
+	 *
+	 * @return The current version.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static long getVersion()
+	{
+		if (!moved.isEmpty()) //還有沒移動的使用者 版本也還沒增加
+		{
+			synchronized (lock)
+			{
+				applyMoves();
+			}
+		}
+		return version;
+	}
+
+	public static int size()
+	{
+		synchronized (lock)
+		{
+			return ranking.size();
+		}
+	}
+
+	/**
+	 * Get the competition rank of an amount of command blocks, which is 1 plus how many users have more command blocks
+	 * than it.
+	 *
+	 * @param blocks The amount of command blocks.
+	 * @return The 1-based competition rank.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static int competitionRankOf(long blocks)
+	{
+		synchronized (lock)
+		{
+			applyMoves();
+			return ranking.countAbove(blocks) + 1;
+		}
+	}
+
+	/**
+	 * Get the position of a user in the ranking. Unlike the ranks, users that have the same command blocks have
+	 * different positions, ordered by their IDs.
+	 *
+	 * @param lotteryData The lottery data of the user.
+	 * @return The 0-based position of the user, or -1 if the user is not ranked.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static int positionOf(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		synchronized (lock)
+		{
+			applyMoves();
+			return ranking.rankOf(lotteryData.getUserID(), lotteryData.rankedBlocks);
+		}
+	}
+
+	/**
+	 * Get the users between two positions of the ranking.
+	 *
+	 * @param from The first position, 0-based.
+	 * @param to The position after the last one.
+	 * @return The rows of the users in the ranking order.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static List<Row> getRanking(int from, int to)
+	{
+		synchronized (lock)
+		{
+			applyMoves();
+			return rows(ranking.range(from, to), Math.max(from, 0));
+		}
+	}
+
+	/**
+	 * Copy the command blocks and the competition rank of each user while still holding {@link #lock}, so the rows
+	 * agree with the order they were taken in. Users that have the same command blocks share the same competition
+	 * rank, so only the first row needs to look up its rank, and every other row can tell its rank from the row above.
+	 * Must be called while holding {@link #lock}.
+	 *
+	 * @param firstPosition The 0-based position of the first user.
+	 */
+	private static List<Row> rows(List<CommandBlocksHandle.LotteryData> users, int firstPosition)
+	{
+		List<Row> rows = new ArrayList<>(users.size());
+		int rank = 0;
+		long lastBlocks = 0L;
+		for (int i = 0, size = users.size(); i < size; i++)
+		{
+			CommandBlocksHandle.LotteryData lotteryData = users.get(i);
+			long blocks = lotteryData.rankedBlocks; //和樹的順序一致
+			if (i == 0)
+				rank = ranking.countAbove(blocks) + 1;
+			else if (blocks != lastBlocks) //和上一位不同分
+				rank = firstPosition + i + 1;
+			lastBlocks = blocks;
+			rows.add(new Row(lotteryData, blocks, rank));
+		}
+		return rows;
+	}
+
+	/**
+	 * Copy the whole ranking at one moment, in the ranking order.
+	 *
+	 * @return The user ID and the command blocks of every user, one after another.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static long[] snapshot()
+	{
+		synchronized (lock)
+		{
+			applyMoves();
+			List<CommandBlocksHandle.LotteryData> all = ranking.range(0, ranking.size());
+			long[] pairs = new long[all.size() * 2];
+			for (int i = 0; i < all.size(); i++)
+			{
+				CommandBlocksHandle.LotteryData lotteryData = all.get(i);
+				pairs[i * 2] = lotteryData.getUserID();
+				pairs[i * 2 + 1] = lotteryData.rankedBlocks; //和樹的順序一致
+			}
+			return pairs;
+		}
+	}
+
+	/**
+	 * Get the users ranked around a user, at most {@code k} users before it and {@code k} users after it, and the user
+	 * itself.
+	 *
+	 * @param lotteryData The lottery data of the user.
+	 * @param k How many users on each side.
+	 * @return The rows of the users in the ranking order. It is empty if the user is not ranked.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static List<Row> getRankingAround(CommandBlocksHandle.LotteryData lotteryData, int k)
+	{
+		synchronized (lock)
+		{
+			applyMoves();
+			int position = ranking.rankOf(lotteryData.getUserID(), lotteryData.rankedBlocks);
+			return position != -1 ? rows(ranking.range(position - k, position + k + 1), Math.max(position - k, 0)) : List.of();
+		}
+	}
+
+	/**
+	 * A user in the ranking, with the command blocks it is ranked by and its competition rank, both taken at the same
+	 * moment as the order of the rows. The command blocks of the user may have changed since then.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static final class Row
+	{
+		private final CommandBlocksHandle.LotteryData lotteryData;
+		private final long blocks;
+		private final int rank;
+
+		private Row(CommandBlocksHandle.LotteryData lotteryData, long blocks, int rank)
+		{
+			this.lotteryData = lotteryData;
+			this.blocks = blocks;
+			this.rank = rank;
+		}
+
+		public CommandBlocksHandle.LotteryData getLotteryData()
+		{
+			return lotteryData;
+		}
+
+		public long getBlocks()
+		{
+			return blocks;
+		}
+
+		public int getRank()
+		{
+			return rank;
+		}
+	}
+}
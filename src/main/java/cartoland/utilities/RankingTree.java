@@ -0,0 +1,289 @@
+package cartoland.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code RankingTree} is an order-statistic tree that keeps entries sorted by their score, from the highest to the
+ * lowest, and by their ID when the scores are the same. It is a treap in which every node also knows the size of its
+ * subtree, so inserting, removing, finding the rank of an entry and jumping to the k-th entry all take O(log n), and
+ * a page of k entries takes O(log n + k). The priority of a node is a hash of its ID, so the shape of the tree does not
+ * depend on a random generator. An entry must be removed with the same score that it was inserted with, which is why
+ * {@link #update} needs the old score. This class is not synchronized.
+ *
+ * @param <V> The type of the values.
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class RankingTree<V>
+{
+	private Node<V> root;
+
+	/**
+	 * Whether the entry of {@code (score1, id1)} comes before the entry of {@code (score2, id2)}.
+	 */
+	private static boolean before(long score1, long id1, long score2, long id2)
+	{
+		return score1 > score2 || (score1 == score2 && id1 < id2); //分數高的在前 同分時ID小的在前
+	}
+
+	private static int priorityOf(long id)
+	{
+		long h = id * 0x9E3779B97F4A7C15L; //和LongMap一樣的費氏雜湊
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int sizeOf(Node<?> node)
+	{
+		return node != null ? node.size : 0;
+	}
+
+	public int size()
+	{
+		return sizeOf(root);
+	}
+
+	public boolean isEmpty()
+	{
+		return root == null;
+	}
+
+	/**
+	 * Insert an entry. The same ID must not be inserted twice.
+	 *
+	 * @param id The ID of the entry.
+	 * @param score The score of the entry.
+	 * @param value The value of the entry.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public void insert(long id, long score, V value)
+	{
+		root = insert(root, new Node<>(id, score, value));
+	}
+
+	private static <V> Node<V> insert(Node<V> node, Node<V> inserted)
+	{
+		if (node == null)
+			return inserted;
+		if (before(inserted.score, inserted.id, node.score, node.id))
+		{
+			node.left = insert(node.left, inserted);
+			if (node.left.priority > node.priority) //維持heap的性質
+				node = rotateRight(node);
+		}
+		else
+		{
+			node.right = insert(node.right, inserted);
+			if (node.right.priority > node.priority)
+				node = rotateLeft(node);
+		}
+		node.resize();
+		return node;
+	}
+
+	/**
+	 * Remove an entry.
+	 *
+	 * @param id The ID of the entry.
+	 * @param score The score that the entry was inserted with.
+	 * @return true if the entry was found and removed.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public boolean remove(long id, long score)
+	{
+		int oldSize = size();
+		root = remove(root, id, score);
+		return size() != oldSize;
+	}
+
+	private static <V> Node<V> remove(Node<V> node, long id, long score)
+	{
+		if (node == null) //找不到
+			return null;
+		if (node.id == id && node.score == score)
+			return merge(node.left, node.right);
+		if (before(score, id, node.score, node.id))
+			node.left = remove(node.left, id, score);
+		else
+			node.right = remove(node.right, id, score);
+		node.resize();
+		return node;
+	}
+
+	/**
+	 * Move an entry to its new score.
+	 *
+	 * @param id The ID of the entry.
+	 * @param oldScore The score that the entry was inserted with.
+	 * @param newScore The new score of the entry.
+	 * @param value The value of the entry.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public void update(long id, long oldScore, long newScore, V value)
+	{
+		if (oldScore == newScore)
+			return;
+		remove(id, oldScore);
+		insert(id, newScore, value);
+	}
+
+	/**
+	 * Get the rank of an entry, which is how many entries come before it.
+	 *
+	 * @param id The ID of the entry.
+	 * @param score The current score of the entry.
+	 * @return The 0-based rank of the entry, or -1 if the entry is not in this tree.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public int rankOf(long id, long score)
+	{
+		int rank = 0;
+		for (Node<V> node = root; node != null;)
+		{
+			if (node.id == id && node.score == score)
+				return rank + sizeOf(node.left);
+			if (before(score, id, node.score, node.id))
+				node = node.left;
+			else
+			{
+				rank += sizeOf(node.left) + 1; //左子樹和自己都在前面
+				node = node.right;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Count the entries whose score is higher than {@code score}.
+	 *
+	 * @param score The score to compare.
+	 * @return How many entries have a higher score.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public int countAbove(long score)
+	{
+		int count = 0;
+		for (Node<V> node = root; node != null;)
+		{
+			if (node.score > score)
+			{
+				count += sizeOf(node.left) + 1;
+				node = node.right;
+			}
+			else
+				node = node.left;
+		}
+		return count;
+	}
+
+	/**
+	 * Get the values of the entries whose rank is between {@code from} (inclusive) and {@code to} (exclusive).
+	 *
+	 * @param from The first rank, 0-based.
+	 * @param to The rank after the last one. It will be clamped to {@link #size}.
+	 * @return The values in ranking order.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public List<V> range(int from, int to)
+	{
+		from = Math.max(from, 0);
+		to = Math.min(to, size());
+		List<V> values = new ArrayList<>(Math.max(to - from, 0));
+		collect(root, from, to, values);
+		return values;
+	}
+
+	private static <V> void collect(Node<V> node, int from, int to, List<V> values)
+	{
+		//from和to是相對於這棵子樹的排名
+		if (node == null || from >= to)
+			return;
+		int leftSize = sizeOf(node.left);
+		if (from < leftSize)
+			collect(node.left, from, Math.min(to, leftSize), values);
+		if (from <= leftSize && leftSize < to)
+			values.add(node.value);
+		if (to > leftSize + 1)
+			collect(node.right, Math.max(from - leftSize - 1, 0), to - leftSize - 1, values);
+	}
+
+	public void clear()
+	{
+		root = null;
+	}
+
+	private static <V> Node<V> rotateRight(Node<V> node)
+	{
+		Node<V> left = node.left;
+		node.left = left.right;
+		left.right = node;
+		node.resize();
+		left.resize();
+		return left;
+	}
+
+	private static <V> Node<V> rotateLeft(Node<V> node)
+	{
+		Node<V> right = node.right;
+		node.right = right.left;
+		right.left = node;
+		node.resize();
+		right.resize();
+		return right;
+	}
+
+	/**
+	 * Merge two subtrees, every entry of {@code left} comes before every entry of {@code right}.
+	 */
+	private static <V> Node<V> merge(Node<V> left, Node<V> right)
+	{
+		if (left == null)
+			return right;
+		if (right == null)
+			return left;
+		if (left.priority > right.priority)
+		{
+			left.right = merge(left.right, right);
+			left.resize();
+			return left;
+		}
+		right.left = merge(left, right.left);
+		right.resize();
+		return right;
+	}
+
+	/**
+	 * A node of the treap.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	private static class Node<V>
+	{
+		private final long id;
+		private final long score;
+		private final int priority;
+		private final V value;
+		private int size = 1; //這棵子樹有幾個節點
+		private Node<V> left, right;
+
+		private Node(long id, long score, V value)
+		{
+			this.id = id;
+			this.score = score;
+			this.value = value;
+			priority = priorityOf(id);
+		}
+
+		private void resize()
+		{
+			size = sizeOf(left) + sizeOf(right) + 1;
+		}
+	}
+}
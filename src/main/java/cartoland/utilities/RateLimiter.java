@@ -0,0 +1,102 @@
+package cartoland.utilities;
+
+import java.util.function.LongSupplier;
+
+/**
+ * {@code RateLimiter} gives every user a token bucket that holds at most {@code capacity} tokens and gains one token
+ * every {@code interval} milliseconds. A bucket is not a counter that something has to refill, it is a single
+ * {@code long} in a {@link LongMap}: the time when the bucket will be full again. Taking a token pushes that time one
+ * interval later, and the tokens of a bucket are just how far that time is from now, so the refill happens lazily on
+ * the next call and no timer is needed. A bucket whose time has already passed is full, which is the same as not having
+ * a bucket at all, so those are swept away from time to time and the map only holds the users that were active
+ * recently. This class is thread-safe.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public class RateLimiter
+{
+	private final long interval; //多少奈秒得到一個token
+	private final long burst; //容量 - 1個interval 桶子是滿的時候 full最多可以比現在晚這麼多
+	private final LongMap<long[]> buckets = new LongMap<>(); //使用者ID為key value[0]為桶子再次變滿的時間
+	private final LongSupplier clock; //奈秒
+	private long lastSweep;
+
+	/**
+	 * Create a limiter.
+	 *
+	 * @param capacity How many tokens a user can use at once.
+	 * @param interval How many milliseconds it takes to get a token back.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public RateLimiter(int capacity, long interval)
+	{
+		this(capacity, interval, System::nanoTime);
+	}
+
+	/**
+	 * Create a limiter that reads the time from a clock, so that tests can move the time by hand.
+	 *
+	 * @param capacity How many tokens a user can use at once.
+	 * @param interval How many milliseconds it takes to get a token back.
+	 * @param clock The current time in nanoseconds, such as {@link System#nanoTime}.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	RateLimiter(int capacity, long interval, LongSupplier clock)
+	{
+		if (capacity < 1 || interval < 1L)
+			throw new IllegalArgumentException("Capacity and interval must be positive.");
+		this.interval = interval * 1_000_000L;
+		burst = (capacity - 1) * this.interval;
+		this.clock = clock;
+		lastSweep = clock.getAsLong();
+	}
+
+	/**
+	 * Take a token from the bucket of a user.
+	 *
+	 * @param userID The ID of the user.
+	 * @return 0 if a token was taken, otherwise how many milliseconds until there will be a token.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public synchronized long tryAcquire(long userID)
+	{
+		long now = clock.getAsLong();
+		if (now - lastSweep > burst + interval) //這段時間足以讓任何桶子變滿
+			sweep(now);
+
+		long[] full = buckets.get(userID);
+		if (full == null) //很久沒有使用 桶子是滿的
+		{
+			buckets.put(userID, new long[] { now + interval });
+			return 0L;
+		}
+		long start = full[0] - now > 0L ? full[0] : now; //已經滿了的話 從現在開始算
+		if (start - now > burst) //沒有token了
+			return (start - now - burst + 999_999L) / 1_000_000L; //無條件進位成毫秒
+		full[0] = start + interval;
+		return 0L;
+	}
+
+	/**
+	 * Remove the buckets that are full again.
+	 */
+	private void sweep(long now)
+	{
+		for (long userID : buckets.keys())
+			if (buckets.get(userID)[0] - now <= 0L)
+				buckets.remove(userID);
+		lastSweep = now;
+	}
+
+	/**
+	 * How many users have a bucket that is not known to be full.
+	 */
+	synchronized int size()
+	{
+		return buckets.size();
+	}
+}
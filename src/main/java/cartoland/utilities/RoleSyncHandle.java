@@ -0,0 +1,193 @@
+package cartoland.utilities;
+
+import cartoland.Cartoland;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.exceptions.ErrorHandler;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * {@code RoleSyncHandle} is a utility class that keeps the God of Gamblers role of users in sync with their command
+ * blocks. A change of command blocks that crosses {@link CommandBlocksHandle#GAMBLE_ROLE_MIN} only records the user and
+ * the time, so a user who bets back and forth around the line is recorded once. Once a user has not changed for
+ * {@code cartoland.role_sync.debounce} milliseconds, the worker compares the latest command blocks with the roles of the
+ * member and sends an add or remove request only if they differ, at most {@code cartoland.role_sync.rate} requests
+ * per second. A member that is not cached is retrieved first, which counts as a request too, and is compared in the
+ * next second, so the add or remove request that follows is counted as well. {@link #reconcile} checks every user in bulk to fix anything that was missed. Can not be instantiated or
+ * inherited.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+public final class RoleSyncHandle
+{
+	private RoleSyncHandle()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	private static final long DEBOUNCE = Long.getLong("cartoland.role_sync.debounce", 10000L); //毫秒
+	private static final int RATE = Integer.getInteger("cartoland.role_sync.rate", 5); //每秒最多幾次請求
+	private static final Map<Long, Long> pending = new ConcurrentHashMap<>(); //使用者ID為key 最後一次變動的時間為value
+	private static final Map<Long, Member> retrieved = new ConcurrentHashMap<>(); //沒有快取 剛剛才取得的成員
+	private static final ScheduledExecutorService syncService = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland Role Sync");
+		thread.setDaemon(true); //不阻止JVM結束
+		return thread;
+	});
+
+	static
+	{
+		syncService.scheduleWithFixedDelay(RoleSyncHandle::sync, 1L, 1L, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Record that the role of a user may need to change. The role is decided by the command blocks at the time it is
+	 * sent, not now, so only the latest state matters.
+	 *
+	 * @param userID The ID of the user.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void request(long userID)
+	{
+		pending.put(userID, System.currentTimeMillis()); //重新計算等待時間
+	}
+
+	private static void sync()
+	{
+		try
+		{
+			if (pending.isEmpty()) //沒有要同步的
+				return;
+			JDA jda = Cartoland.getJDA();
+			if (jda == null) //還沒上線
+				return;
+			Guild cartoland = jda.getGuildById(IDs.CARTOLAND_SERVER_ID); //創聯
+			if (cartoland == null) //找不到創聯
+				return;
+			Role godOfGamblersRole = cartoland.getRoleById(IDs.GOD_OF_GAMBLERS_ROLE_ID); //賭神身分組
+			if (godOfGamblersRole == null) //找不到賭神身分組
+				return;
+
+			drain(pending, System.currentTimeMillis() - DEBOUNCE, RATE, userID ->
+			{
+				Member member = retrieved.remove(userID);
+				if (member == null)
+					member = cartoland.getMemberById(userID);
+				if (member != null) //剛剛取得過或有快取 不需要請求
+					return apply(cartoland, godOfGamblersRole, member);
+				cartoland.retrieveMemberById(userID).queue(result ->
+				{
+					retrieved.put(userID, result);
+					pending.putIfAbsent(userID, 0L); //下一秒再比較 給予或剝奪身分組的請求也要算在速率內
+				}, new ErrorHandler().ignore(ErrorResponse.UNKNOWN_MEMBER)); //已經離開群組了
+				return true; //取得成員也是一次請求
+			});
+		}
+		catch (Exception exception) //例外會讓排程停止
+		{
+			exception.printStackTrace();
+			FileHandle.log(exception);
+		}
+	}
+
+	/**
+	 * Take the users that have not changed since {@code deadline} out of the pending users, and pass them to
+	 * {@code send} one by one until {@code rate} of them have sent a request. Users that are already right cost
+	 * nothing, and the rest are left for the next second.
+	 *
+	 * @param pending The pending users, with the time of their last change.
+	 * @param deadline Users that changed after this time are still changing.
+	 * @param rate How many requests can be sent.
+	 * @param send Compares the role of a user, and returns true if that sent a request.
+	 * @return How many requests were sent.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static int drain(Map<Long, Long> pending, long deadline, int rate, LongPredicate send)
+	{
+		int sent = 0;
+		for (Iterator<Map.Entry<Long, Long>> iterator = pending.entrySet().iterator(); iterator.hasNext() && sent < rate;)
+		{
+			Map.Entry<Long, Long> entry = iterator.next();
+			if (entry.getValue() > deadline) //還在變動中
+				continue;
+			long userID = entry.getKey();
+			if (!pending.remove(userID, entry.getValue())) //剛好又變動了 下次再處理
+				continue;
+			if (send.test(userID))
+				sent++;
+		}
+		return sent;
+	}
+
+	/**
+	 * Add or remove the role so that it matches the latest command blocks.
+	 *
+	 * @return true if a request was sent.
+	 */
+	private static boolean apply(Guild cartoland, Role godOfGamblersRole, Member member)
+	{
+		CommandBlocksHandle.LotteryData lotteryData = CommandBlocksHandle.findLotteryData(member.getIdLong()); //不要替沒玩過的成員建立資料
+		boolean shouldHave = lotteryData != null && lotteryData.getBlocks() >= CommandBlocksHandle.GAMBLE_ROLE_MIN;
+		if (shouldHave == member.getRoles().contains(godOfGamblersRole)) //已經是對的
+			return false;
+		if (shouldHave)
+			cartoland.addRoleToMember(member, godOfGamblersRole).queue(); //給予賭神身分組
+		else
+			cartoland.removeRoleFromMember(member, godOfGamblersRole).queue(); //剝奪賭神身分組
+		return true;
+	}
+
+	/**
+	 * Compare the members who have the God of Gamblers role with the users who should have it, and queue everyone who
+	 * differs. This runs every night, in case a request failed or the role was changed by hand.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void reconcile()
+	{
+		Guild cartoland = Cartoland.getJDA().getGuildById(IDs.CARTOLAND_SERVER_ID); //創聯
+		if (cartoland == null) //找不到創聯
+			return;
+		Role godOfGamblersRole = cartoland.getRoleById(IDs.GOD_OF_GAMBLERS_ROLE_ID); //賭神身分組
+		if (godOfGamblersRole == null) //找不到賭神身分組
+			return;
+
+		//方塊數大於等於GAMBLE_ROLE_MIN的人 剛好是排名最前面的那些人
+		MessageRewardBuffer.flushAll(); //先加上還沒加上的訊息獎勵
+		LongSet shouldHave = new LongSet();
+		int count = RankingHandle.competitionRankOf(CommandBlocksHandle.GAMBLE_ROLE_MIN - 1L) - 1;
+		for (RankingHandle.Row row : RankingHandle.getRanking(0, count))
+			shouldHave.add(row.getLotteryData().getUserID());
+
+		cartoland.findMembersWithRoles(godOfGamblersRole).onSuccess(members ->
+		{
+			int drifted = 0;
+			for (Member member : members)
+			{
+				if (shouldHave.remove(member.getIdLong())) //有身分組 也應該要有
+					continue;
+				pending.putIfAbsent(member.getIdLong(), 0L); //不用等待 但不要蓋掉正在變動的人
+				drifted++;
+			}
+			drifted += shouldHave.size();
+			shouldHave.forEach(userID -> pending.putIfAbsent(userID, 0L)); //沒有身分組 但應該要有
+			if (drifted != 0)
+				FileHandle.log("Role sync found " + drifted + " members with the wrong God of Gamblers role.");
+		});
+	}
+}
@@ -0,0 +1,556 @@
+package cartoland.utilities;
+
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code SqlStateStore} is an {@link IStateStore} that keeps every table in an embedded H2 database, which is
+ * {@code serialize/cartoland.mv.db} by default and can be changed by {@code -Dcartoland.state.url}. Instead of writing
+ * whole files, only the rows that changed are written: a change is queued in memory, and a background thread writes
+ * the queued rows of every table, one batch of a prepared statement per table, and commits all of them in one
+ * transaction. Several changes of the same row before the next batch are written as one. When a table has not been
+ * imported yet, the content of its {@link FileStateStore} file is imported, so switching to this store loses nothing.
+ * The rows of a table and the mark in {@code imported_tables} that says it was imported are committed together, so an
+ * import that was interrupted is simply done again at the next start. The ranking is kept in memory by
+ * {@link RankingHandle} whichever store is used, so the lottery data table has no index other than its primary key,
+ * and every row is written without updating one.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class SqlStateStore implements IStateStore
+{
+	private static final String URL = System.getProperty("cartoland.state.url", "jdbc:h2:./serialize/cartoland");
+	private static final long FLUSH_INTERVAL = Long.getLong("cartoland.state.flush_interval", 1000L); //毫秒
+	private static final String LOTTERY_DATA = "lottery_data";
+	private static final String IMPORTED_TABLES = "imported_tables"; //從檔案匯入完成的表格
+	private static final Object REMOVED = new Object(); //ConcurrentHashMap不能放null 用這個代表刪除
+
+	private final Connection connection;
+	private final Map<String, Table> tables = new ConcurrentHashMap<>();
+	private final Object flushLock = new Object(); //保護connection
+	private final ByteBuffer state = ByteBuffer.allocate(CommandBlocksHandle.LotteryData.STATE_SIZE); //只在flushLock內使用
+
+	private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Cartoland State Writer");
+		thread.setDaemon(true); //不阻止JVM結束 關機時由close寫完
+		return thread;
+	});
+
+	SqlStateStore()
+	{
+		try
+		{
+			connection = DriverManager.getConnection(URL);
+			connection.setAutoCommit(false); //一批寫完才commit
+		}
+		catch (SQLException exception)
+		{
+			throw new IllegalStateException("Can not open the state database " + URL, exception);
+		}
+		createImportedTables();
+		writer.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public LongMap<String> loadStrings(String table)
+	{
+		boolean importing = createTable(table, "id BIGINT PRIMARY KEY, content VARCHAR NOT NULL");
+		Table stringTable = register(table, "MERGE INTO " + table + " (id, content) KEY (id) VALUES (?, ?)", "id",
+									 (statement, value) -> statement.setString(2, (String) value));
+		LongMap<String> map;
+		if (importing) //從檔案匯入
+		{
+			map = FileStateStore.readMap(table);
+			map.forEach(stringTable.pending::put);
+			importRows(table, stringTable, map.size());
+		}
+		else
+		{
+			LongMap<String> rows = new LongMap<>();
+			query("SELECT id, content FROM " + table, result -> rows.put(result.getLong(1), result.getString(2)));
+			map = rows;
+		}
+		tables.put(table, stringTable); //之後的變動才會寫入
+		return map;
+	}
+
+	@Override
+	public void putString(String table, long key, String value)
+	{
+		queue(table, key, value);
+	}
+
+	@Override
+	public LongMap<long[]> loadLongArrays(String table, int length)
+	{
+		StringBuilder columns = new StringBuilder("id BIGINT PRIMARY KEY");
+		StringBuilder names = new StringBuilder("id");
+		StringBuilder parameters = new StringBuilder("?");
+		for (int i = 0; i < length; i++)
+		{
+			columns.append(", v").append(i).append(" BIGINT NOT NULL");
+			names.append(", v").append(i);
+			parameters.append(", ?");
+		}
+		boolean importing = createTable(table, columns.toString());
+		Table arrayTable = register(table, "MERGE INTO " + table + " (" + names + ") KEY (id) VALUES (" + parameters + ')', "id", (statement, value) ->
+		{
+			long[] array = (long[]) value;
+			for (int i = 0; i < length; i++)
+				statement.setLong(i + 2, array[i]);
+		});
+		LongMap<long[]> map;
+		if (importing) //從檔案匯入
+		{
+			map = FileStateStore.readMap(table);
+			map.forEach(arrayTable.pending::put);
+			importRows(table, arrayTable, map.size());
+		}
+		else
+		{
+			LongMap<long[]> rows = new LongMap<>();
+			query("SELECT " + names + " FROM " + table, result ->
+			{
+				long[] array = new long[length];
+				for (int i = 0; i < length; i++)
+					array[i] = result.getLong(i + 2);
+				rows.put(result.getLong(1), array);
+			});
+			map = rows;
+		}
+		tables.put(table, arrayTable);
+		return map;
+	}
+
+	@Override
+	public void putLongArray(String table, long key, long[] value)
+	{
+		queue(table, key, value);
+	}
+
+	@Override
+	public LongSet loadLongSet(String table)
+	{
+		boolean importing = createTable(table, "id BIGINT PRIMARY KEY");
+		Table setTable = register(table, "MERGE INTO " + table + " (id) KEY (id) VALUES (?)", "id", (statement, value) -> {});
+		LongSet set;
+		if (importing) //從檔案匯入
+		{
+			set = FileStateStore.readLongSet(table);
+			set.forEach(element -> setTable.pending.put(element, Boolean.TRUE));
+			importRows(table, setTable, set.size());
+		}
+		else
+		{
+			LongSet rows = new LongSet();
+			query("SELECT id FROM " + table, result -> rows.add(result.getLong(1)));
+			set = rows;
+		}
+		tables.put(table, setTable);
+		return set;
+	}
+
+	@Override
+	public void putLongSetElement(String table, long element, boolean contains)
+	{
+		queue(table, element, contains ? Boolean.TRUE : null);
+	}
+
+	@Override
+	public void loadLotteryData(LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap)
+	{
+		boolean importing = createTable(LOTTERY_DATA, """
+				user_id BIGINT PRIMARY KEY, name VARCHAR, blocks BIGINT NOT NULL, won INT NOT NULL, lost INT NOT NULL,
+				show_hand_won INT NOT NULL, show_hand_lost INT NOT NULL, last_claim_second BIGINT NOT NULL, streak INT NOT NULL""");
+		dropIndex("lottery_data_blocks"); //舊版建立的排名索引 沒有查詢會用到 只會拖慢每一次寫入
+		Table lotteryTable = register(LOTTERY_DATA, """
+				MERGE INTO lottery_data (user_id, name, blocks, won, lost, show_hand_won, show_hand_lost, last_claim_second, streak)
+				KEY (user_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)""", "user_id", (statement, value) ->
+		{
+			CommandBlocksHandle.LotteryData lotteryData = (CommandBlocksHandle.LotteryData) value;
+			state.clear();
+			lotteryData.writeState(state); //在這個時候讀取 才是最新的狀態
+			state.flip().position(Long.BYTES); //略過userID
+			statement.setString(2, lotteryData.getName());
+			statement.setLong(3, state.getLong()); //blocks
+			statement.setInt(4, state.getInt()); //won
+			statement.setInt(5, state.getInt()); //lost
+			statement.setInt(6, state.getInt()); //showHandWon
+			statement.setInt(7, state.getInt()); //showHandLost
+			statement.setLong(8, state.getLong()); //lastClaimSecond
+			statement.setInt(9, state.getInt()); //streak
+		});
+		if (importing) //從lottery_data.bin和日誌匯入
+		{
+			FileStateStore.readLotteryData(lotteryDataMap);
+			CommandBlocksJournal.close(); //之後不再使用日誌 但要留著 匯入中斷的話下次還要再讀一次
+			lotteryDataMap.forEach(lotteryTable.pending::put);
+			importRows(LOTTERY_DATA, lotteryTable, lotteryDataMap.size());
+			tables.put(LOTTERY_DATA, lotteryTable);
+			return;
+		}
+
+		ByteBuffer row = ByteBuffer.allocate(CommandBlocksHandle.LotteryData.STATE_SIZE);
+		query("SELECT user_id, name, blocks, won, lost, show_hand_won, show_hand_lost, last_claim_second, streak FROM lottery_data", result ->
+		{
+			long userID = result.getLong(1);
+			row.clear();
+			row.putLong(userID)
+					.putLong(result.getLong(3))
+					.putInt(result.getInt(4))
+					.putInt(result.getInt(5))
+					.putInt(result.getInt(6))
+					.putInt(result.getInt(7))
+					.putLong(result.getLong(8))
+					.putInt(result.getInt(9))
+					.flip()
+					.position(Long.BYTES); //readState從userID之後開始
+			CommandBlocksHandle.LotteryData lotteryData = new CommandBlocksHandle.LotteryData(userID);
+			lotteryData.readState(row);
+			lotteryData.restoreName(result.getString(2));
+			lotteryDataMap.put(userID, lotteryData);
+		});
+		tables.put(LOTTERY_DATA, lotteryTable);
+	}
+
+	@Override
+	public void putLotteryData(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		queue(LOTTERY_DATA, lotteryData.getUserID(), lotteryData);
+	}
+
+	private void queue(String table, long key, Object value)
+	{
+		Table target = tables.get(table);
+		if (target != null) //沒有載入過的表格 和FileHandle.markDirty一樣忽略
+			target.pending.put(key, value != null ? value : REMOVED);
+	}
+
+	/**
+	 * Create {@code imported_tables} if it does not exist yet. A database that was created before it existed only has
+	 * tables whose import had finished, so all of them are marked as imported.
+	 */
+	private void createImportedTables()
+	{
+		synchronized (flushLock)
+		{
+			try
+			{
+				if (tableExists(IMPORTED_TABLES))
+					return;
+				execute("CREATE TABLE " + IMPORTED_TABLES + " (name VARCHAR PRIMARY KEY)");
+				try (ResultSet result = connection.getMetaData().getTables(null, connection.getSchema(), "%", new String[] { "TABLE" });
+					 PreparedStatement mark = connection.prepareStatement("INSERT INTO " + IMPORTED_TABLES + " (name) VALUES (?)"))
+				{
+					while (result.next())
+					{
+						String table = result.getString("TABLE_NAME").toLowerCase();
+						if (table.equals(IMPORTED_TABLES))
+							continue;
+						mark.setString(1, table);
+						mark.executeUpdate();
+					}
+				}
+				connection.commit();
+			}
+			catch (SQLException exception)
+			{
+				throw new IllegalStateException("Can not create the table " + IMPORTED_TABLES, exception);
+			}
+		}
+	}
+
+	private boolean tableExists(String table) throws SQLException
+	{
+		try (ResultSet result = connection.getMetaData().getTables(null, connection.getSchema(), table.toUpperCase(), null)) //H2會把名字轉成大寫
+		{
+			return result.next();
+		}
+	}
+
+	/**
+	 * Create a table if it does not exist yet.
+	 *
+	 * @return true if the content of the table has not been imported from the files yet, which is also the case if the
+	 *         import was interrupted last time.
+	 */
+	private boolean createTable(String table, String columns)
+	{
+		synchronized (flushLock)
+		{
+			try
+			{
+				if (!tableExists(table))
+					execute("CREATE TABLE " + table + " (" + columns + ')');
+				try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM " + IMPORTED_TABLES + " WHERE name = ?"))
+				{
+					statement.setString(1, table);
+					try (ResultSet result = statement.executeQuery())
+					{
+						boolean imported = result.next();
+						connection.commit(); //結束這個交易
+						return !imported;
+					}
+				}
+			}
+			catch (SQLException exception)
+			{
+				throw new IllegalStateException("Can not create the table " + table, exception);
+			}
+		}
+	}
+
+	void dropIndex(String index)
+	{
+		synchronized (flushLock)
+		{
+			try
+			{
+				execute("DROP INDEX IF EXISTS " + index);
+			}
+			catch (SQLException exception) //留著也只是比較慢
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+		}
+	}
+
+	/**
+	 * Prepare the statements of a table. The table is not written by {@link #flush} until it is put into
+	 * {@link #tables} after it was loaded.
+	 */
+	private Table register(String table, String upsert, String keyColumn, RowBinder binder)
+	{
+		synchronized (flushLock)
+		{
+			try
+			{
+				return new Table(connection.prepareStatement(upsert),
+								 connection.prepareStatement("DELETE FROM " + table + " WHERE " + keyColumn + " = ?"),
+								 binder);
+			}
+			catch (SQLException exception)
+			{
+				throw new IllegalStateException("Can not prepare statements of the table " + table, exception);
+			}
+		}
+	}
+
+	private void execute(String sql) throws SQLException
+	{
+		try (Statement statement = connection.createStatement())
+		{
+			statement.execute(sql);
+		}
+		connection.commit();
+	}
+
+	private void query(String sql, RowReader reader)
+	{
+		synchronized (flushLock)
+		{
+			try (Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery(sql))
+			{
+				while (result.next())
+					reader.read(result);
+				connection.commit(); //結束這個交易
+			}
+			catch (SQLException exception)
+			{
+				throw new IllegalStateException("Can not query " + sql, exception);
+			}
+		}
+	}
+
+	/**
+	 * Write the rows that were queued from the files, and mark the table as imported, in one transaction. Rows that
+	 * were left by an interrupted import are deleted first, since the files are imported again as a whole.
+	 */
+	private void importRows(String table, Table target, int count)
+	{
+		synchronized (flushLock)
+		{
+			try (Statement statement = connection.createStatement();
+				 PreparedStatement mark = connection.prepareStatement("INSERT INTO " + IMPORTED_TABLES + " (name) VALUES (?)"))
+			{
+				statement.executeUpdate("DELETE FROM " + table);
+				target.flush();
+				mark.setString(1, table);
+				mark.executeUpdate();
+				connection.commit();
+			}
+			catch (SQLException exception)
+			{
+				rollback();
+				throw new IllegalStateException("Can not import the table " + table, exception);
+			}
+		}
+		FileHandle.log("Imported " + count + " rows into the table " + table + " from the files.");
+	}
+
+	/**
+	 * Write every queued row of every table, one batch per table, and commit them together. If something went wrong,
+	 * nothing is written, and the rows are queued again unless they were changed meanwhile.
+	 */
+	void flush()
+	{
+		synchronized (flushLock)
+		{
+			try
+			{
+				for (Table table : tables.values())
+					table.flush();
+				CommandBlocksLedger.flush(); //這些狀態的帳本紀錄都在讀取之前加入 先寫入帳本 資料庫就不會比帳本新
+				connection.commit();
+			}
+			catch (SQLException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+				rollback();
+				for (Table table : tables.values()) //整個交易都被撤銷了
+					table.requeue();
+			}
+		}
+	}
+
+	private void rollback()
+	{
+		try
+		{
+			connection.rollback();
+		}
+		catch (SQLException exception)
+		{
+			exception.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		writer.shutdown();
+		flush();
+		synchronized (flushLock)
+		{
+			try
+			{
+				for (Table table : tables.values())
+					table.close();
+				connection.close();
+			}
+			catch (SQLException exception)
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+		}
+	}
+
+	/**
+	 * The prepared statements and the queued rows of a table.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	private static class Table
+	{
+		private final PreparedStatement upsert;
+		private final PreparedStatement delete;
+		private final RowBinder binder;
+		private final Map<Long, Object> pending = new ConcurrentHashMap<>(); //key為ID value為新的值或REMOVED
+		private final LongMap<Object> writing = new LongMap<>(); //這一批正在寫入的資料 只在flushLock內使用
+
+		private Table(PreparedStatement upsert, PreparedStatement delete, RowBinder binder)
+		{
+			this.upsert = upsert;
+			this.delete = delete;
+			this.binder = binder;
+		}
+
+		private void flush() throws SQLException
+		{
+			writing.clear(); //上一批已經寫完了 沒有東西要寫的話 requeue也不能把它放回去
+			if (pending.isEmpty())
+				return;
+			int upserts = 0, deletes = 0;
+			for (Map.Entry<Long, Object> entry : pending.entrySet())
+			{
+				long key = entry.getKey();
+				Object value = entry.getValue();
+				pending.remove(key, value); //寫入途中又有變動的話 會留到下一批
+				writing.put(key, value);
+				if (value == REMOVED)
+				{
+					delete.setLong(1, key);
+					delete.addBatch();
+					deletes++;
+				}
+				else
+				{
+					upsert.setLong(1, key);
+					binder.bind(upsert, value);
+					upsert.addBatch();
+					upserts++;
+				}
+			}
+			if (upserts != 0)
+				upsert.executeBatch();
+			if (deletes != 0)
+				delete.executeBatch();
+		}
+
+		private void requeue()
+		{
+			try
+			{
+				upsert.clearBatch();
+				delete.clearBatch();
+			}
+			catch (SQLException exception)
+			{
+				exception.printStackTrace();
+			}
+			writing.forEach(pending::putIfAbsent); //比較新的變動優先
+			writing.clear();
+		}
+
+		private void close() throws SQLException
+		{
+			upsert.close();
+			delete.close();
+		}
+	}
+
+	/**
+	 * {@code RowBinder} sets the parameters of an upsert after the key, which is always the first parameter.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@FunctionalInterface
+	private interface RowBinder
+	{
+		void bind(PreparedStatement statement, Object value) throws SQLException;
+	}
+
+	/**
+	 * {@code RowReader} receives a row of a query.
+	 *
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	@FunctionalInterface
+	private interface RowReader
+	{
+		void read(ResultSet result) throws SQLException;
+	}
+}
@@ -3,18 +3,30 @@ package cartoland.utilities;
 import cartoland.Cartoland;
 import net.dv8tion.jda.api.entities.Guild;
 
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.util.*;
+import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
- * {@code TimerHandle} is a utility class that handles schedule. Including checking if functions should execute in every
- * hour or handle {@code /admin temp_ban} with scheduled service. Can not be instantiated or inherited.
+ * {@code TimerHandle} is a utility class that handles schedule. Including running functions at the times of their
+ * {@link CronExpression} or handle {@code /admin temp_ban} with scheduled service. Every timer event and every temporary
+ * ban is a task of its own in the delay queue of the scheduled service, so the service sleeps until the earliest one is
+ * due instead of waking up every hour. The next time of a timer event is always calculated from the wall clock in the
+ * zone of {@code cartoland.timezone}, so it does not drift after a daylight saving change or a late run. Can not be
+ * instantiated or inherited.
+ * <p>
+ * The time of the last run of every timer event is persisted under its name. When the bot starts, the times that were
+ * missed while it was offline are handled by the catch-up policy of the event: {@link #CATCH_UP_SKIP},
+ * {@link #CATCH_UP_ONCE} or {@link #CATCH_UP_ALL}. The catch-up runs of all events share one queue and are
+ * {@code cartoland.timer.catch_up_spacing} milliseconds apart, so a restart after a long outage does not send a burst of
+ * requests to Discord. A catch-up run that would come within that spacing of the next regular run is dropped, since the
+ * regular run is about to do the same thing.
  *
  * @since 2.1
  * @author Alex Cai
@@ -26,110 +38,355 @@ public final class TimerHandle
 		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
 	}
 
-	private static final List<TimerEvent> timerEvents = new ArrayList<>();
-	private static final String TEMP_BAN_LIST = "serialize/temp_ban_list.ser";
-	@SuppressWarnings("unchecked")
-	//userID為key ban time為value[0] ban guild為value[1]
-	public static final Map<Long, long[]> tempBanList = (FileHandle.deserialize(TEMP_BAN_LIST) instanceof HashMap map) ? map : new HashMap<>();
+	public static final byte CATCH_UP_SKIP = 0; //錯過的就算了
+	public static final byte CATCH_UP_ONCE = 1; //不管錯過幾次 都只補執行一次
+	public static final byte CATCH_UP_ALL = 2; //錯過幾次就補執行幾次 最多MAX_CATCH_UP次
 	public static final byte BANNED_TIME = 0;
 	public static final byte BANNED_SERVER = 1;
+	private static final String TEMP_BAN_LIST = "temp_ban_list";
+	private static final IStateStore stateStore = IStateStore.INSTANCE;
+	private static final long OLD_HOURS_LIMIT = 1L << 32; //以前的解除時間是從1970年開始的小時數 不可能這麼大 毫秒則一定比這個大
+	//userID為key 解除的時間(從1970年開始的毫秒數)為value[0] ban guild為value[1] 和pardons一起由tempBanList保護
+	private static final LongMap<long[]> tempBanList = stateStore.loadLongArrays(TEMP_BAN_LIST, 2);
+	private static final LongMap<ScheduledFuture<?>> pardons = new LongMap<>(); //userID為key 解ban的排程為value
 
 	//https://stackoverflow.com/questions/65984126
 	private static final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
-	private static byte nowHour = (byte) LocalTime.now().getHour(); //現在是幾點
-	private static long hoursFrom1970 = System.currentTimeMillis() / (1000 * 60 * 60); //從1970年1月1日開始過了幾個小時
-	private static final ScheduledFuture<?> everyHour = executorService.scheduleAtFixedRate(() ->
+	private static final ZoneId ZONE = ZoneId.of(System.getProperty("cartoland.timezone", ZoneId.systemDefault().getId()));
+	private static final String TIMER_EVENTS = "timer_events";
+	//事件名稱的雜湊為key 最後一次執行的預定時間(從1970年開始的毫秒數)為value[0]
+	private static final LongMap<long[]> lastRuns = stateStore.loadLongArrays(TIMER_EVENTS, 1);
+	private static final long CATCH_UP_SPACING = Long.getLong("cartoland.timer.catch_up_spacing", 30000L); //毫秒
+	static final int MAX_CATCH_UP = 24;
+	private static long nextCatchUp = 0L; //下一個補執行可以排在什麼時候 只在lastRuns的鎖內使用
+
+	static
 	{
-		hoursFrom1970++;
-		nowHour++;
-		if (nowHour == 24)
-			nowHour = 0;
-
-		for (TimerEvent event : timerEvents) //走訪被註冊的事件們
-			if (event.shouldExecute(nowHour)) //時間到了
-				event.execute(); //執行
-
-		//根據現在的時間 決定是否解ban
-		Set<Long> tempBanListKeySet = tempBanList.keySet();
-		if (tempBanListKeySet.size() == 0) //沒有人被temp_ban
-			return; //不用執行
-		//這以下是有關解ban的程式碼
-		Set<Long> bannedIDs = new HashSet<>(tempBanListKeySet); //建立新物件 以免修改到原map
-		for (long bannedID : bannedIDs)
+		synchronized (tempBanList)
 		{
-			long[] bannedData = tempBanList.get(bannedID);
-			if (hoursFrom1970 < bannedData[BANNED_TIME]) //還沒到這個人要被解ban的時間
-				continue; //下面一位
-			Cartoland.getJDA().retrieveUserById(bannedID).queue(user -> //找到這名使用者後解ban他
+			for (long bannedID : tempBanList.keys())
 			{
-				Guild bannedServer = Cartoland.getJDA().getGuildById(bannedData[BANNED_SERVER]); //找到當初ban他的群組
-				if (bannedServer != null) //群組還在
-					bannedServer.unban(user).queue(); //解ban
-			});
-			tempBanList.remove(bannedID); //不再紀錄這名使用者
+				long[] bannedData = tempBanList.get(bannedID);
+				long pardonTime = toPardonMillis(bannedData[BANNED_TIME]);
+				if (pardonTime != bannedData[BANNED_TIME]) //舊版的小時數 轉換成毫秒
+				{
+					bannedData[BANNED_TIME] = pardonTime;
+					stateStore.putLongArray(TEMP_BAN_LIST, bannedID, bannedData);
+				}
+				schedulePardon(bannedID, bannedData[BANNED_TIME]); //離線期間到期的 會馬上解除
+			}
 		}
-	}, secondsUntil((nowHour + 1) % 24), 60 * 60, TimeUnit.SECONDS); //從下個小時開始
+	}
 
-	static
+	/**
+	 * Read a stored pardon time. Older versions stored the hours since 1970, which are converted to milliseconds.
+	 *
+	 * @param storedTime The pardon time in the temporary ban list.
+	 * @return The pardon time in milliseconds since 1970, or {@link Long#MAX_VALUE} if it is too far away.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static long toPardonMillis(long storedTime)
+	{
+		if (storedTime >= OLD_HOURS_LIMIT) //已經是毫秒了
+			return storedTime;
+		return storedTime > Long.MAX_VALUE / 3600000L ? Long.MAX_VALUE : storedTime * 3600000L;
+	}
+
+	/**
+	 * Record a temporary ban, so it will be lifted when the time comes. If the user was already temporarily banned,
+	 * the new ban replaces the old one.
+	 *
+	 * @param userID The ID of the banned user.
+	 * @param banData The pardon time in milliseconds since 1970 and the server, indexed by {@link #BANNED_TIME} and
+	 *                {@link #BANNED_SERVER}.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void addTempBan(long userID, long[] banData)
+	{
+		synchronized (tempBanList)
+		{
+			tempBanList.put(userID, banData);
+			stateStore.putLongArray(TEMP_BAN_LIST, userID, banData);
+			schedulePardon(userID, banData[BANNED_TIME]); //取代舊的解ban時間
+		}
+	}
+
+	/**
+	 * Schedule the pardon of a user, and cancel the one that was scheduled before. Must be called with the lock of
+	 * {@link #tempBanList}.
+	 */
+	private static void schedulePardon(long userID, long pardonTime)
+	{
+		ScheduledFuture<?> oldPardon = pardons.remove(userID);
+		if (oldPardon != null) //正在執行的話 取消也不會中斷它
+			oldPardon.cancel(false);
+		if (pardonTime == Long.MAX_VALUE) //溢位了 等於永久
+			return;
+		long delay = Math.max(pardonTime - System.currentTimeMillis(), 0L);
+		pardons.put(userID, executorService.schedule(() -> pardon(userID), delay, TimeUnit.MILLISECONDS));
+	}
+
+	private static void pardon(long userID)
+	{
+		long bannedServerID = takeExpiredBan(userID, System.currentTimeMillis());
+		if (bannedServerID == 0L) //還沒到期 或已經不在名單上了
+			return;
+
+		Cartoland.getJDA().retrieveUserById(userID).queue(user -> //找到這名使用者後解ban他
+		{
+			Guild bannedServer = Cartoland.getJDA().getGuildById(bannedServerID); //找到當初ban他的群組
+			if (bannedServer != null) //群組還在
+				bannedServer.unban(user).queue(); //解ban
+		});
+	}
+
+	/**
+	 * Remove the temporary ban of a user from the list if it has expired. A ban that has not expired yet is scheduled
+	 * again, since the executor measures time with {@link System#nanoTime} and may run the pardon early if the system
+	 * time was changed.
+	 *
+	 * @param userID The ID of the banned user.
+	 * @param now The current time in milliseconds since 1970.
+	 * @return The ID of the server to unban the user from, or 0 if there is nothing to lift now.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static long takeExpiredBan(long userID, long now)
+	{
+		synchronized (tempBanList)
+		{
+			long[] bannedData = tempBanList.get(userID);
+			if (bannedData == null) //已經不在名單上了
+				return 0L;
+			if (bannedData[BANNED_TIME] > now) //排程是依照nanoTime 系統時間被調整過的話可能會提早
+			{
+				schedulePardon(userID, bannedData[BANNED_TIME]);
+				return 0L;
+			}
+			tempBanList.remove(userID); //不再紀錄這名使用者
+			ScheduledFuture<?> pardon = pardons.remove(userID);
+			if (pardon != null) //從排程以外的地方解除的話 排程就不用執行了
+				pardon.cancel(false);
+			stateStore.putLongArray(TEMP_BAN_LIST, userID, null);
+			return bannedData[BANNED_SERVER];
+		}
+	}
+
+	/**
+	 * Check if a user has a temporary ban that is scheduled to be lifted.
+	 *
+	 * @param userID The ID of the user.
+	 * @return true if the ban is in the list and its pardon is scheduled.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static boolean isPardonScheduled(long userID)
 	{
-		FileHandle.registerSerialize(TEMP_BAN_LIST, tempBanList);
+		synchronized (tempBanList)
+		{
+			ScheduledFuture<?> pardon = pardons.get(userID);
+			return tempBanList.containsKey(userID) && pardon != null && !pardon.isDone();
+		}
 	}
 
-	public static long getHoursFrom1970()
+	/**
+	 * Run a function at every time that matches a cron expression, such as {@code "0 12 * * *"} for every noon or
+	 * {@code "*}{@code /15 * * * *"} for every 15 minutes. See {@link CronExpression} for the syntax. The times that
+	 * were missed since the last run, in this or an earlier process, are caught up according to {@code catchUp}. An
+	 * event that was never run before has nothing to catch up.
+	 *
+	 * @param name The name that the last run is persisted under. It must be unique and should never change.
+	 * @param cron The cron expression.
+	 * @param catchUp {@link #CATCH_UP_SKIP}, {@link #CATCH_UP_ONCE} or {@link #CATCH_UP_ALL}.
+	 * @param function The function to run on the timer thread. It should not block for long.
+	 * @throws IllegalArgumentException If the cron expression is not valid.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	public static void registerTimerEvent(String name, String cron, byte catchUp, Runnable function)
 	{
-		return hoursFrom1970;
+		TimerEvent event = new TimerEvent(nameKey(name), new CronExpression(cron), function);
+		LocalDateTime now = LocalDateTime.now(ZONE);
+		long nowMillis = System.currentTimeMillis();
+
+		synchronized (lastRuns)
+		{
+			long[] lastRun = lastRuns.get(event.key);
+			if (lastRun == null) //第一次註冊 從現在開始算
+			{
+				lastRuns.put(event.key, new long[] { nowMillis });
+				stateStore.putLongArray(TIMER_EVENTS, event.key, lastRuns.get(event.key));
+			}
+			else if (catchUp != CATCH_UP_SKIP)
+			{
+				long[] missed = missedTimes(event.cron, lastRun[0], now, ZONE);
+				if (missed.length != 0)
+				{
+					LocalDateTime nextTime = event.cron.next(now);
+					long nextMillis = nextTime != null ? CronExpression.toEpochMilli(nextTime, ZONE) : Long.MAX_VALUE;
+					long[] runs = planCatchUp(missed, catchUp, Math.max(nextCatchUp, nowMillis) + CATCH_UP_SPACING, CATCH_UP_SPACING, nextMillis);
+					FileHandle.log("Timer event " + name + " missed " + (missed.length == MAX_CATCH_UP ? "at least " : "") +
+								   missed.length + " times, catching up " + runs.length / 2 + " of them.");
+					for (int i = 0; i < runs.length; i += 2)
+					{
+						long missedMillis = runs[i];
+						executorService.schedule(() -> event.execute(missedMillis), runs[i + 1] - nowMillis, TimeUnit.MILLISECONDS);
+						nextCatchUp = runs[i + 1];
+					}
+				}
+			}
+		}
+
+		event.scheduleAfter(now);
 	}
 
-	private static long secondsUntil(int hour)
+	/**
+	 * Find the times that an event missed since its last run, up to now.
+	 *
+	 * @param cron The cron expression of the event.
+	 * @param lastRunMillis The scheduled time of the last run, in milliseconds since 1970.
+	 * @param now The current local time.
+	 * @param zone The zone of the local times.
+	 * @return The last {@link #MAX_CATCH_UP} missed times at most, in milliseconds since 1970, from the oldest to the
+	 *         newest.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static long[] missedTimes(CronExpression cron, long lastRunMillis, LocalDateTime now, ZoneId zone)
 	{
-		if (hour < 0 || hour > 23)
-			throw new IllegalArgumentException("Hour must between 0 and 23!");
-		LocalDateTime now = LocalDateTime.now();
-		LocalDateTime untilTime = now.withHour(hour).withMinute(0).withSecond(0);
+		long[] missed = new long[MAX_CATCH_UP];
+		int count = 0;
+		for (LocalDateTime time = cron.next(LocalDateTime.ofInstant(Instant.ofEpochMilli(lastRunMillis), zone));
+			 time != null && !time.isAfter(now); time = cron.next(time))
+			missed[count++ % MAX_CATCH_UP] = CronExpression.toEpochMilli(time, zone); //只留最後MAX_CATCH_UP次
 
-		if (now.compareTo(untilTime) > 0)
-			untilTime = untilTime.plusDays(1L);
+		int kept = Math.min(count, MAX_CATCH_UP);
+		long[] oldestFirst = new long[kept];
+		for (int i = 0; i < kept; i++)
+			oldestFirst[i] = missed[(count - kept + i) % MAX_CATCH_UP];
+		return oldestFirst;
+	}
 
-		return Duration.between(now, untilTime).getSeconds();
+	/**
+	 * Decide which missed times are caught up and when. The runs are {@code spacing} apart from {@code firstRun}, and
+	 * stop before one would come within {@code spacing} of the next regular run.
+	 *
+	 * @param missed The missed times from {@link #missedTimes}.
+	 * @param catchUp {@link #CATCH_UP_ONCE} to only catch up the newest one, or {@link #CATCH_UP_ALL}.
+	 * @param firstRun When the first catch-up run may start, in milliseconds since 1970.
+	 * @param spacing The milliseconds between two runs.
+	 * @param nextRegular When the next regular run is, in milliseconds since 1970.
+	 * @return The missed time and the time to run it at, of every catch-up run, one after another.
+	 * @since 2.2
+	 * @author Alex Cai
+	 */
+	static long[] planCatchUp(long[] missed, byte catchUp, long firstRun, long spacing, long nextRegular)
+	{
+		int from = catchUp == CATCH_UP_ONCE ? Math.max(missed.length - 1, 0) : 0; //只補最後一次
+		long[] runs = new long[(missed.length - from) * 2];
+		int count = 0;
+		for (int i = from; i < missed.length; i++) //由舊到新
+		{
+			long runAt = firstRun + (i - from) * spacing; //和前一個補執行間隔一段時間
+			if (nextRegular - runAt < spacing) //正常執行馬上就到了 之後的都不用補
+				break;
+			runs[count++] = missed[i];
+			runs[count++] = runAt;
+		}
+		return Arrays.copyOf(runs, count);
 	}
 
-	public static void registerTimerEvent(byte hour, Runnable function)
+	/**
+	 * The 64-bit FNV-1a hash of the name, as the key of {@link #lastRuns}.
+	 */
+	private static long nameKey(String name)
 	{
-		if (hour < 0 || hour > 23)
-			throw new IllegalArgumentException("Hour must between 0 and 23!");
-		timerEvents.add(new TimerEvent(hour, function));
+		long hash = 0xCBF29CE484222325L;
+		for (byte b : name.getBytes(StandardCharsets.UTF_8))
+		{
+			hash ^= b & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		return hash;
 	}
 
 	public static void stopTimer()
 	{
 		//https://stackoverflow.com/questions/34202701
-		everyHour.cancel(true);
-		executorService.shutdown();
+		executorService.shutdownNow(); //事件和還沒到期的解ban都一併取消 下次啟動時會重新排程
 	}
 
 	/**
 	 * @since 2.1
 	 * @author Alex Cai
 	 */
-	private static class TimerEvent
+	private static class TimerEvent implements Runnable
 	{
-		private final byte hour;
+		private final long key;
+		private final CronExpression cron;
 		private final Runnable function;
+		private LocalDateTime nextTime; //只在計時器執行緒上改變
+		private long nextMillis;
 
-		private TimerEvent(byte hour, Runnable function)
+		private TimerEvent(long key, CronExpression cron, Runnable function)
 		{
-			this.hour = hour;
+			this.key = key;
+			this.cron = cron;
 			this.function = function;
 		}
 
-		private boolean shouldExecute(byte hour)
+		/**
+		 * Schedule this event at the first time that matches after {@code after}. The times are compared as local
+		 * times, so when the clock is turned back an hour, the same local time is not run twice.
+		 */
+		private void scheduleAfter(LocalDateTime after)
 		{
-			return this.hour == hour;
+			nextTime = cron.next(after);
+			if (nextTime == null) //永遠不會執行
+				return;
+			nextMillis = CronExpression.toEpochMilli(nextTime, ZONE); //不存在的時間(日光節約) 會往後移
+			executorService.schedule(this, Math.max(nextMillis - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS);
 		}
 
-		private void execute()
+		@Override
+		public void run()
 		{
-			function.run();
+			if (System.currentTimeMillis() < nextMillis) //排程是依照nanoTime 系統時間被調整過的話可能會提早
+			{
+				executorService.schedule(this, nextMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				return;
+			}
+
+			execute(nextMillis);
+			LocalDateTime now = LocalDateTime.now(ZONE);
+			scheduleAfter(now.isAfter(nextTime) ? now : nextTime); //執行太久或是系統時間被調整的話 跳過已經錯過的時間
+		}
+
+		/**
+		 * Run the function for the time it was scheduled at, and persist that time as the last run.
+		 */
+		private void execute(long scheduledMillis)
+		{
+			try
+			{
+				function.run();
+			}
+			catch (Exception exception) //不能讓一個事件的例外影響下一次
+			{
+				exception.printStackTrace();
+				FileHandle.log(exception);
+			}
+
+			synchronized (lastRuns)
+			{
+				long[] lastRun = lastRuns.get(key);
+				if (lastRun[0] >= scheduledMillis) //補執行比正常執行還晚跑完
+					return;
+				lastRun[0] = scheduledMillis;
+				stateStore.putLongArray(TIMER_EVENTS, key, lastRun);
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package cartoland.utilities;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the random numbers of {@link Algorithm} with one {@link Random} shared by every thread, which is what
+ * {@code Algorithm} used before, while {@link #THREADS} threads draw at the same time like the event threads of JDA.
+ * Run {@link #main} from the IDE, or {@code java -cp <test classpath> org.openjdk.jmh.Main AlgorithmBenchmark}.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(AlgorithmBenchmark.THREADS)
+@State(Scope.Benchmark)
+public class AlgorithmBenchmark
+{
+	static final int THREADS = 8;
+
+	private final Random sharedRandom = new Random(); //所有執行緒搶同一個種子
+
+	@Benchmark
+	public boolean sharedRandomBet()
+	{
+		return sharedRandom.nextBoolean();
+	}
+
+	@Benchmark
+	public boolean generatorBet()
+	{
+		return Algorithm.generator().nextBoolean();
+	}
+
+	@Benchmark
+	public boolean sharedRandomChance()
+	{
+		return 20 > sharedRandom.nextInt(100);
+	}
+
+	@Benchmark
+	public boolean chance()
+	{
+		return Algorithm.chance(20);
+	}
+
+	@Benchmark
+	public int[] sharedRandomShuffle()
+	{
+		int[] array = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 }; //和1A2B一樣
+		Algorithm.shuffle(array, sharedRandom);
+		return array;
+	}
+
+	@Benchmark
+	public int[] shuffle()
+	{
+		int[] array = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		Algorithm.shuffle(array);
+		return array;
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(AlgorithmBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,129 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Statistical tests of the random numbers of {@link Algorithm}. Since the generators are not seeded, every
+ * chi-squared test only fails if its p-value is below about 1e-6, so a fair generator fails once in a million runs.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class AlgorithmTest
+{
+	private static final double CHI_SQUARED_1 = 22.6; //自由度1 p = 1e-6
+	private static final double CHI_SQUARED_23 = 71.2; //自由度23 p = 1e-6
+
+	private static double chiSquared(long[] observed, double expected)
+	{
+		double sum = 0.0;
+		for (long count : observed)
+			sum += (count - expected) * (count - expected) / expected;
+		return sum;
+	}
+
+	@Test
+	void betIsFairOnEveryThread() throws InterruptedException, ExecutionException
+	{
+		final int threads = 8;
+		final int bets = 200000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<Future<long[]>> futures = new ArrayList<>(threads);
+			for (int t = 0; t < threads; t++)
+				futures.add(executor.submit(() ->
+				{
+					long[] wonAndLost = new long[2];
+					for (int i = 0; i < bets; i++)
+						wonAndLost[Algorithm.generator().nextBoolean() ? 0 : 1]++; //和/lottery bet一樣
+					return wonAndLost;
+				}));
+
+			long[] total = new long[2];
+			for (Future<long[]> future : futures)
+			{
+				long[] wonAndLost = future.get(60L, TimeUnit.SECONDS);
+				assertTrue(chiSquared(wonAndLost, bets / 2.0) < CHI_SQUARED_1, () -> "Unfair thread: " + Arrays.toString(wonAndLost));
+				total[0] += wonAndLost[0];
+				total[1] += wonAndLost[1];
+			}
+			assertTrue(chiSquared(total, threads * bets / 2.0) < CHI_SQUARED_1, () -> "Unfair bets: " + Arrays.toString(total));
+		}
+		catch (TimeoutException exception)
+		{
+			fail("The threads did not finish in time", exception);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void chanceMatchesPercent()
+	{
+		final int draws = 1000000;
+		for (int percent : new int[] { 0, 1, 20, 50, 99, 100 })
+		{
+			long hits = 0L;
+			for (int i = 0; i < draws; i++)
+				if (Algorithm.chance(percent))
+					hits++;
+			double p = percent / 100.0;
+			long[] observed = { hits, draws - hits };
+			if (percent == 0 || percent == 100)
+				assertEquals(draws * p, hits, "chance(" + percent + ")");
+			else
+				assertTrue(chiSquared(new long[] { hits }, draws * p) + chiSquared(new long[] { draws - hits }, draws * (1.0 - p)) < CHI_SQUARED_1,
+						   () -> "chance(" + percent + ") hit " + Arrays.toString(observed));
+		}
+	}
+
+	@Test
+	void shuffleIsUniform()
+	{
+		final int shuffles = 240000;
+		long[] permutations = new long[24]; //4! 種排列
+		for (int i = 0; i < shuffles; i++)
+		{
+			int[] array = { 0, 1, 2, 3 };
+			Algorithm.shuffle(array);
+			int index = 0;
+			for (int j = 0; j < array.length; j++) //Lehmer code
+			{
+				int smallerAfter = 0;
+				for (int k = j + 1; k < array.length; k++)
+					if (array[k] < array[j])
+						smallerAfter++;
+				index = index * (array.length - j) + smallerAfter;
+			}
+			permutations[index]++;
+		}
+		assertTrue(chiSquared(permutations, shuffles / 24.0) < CHI_SQUARED_23, () -> "Biased shuffle: " + Arrays.toString(permutations));
+	}
+
+	@Test
+	void sameGeneratorStateGivesSameGame()
+	{
+		Integer[] first = { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		Integer[] second = first.clone();
+		Algorithm.shuffle(first, new SplittableRandom(20L));
+		Algorithm.shuffle(second, new SplittableRandom(20L));
+		assertArrayEquals(first, second);
+
+		int[] sorted = { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		int[] shuffled = sorted.clone();
+		Algorithm.shuffle(shuffled, Algorithm.newGenerator());
+		Arrays.sort(shuffled);
+		assertArrayEquals(sorted, shuffled); //洗牌不會改變內容
+	}
+}
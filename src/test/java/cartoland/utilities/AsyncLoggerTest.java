@@ -0,0 +1,181 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link AsyncLogger}, each with its own small ring buffer so that it is full most of the time.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class AsyncLoggerTest
+{
+	private static final int THREADS = 8;
+	private static final String PADDING = "x".repeat(64); //長一點的行 交錯的話比較容易看出來
+	private static final Pattern LINE = Pattern.compile("\\d\\d:\\d\\d:\\d\\d\\t(\\d+) (\\d+) " + PADDING);
+	private static final Pattern DROPPED = Pattern.compile("\\d\\d:\\d\\d:\\d\\d\\tDropped (\\d+) log lines because the log buffer was full\\.");
+
+	@TempDir
+	Path directory;
+
+	/**
+	 * Read every log file, which is more than one if the date changed during the test.
+	 */
+	private List<String> readLines() throws IOException
+	{
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+		{
+			for (Path file : stream)
+				files.add(file);
+		}
+		files.sort(null); //日期的順序
+		List<String> lines = new ArrayList<>();
+		for (Path file : files)
+			lines.addAll(Files.readAllLines(file));
+		return lines;
+	}
+
+	private AsyncLogger logger(int capacity, boolean dropOnOverflow)
+	{
+		return new AsyncLogger(capacity, dropOnOverflow, directory.toString() + '/');
+	}
+
+	private static void runProducers(AsyncLogger logger, int lines) throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<?>> futures = new ArrayList<>(THREADS);
+			for (int t = 0; t < THREADS; t++)
+			{
+				int producer = t;
+				futures.add(executor.submit(() ->
+				{
+					start.await();
+					for (int i = 0; i < lines; i++)
+						logger.append(producer + " " + i + " " + PADDING);
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures)
+				future.get(60L, TimeUnit.SECONDS);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void blockingProducersLoseNothing() throws Exception
+	{
+		final int lines = 5000;
+		AsyncLogger logger = logger(16, false);
+		logger.start();
+		runProducers(logger, lines);
+		logger.shutdown(); //buffer裡可能還有事件
+
+		int[] next = new int[THREADS]; //每個producer下一行的編號
+		for (String line : readLines())
+		{
+			Matcher matcher = LINE.matcher(line);
+			assertTrue(matcher.matches(), line); //沒有交錯 也沒有丟掉的訊息
+			int producer = Integer.parseInt(matcher.group(1));
+			assertEquals(next[producer]++, Integer.parseInt(matcher.group(2))); //同一個producer的順序不變 也沒有重複
+		}
+		for (int t = 0; t < THREADS; t++)
+			assertEquals(lines, next[t]);
+	}
+
+	@Test
+	void droppingProducersCountWhatTheyDrop() throws Exception
+	{
+		final int lines = 5000;
+		AsyncLogger logger = logger(16, true);
+		logger.start();
+		runProducers(logger, lines);
+		logger.shutdown();
+
+		int[] next = new int[THREADS];
+		long written = 0L, dropped = 0L;
+		for (String line : readLines())
+		{
+			Matcher matcher = LINE.matcher(line);
+			if (matcher.matches())
+			{
+				int producer = Integer.parseInt(matcher.group(1));
+				int index = Integer.parseInt(matcher.group(2));
+				assertTrue(index >= next[producer], line); //可以跳過 但不能重複或倒退
+				next[producer] = index + 1;
+				written++;
+				continue;
+			}
+			matcher = DROPPED.matcher(line);
+			assertTrue(matcher.matches(), line);
+			dropped += Long.parseLong(matcher.group(1));
+		}
+		assertEquals((long) THREADS * lines, written + dropped); //每一行不是寫入就是被算進丟掉的數量
+	}
+
+	@Test
+	void fullBufferDropsTheRest() throws IOException
+	{
+		AsyncLogger logger = logger(4, true);
+		for (int i = 0; i < 10; i++) //writer還沒開始 只放得下4行
+			logger.append("0 " + i + " " + PADDING);
+		logger.start();
+		logger.shutdown();
+
+		List<String> lines = readLines();
+		assertEquals(5, lines.size());
+		for (int i = 0; i < 4; i++)
+		{
+			Matcher matcher = LINE.matcher(lines.get(i));
+			assertTrue(matcher.matches(), lines.get(i));
+			assertEquals(String.valueOf(i), matcher.group(2));
+		}
+		Matcher matcher = DROPPED.matcher(lines.get(4));
+		assertTrue(matcher.matches(), lines.get(4));
+		assertEquals("6", matcher.group(1));
+	}
+
+	@Test
+	void shutdownDrainsAndIgnoresLaterLines() throws IOException
+	{
+		AsyncLogger logger = logger(64, false);
+		for (int i = 0; i < 64; i++) //塞滿之後才開始寫 關閉時一定還沒寫完
+			logger.append("0 " + i + " " + PADDING);
+		logger.start();
+		logger.shutdown();
+		logger.append("0 64 " + PADDING); //關閉之後的會被忽略
+
+		List<String> lines = readLines();
+		assertEquals(64, lines.size());
+		for (int i = 0; i < 64; i++)
+		{
+			Matcher matcher = LINE.matcher(lines.get(i));
+			assertTrue(matcher.matches(), lines.get(i));
+			assertEquals(String.valueOf(i), matcher.group(2));
+		}
+	}
+}
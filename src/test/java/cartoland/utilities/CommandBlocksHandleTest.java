@@ -0,0 +1,260 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress tests of {@link CommandBlocksHandle}, which change the same users from many threads at once, the way JDA
+ * dispatches events. The data is persisted into {@code target/test-run} and shared by every test of a run, so every
+ * test uses its own users and sets the command blocks it starts from.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class CommandBlocksHandleTest
+{
+	private static final int THREADS = 16;
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //日誌、帳本和log都會寫入檔案
+	}
+
+	/**
+	 * Start every task at the same time and wait for all of them.
+	 */
+	private static void runConcurrently(List<Callable<Void>> tasks) throws InterruptedException, ExecutionException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		try
+		{
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Void>> futures = new ArrayList<>(tasks.size());
+			for (Callable<Void> task : tasks)
+				futures.add(executor.submit(() ->
+				{
+					start.await();
+					return task.call();
+				}));
+			start.countDown();
+			for (Future<Void> future : futures)
+				future.get(60L, TimeUnit.SECONDS);
+		}
+		catch (TimeoutException exception)
+		{
+			fail("The threads did not finish in time", exception);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void concurrentChangesOfOneUserAreExact() throws InterruptedException, ExecutionException
+	{
+		final int iterations = 20000;
+		CommandBlocksHandle.LotteryData lotteryData = CommandBlocksHandle.getLotteryData(1_000_000_000_000_014L);
+		lotteryData.setBlocks(1000L);
+		int won = lotteryData.getWon();
+		int lost = lotteryData.getLost();
+
+		List<Callable<Void>> tasks = new ArrayList<>(THREADS);
+		for (int t = 0; t < THREADS; t++)
+			tasks.add(() ->
+			{
+				for (int i = 0; i < iterations; i++)
+				{
+					lotteryData.addBlocks(3L, CommandBlocksLedger.MESSAGE); //訊息獎勵
+					assertNotEquals(-1L, lotteryData.tryTakeBlocks(1L, CommandBlocksLedger.BET_LOSS)); //剛剛才加過 一定夠
+					lotteryData.addGame(i % 2 == 0, false);
+				}
+				return null;
+			});
+		runConcurrently(tasks);
+
+		assertEquals(1000L + 2L * THREADS * iterations, lotteryData.getBlocks());
+		assertEquals(won + THREADS * iterations / 2, lotteryData.getWon());
+		assertEquals(lost + THREADS * iterations / 2, lotteryData.getLost());
+		assertEquals(lotteryData.getBlocks(), CommandBlocksLedger.history(lotteryData.getUserID(), 0, 1).get(0).getBalance()); //帳本的最後一筆也一樣
+	}
+
+	@Test
+	void concurrentTakesNeverOverdraw() throws InterruptedException, ExecutionException
+	{
+		final long initial = 100000L;
+		CommandBlocksHandle.LotteryData lotteryData = CommandBlocksHandle.getLotteryData(1_000_000_000_001_014L);
+		lotteryData.setBlocks(initial);
+
+		long[] taken = new long[THREADS];
+		List<Callable<Void>> tasks = new ArrayList<>(THREADS);
+		for (int t = 0; t < THREADS; t++)
+		{
+			int thread = t;
+			tasks.add(() ->
+			{
+				for (int i = 0; i < 100000; i++) //比全部的方塊數還要多次
+					if (lotteryData.tryTakeBlocks(7L, CommandBlocksLedger.BET_LOSS) != -1L)
+						taken[thread] += 7L;
+				return null;
+			});
+		}
+		runConcurrently(tasks);
+
+		long totalTaken = 0L;
+		for (long amount : taken)
+			totalTaken += amount;
+		assertEquals(initial % 7L, lotteryData.getBlocks()); //剩下的不夠再扣一次
+		assertEquals(initial, totalTaken + lotteryData.getBlocks());
+	}
+
+	@Test
+	void parallelTransfersAndBetsConserveCommandBlocks() throws InterruptedException, ExecutionException
+	{
+		final int users = 8; //人少一點 轉帳才會常常撞在一起
+		final long initial = 10000L;
+		long[] userIDs = new long[users];
+		CommandBlocksHandle.LotteryData[] lotteryData = new CommandBlocksHandle.LotteryData[users];
+		for (int i = 0; i < users; i++)
+		{
+			userIDs[i] = 1_000_000_000_000_015L + i * 1000L;
+			lotteryData[i] = CommandBlocksHandle.getLotteryData(userIDs[i]);
+			lotteryData[i].setBlocks(initial);
+		}
+
+		AtomicLong betResult = new AtomicLong(); //賭博會創造或銷毀方塊 另外記下來
+		List<Callable<Void>> tasks = new ArrayList<>(THREADS);
+		for (int t = 0; t < THREADS; t++)
+		{
+			SplittableRandom random = new SplittableRandom(15L + t);
+			tasks.add(() ->
+			{
+				for (int i = 0; i < 5000; i++)
+				{
+					int from = random.nextInt(users);
+					switch (random.nextInt(3))
+					{
+						case 0 -> CommandBlocksHandle.transfer(userIDs[from], userIDs[random.nextInt(users)], random.nextLong(1L, 500L));
+						case 1 ->
+						{
+							long[] toIDs = new long[random.nextInt(1, 4)];
+							for (int j = 0; j < toIDs.length; j++)
+								toIDs[j] = userIDs[random.nextInt(users)]; //可能重複 也可能是自己
+							CommandBlocksHandle.airdrop(userIDs[from], toIDs, random.nextLong(1L, 200L));
+						}
+						default ->
+						{
+							long bet = random.nextLong(1L, 300L);
+							if (lotteryData[from].tryTakeBlocks(bet, CommandBlocksLedger.BET_LOSS) == -1L) //不夠 不能賭
+								continue;
+							if (random.nextBoolean())
+							{
+								lotteryData[from].addBlocks(bet * 2L, CommandBlocksLedger.BET_WIN);
+								betResult.addAndGet(bet);
+							}
+							else
+								betResult.addAndGet(-bet);
+						}
+					}
+					for (CommandBlocksHandle.LotteryData each : lotteryData)
+						assertTrue(each.getBlocks() >= 0L);
+				}
+				return null;
+			});
+		}
+		runConcurrently(tasks);
+
+		long total = 0L;
+		for (CommandBlocksHandle.LotteryData each : lotteryData)
+		{
+			assertTrue(each.getBlocks() >= 0L);
+			total += each.getBlocks();
+		}
+		assertEquals(initial * users + betResult.get(), total);
+
+		long[] ranking = RankingHandle.snapshot(); //排名也移到了最後的方塊數
+		for (int i = 0; i < ranking.length; i += 2)
+			for (CommandBlocksHandle.LotteryData each : lotteryData)
+				if (ranking[i] == each.getUserID())
+					assertEquals(each.getBlocks(), ranking[i + 1]);
+
+		List<RankingHandle.Row> rows = RankingHandle.getRanking(0, ranking.length / 2); //每一列的方塊數和名次都是同一個時間點的
+		for (int i = 0; i < rows.size(); i++)
+		{
+			RankingHandle.Row row = rows.get(i);
+			assertEquals(ranking[i * 2 + 1], row.getBlocks());
+			assertEquals(i == 0 || row.getBlocks() == rows.get(i - 1).getBlocks() ? (i == 0 ? 1 : rows.get(i - 1).getRank()) : i + 1, row.getRank());
+		}
+	}
+
+	@Test
+	void failedAirdropChangesNothing()
+	{
+		CommandBlocksHandle.LotteryData from = CommandBlocksHandle.getLotteryData(1_000_000_000_100_015L);
+		CommandBlocksHandle.LotteryData to = CommandBlocksHandle.getLotteryData(1_000_000_000_101_015L);
+		from.setBlocks(100L);
+		to.setBlocks(0L);
+
+		assertEquals(-1L, CommandBlocksHandle.airdrop(from.getUserID(), new long[] { to.getUserID(), to.getUserID() }, 51L)); //總共要102
+		assertEquals(-1L, CommandBlocksHandle.airdrop(from.getUserID(), new long[] { to.getUserID(), to.getUserID() }, Long.MAX_VALUE));
+		assertEquals(100L, from.getBlocks());
+		assertEquals(0L, to.getBlocks());
+		assertEquals(0L, CommandBlocksHandle.transfer(from.getUserID(), to.getUserID(), 100L));
+		assertEquals(100L, to.getBlocks());
+	}
+
+	@Test
+	void findingAUserDoesNotCreateIt()
+	{
+		long userID = 1_000_000_000_300_016L;
+		assertNull(CommandBlocksHandle.findLotteryData(userID));
+		assertNull(CommandBlocksHandle.findLotteryData(userID)); //第一次找也沒有建立
+		CommandBlocksHandle.LotteryData lotteryData = CommandBlocksHandle.getLotteryData(userID);
+		assertSame(lotteryData, CommandBlocksHandle.findLotteryData(userID));
+	}
+
+	@Test
+	void nonPositiveAmountsAndNoReceiversAreRejected()
+	{
+		CommandBlocksHandle.LotteryData from = CommandBlocksHandle.getLotteryData(1_000_000_000_300_015L);
+		CommandBlocksHandle.LotteryData to = CommandBlocksHandle.getLotteryData(1_000_000_000_301_015L);
+		from.setBlocks(100L);
+		to.setBlocks(100L);
+
+		assertThrows(IllegalArgumentException.class, () -> CommandBlocksHandle.transfer(from.getUserID(), to.getUserID(), -50L)); //會從收款人身上拿走方塊
+		assertThrows(IllegalArgumentException.class, () -> CommandBlocksHandle.transfer(from.getUserID(), to.getUserID(), 0L));
+		assertThrows(IllegalArgumentException.class, () -> CommandBlocksHandle.airdrop(from.getUserID(), new long[] { to.getUserID() }, Long.MIN_VALUE));
+		assertThrows(IllegalArgumentException.class, () -> CommandBlocksHandle.airdrop(from.getUserID(), new long[0], 10L));
+		assertEquals(100L, from.getBlocks());
+		assertEquals(100L, to.getBlocks());
+	}
+
+	@Test
+	void transferOverTheLimitIsRejected()
+	{
+		CommandBlocksHandle.LotteryData from = CommandBlocksHandle.getLotteryData(1_000_000_000_200_015L);
+		CommandBlocksHandle.LotteryData rich = CommandBlocksHandle.getLotteryData(1_000_000_000_201_015L);
+		CommandBlocksHandle.LotteryData poor = CommandBlocksHandle.getLotteryData(1_000_000_000_202_015L);
+		from.setBlocks(1000L);
+		rich.setBlocks(Long.MAX_VALUE - 10L);
+		poor.setBlocks(0L);
+
+		assertEquals(-1L, CommandBlocksHandle.transfer(from.getUserID(), rich.getUserID(), 11L)); //多出來的方塊不能消失
+		assertEquals(-1L, CommandBlocksHandle.airdrop(from.getUserID(), new long[] { poor.getUserID(), rich.getUserID() }, 100L));
+		assertEquals(1000L, from.getBlocks());
+		assertEquals(Long.MAX_VALUE - 10L, rich.getBlocks());
+		assertEquals(0L, poor.getBlocks());
+		assertEquals(990L, CommandBlocksHandle.transfer(from.getUserID(), rich.getUserID(), 10L)); //剛好到上限
+		assertEquals(Long.MAX_VALUE, rich.getBlocks());
+	}
+}
@@ -0,0 +1,141 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of replaying {@link CommandBlocksLedger} and restoring the command blocks from it. The ledger is the one in
+ * {@code target/test-run}, shared by every test of a run, so every test uses its own users, and replays a copy of the
+ * file.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class CommandBlocksLedgerTest
+{
+	@TempDir
+	Path directory;
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //帳本和日誌都會寫入檔案
+	}
+
+	private Path copyLedger() throws IOException
+	{
+		CommandBlocksLedger.flush();
+		Path copy = directory.resolve("command_blocks.ledger");
+		Files.copy(Paths.get(CommandBlocksLedger.LEDGER_FILE_NAME), copy);
+		return copy;
+	}
+
+	@Test
+	void replayRebuildsTheLastBalance() throws IOException
+	{
+		long userID = 1_000_000_000_000_018L;
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.DAILY, 100L, 0L);
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.BET_LOSS, -30L, 0L);
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.TRANSFER_IN, 5L, 1_000_000_000_001_018L);
+		Path copy = copyLedger();
+
+		LongMap<long[]> records = new LongMap<>();
+		long length = Files.size(copy);
+		assertEquals(length, CommandBlocksLedger.replay(copy, 0L, length, records));
+		assertEquals(75L, records.get(userID)[1]);
+		assertEquals(length - CommandBlocksLedger.RECORD_SIZE, records.get(userID)[0]); //最後一筆就是這名使用者的
+
+		LongMap<long[]> fromSnapshot = new LongMap<>(); //從快照之後重播 只會讀到快照之後的紀錄
+		fromSnapshot.put(userID, new long[] { -1L, 42L });
+		assertEquals(length, CommandBlocksLedger.replay(copy, length - CommandBlocksLedger.RECORD_SIZE, length, fromSnapshot));
+		assertEquals(75L, fromSnapshot.get(userID)[1]);
+		assertEquals(length, CommandBlocksLedger.replay(copy, length, length, fromSnapshot)); //沒有新的紀錄
+	}
+
+	@Test
+	void replayStopsAtATornOrCorruptedRecord() throws IOException
+	{
+		long userID = 1_000_000_000_100_018L;
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.GAME_REWARD, 10L, 0L);
+		Path copy = copyLedger();
+		long intact = Files.size(copy);
+
+		Files.write(copy, new byte[CommandBlocksLedger.RECORD_SIZE / 2], StandardOpenOption.APPEND); //寫到一半就當機了
+		LongMap<long[]> records = new LongMap<>();
+		assertEquals(intact, CommandBlocksLedger.replay(copy, 0L, Files.size(copy), records));
+		assertEquals(10L, records.get(userID)[1]);
+
+		byte[] content = Files.readAllBytes(copy);
+		content[(int) intact - CommandBlocksLedger.RECORD_SIZE + Long.BYTES * 3] ^= 1; //最後一筆的餘額壞掉了
+		Files.write(copy, content);
+		records.clear();
+		assertEquals(intact - CommandBlocksLedger.RECORD_SIZE, CommandBlocksLedger.replay(copy, 0L, content.length, records));
+		assertNull(records.get(userID));
+	}
+
+	@Test
+	void restoreGivesBackWhatTheStateLost()
+	{
+		long userID = 1_000_000_000_200_018L;
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.DAILY, 100L, 0L);
+		CommandBlocksHandle.LotteryData lotteryData = new CommandBlocksHandle.LotteryData(userID); //快照裡還是0
+		LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap = new LongMap<>();
+		lotteryDataMap.put(userID, lotteryData);
+
+		CommandBlocksLedger.restore(lotteryDataMap, true);
+		assertEquals(100L, lotteryData.getBlocks());
+	}
+
+	@Test
+	void restoreAdjustsTheLedgerToNewerSlots()
+	{
+		long userID = 1_000_000_000_300_018L;
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.DAILY, 100L, 0L);
+		CommandBlocksHandle.LotteryData lotteryData = new CommandBlocksHandle.LotteryData(userID);
+		lotteryData.restoreBlocks(250L); //slot裡有帳本來不及寫入的變動
+		LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap = new LongMap<>();
+		lotteryDataMap.put(userID, lotteryData);
+
+		CommandBlocksLedger.restore(lotteryDataMap, false);
+		assertEquals(250L, lotteryData.getBlocks()); //方塊數沒有倒退
+		CommandBlocksLedger.Event last = CommandBlocksLedger.history(userID, 0, 1).get(0);
+		assertEquals("adjustment", last.getTypeName());
+		assertEquals(150L, last.getDelta());
+		assertEquals(250L, last.getBalance());
+	}
+
+	@Test
+	void restoreKeepsUsersThatOnlyTheLedgerHas()
+	{
+		long userID = 1_000_000_000_400_018L;
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.TRANSFER_IN, 70L, 1_000_000_000_401_018L);
+		LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap = new LongMap<>();
+
+		CommandBlocksLedger.restore(lotteryDataMap, false); //不論哪邊比較新 方塊都不能消失
+		assertEquals(70L, lotteryDataMap.get(userID).getBlocks());
+	}
+
+	@Test
+	void restoreStartsUnrecordedUsersFromTheirCommandBlocks()
+	{
+		long userID = 1_000_000_000_500_018L;
+		CommandBlocksHandle.LotteryData lotteryData = new CommandBlocksHandle.LotteryData(userID);
+		lotteryData.restoreBlocks(1000L); //帳本出現之前就有的方塊
+		LongMap<CommandBlocksHandle.LotteryData> lotteryDataMap = new LongMap<>();
+		lotteryDataMap.put(userID, lotteryData);
+
+		CommandBlocksLedger.restore(lotteryDataMap, true);
+		assertEquals(1000L, lotteryData.getBlocks());
+		CommandBlocksLedger.append(userID, CommandBlocksLedger.BET_WIN, 50L, 0L);
+		assertEquals(1050L, CommandBlocksLedger.history(userID, 0, 1).get(0).getBalance());
+	}
+}
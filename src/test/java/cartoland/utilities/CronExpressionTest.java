@@ -0,0 +1,118 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link CronExpression}, by listing the times that an expression matches from a fixed time.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class CronExpressionTest
+{
+	private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0); //星期一
+
+	private static List<LocalDateTime> times(String expression, LocalDateTime after, int count)
+	{
+		CronExpression cron = new CronExpression(expression);
+		List<LocalDateTime> times = new ArrayList<>(count);
+		for (LocalDateTime time = cron.next(after); time != null && times.size() < count; time = cron.next(time))
+			times.add(time);
+		return times;
+	}
+
+	private static LocalDateTime at(int month, int day, int hour, int minute)
+	{
+		return LocalDateTime.of(2024, month, day, hour, minute);
+	}
+
+	@Test
+	void listsRangesAndSteps()
+	{
+		assertEquals(List.of(at(1, 1, 0, 5), at(1, 1, 0, 10), at(1, 1, 0, 20), at(1, 1, 1, 5)), times("5,10,20 * * * *", START, 4));
+		assertEquals(List.of(at(1, 1, 9, 0), at(1, 1, 10, 0), at(1, 1, 11, 0), at(1, 2, 9, 0)), times("0 9-11 * * *", START, 4));
+		assertEquals(List.of(at(1, 1, 0, 15), at(1, 1, 0, 30), at(1, 1, 0, 45), at(1, 1, 1, 0)), times("*/15 * * * *", START, 4));
+		assertEquals(List.of(at(1, 1, 0, 5), at(1, 1, 0, 25), at(1, 1, 0, 45), at(1, 1, 1, 5)), times("5/20 * * * *", START, 4));
+		assertEquals(List.of(at(1, 1, 0, 10), at(1, 1, 0, 12), at(1, 1, 0, 30), at(1, 1, 0, 50)), times("10-12/2,30,50 * * * *", START, 4));
+		assertEquals(List.of(at(3, 1, 12, 0), at(6, 1, 12, 0), at(9, 1, 12, 0), at(12, 1, 12, 0)), times("0 12 1 3-12/3 *", START, 4));
+	}
+
+	@Test
+	void nextIsStrictlyAfter()
+	{
+		assertEquals(at(1, 1, 12, 1), new CronExpression("* * * * *").next(at(1, 1, 12, 0)));
+		assertEquals(at(1, 2, 12, 0), new CronExpression("0 12 * * *").next(at(1, 1, 12, 0)));
+		assertEquals(at(1, 2, 12, 0), new CronExpression("0 12 * * *").next(at(1, 1, 12, 0).plusSeconds(30L))); //秒數不算
+	}
+
+	@Test
+	void sundayIsZeroAndSeven()
+	{
+		List<LocalDateTime> sundays = List.of(at(1, 7, 8, 0), at(1, 14, 8, 0), at(1, 21, 8, 0));
+		assertEquals(sundays, times("0 8 * * 0", START, 3));
+		assertEquals(sundays, times("0 8 * * 7", START, 3));
+		assertEquals(List.of(at(1, 5, 8, 0), at(1, 6, 8, 0), at(1, 7, 8, 0), at(1, 12, 8, 0)), times("0 8 * * 5-7", START, 4));
+	}
+
+	@Test
+	void eitherDayMatchesWhenBothAreRestricted()
+	{
+		//13日或是星期五 2024年1月5日是星期五
+		assertEquals(List.of(at(1, 5, 0, 0), at(1, 12, 0, 0), at(1, 13, 0, 0), at(1, 19, 0, 0)), times("0 0 13 * 5", START, 4));
+		//只有其中一個有限制的話 就只看那一個
+		assertEquals(List.of(at(1, 13, 0, 0), at(2, 13, 0, 0)), times("0 0 13 * *", START, 2));
+		assertEquals(List.of(at(1, 5, 0, 0), at(1, 12, 0, 0)), times("0 0 * * 5", START, 2));
+	}
+
+	@Test
+	void stepsCountAsUnrestrictedDays()
+	{
+		//*/2開頭的欄位和*一樣不算有限制 所以要同時符合奇數日和星期一
+		assertEquals(List.of(at(1, 1, 0, 0), at(1, 15, 0, 0), at(1, 29, 0, 0), at(2, 5, 0, 0)), times("0 0 */2 * 1", START.minusMinutes(1L), 4));
+		//每天都符合*/1 所以只看日期
+		assertEquals(List.of(at(1, 13, 0, 0), at(2, 13, 0, 0)), times("0 0 13 * */1", START, 2));
+	}
+
+	@Test
+	void impossibleDatesNeverMatch()
+	{
+		assertNull(new CronExpression("0 0 31 2 *").next(START));
+		assertNull(new CronExpression("0 0 30 2 *").next(START));
+		assertEquals(LocalDateTime.of(2028, 2, 29, 0, 0), new CronExpression("0 0 29 2 *").next(START.plusMonths(3L))); //閏年才有
+	}
+
+	@Test
+	void invalidExpressionsAreRejected()
+	{
+		for (String expression : new String[] { "* * * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "* * * 13 *", "* * * * 8",
+												"*/0 * * * *", "a * * * *", "5-1 * * * *" })
+			assertThrows(IllegalArgumentException.class, () -> new CronExpression(expression), expression);
+	}
+
+	@Test
+	void daylightSavingGapAndOverlap()
+	{
+		ZoneId newYork = ZoneId.of("America/New_York");
+
+		//2024年3月10日 2:00直接跳到3:00 2:30不存在 往後移到3:30 但還是會執行
+		CronExpression gap = new CronExpression("30 2 * * *");
+		LocalDateTime skipped = gap.next(LocalDateTime.of(2024, 3, 10, 0, 0));
+		assertEquals(LocalDateTime.of(2024, 3, 10, 2, 30), skipped);
+		assertEquals(ZonedDateTime.of(2024, 3, 10, 3, 30, 0, 0, newYork).toInstant().toEpochMilli(), CronExpression.toEpochMilli(skipped, newYork));
+
+		//2024年11月3日 2:00退回1:00 1:30出現兩次 只執行較早的那一次
+		CronExpression overlap = new CronExpression("30 1 * * *");
+		LocalDateTime twice = overlap.next(LocalDateTime.of(2024, 11, 3, 0, 0));
+		assertEquals(LocalDateTime.of(2024, 11, 3, 1, 30), twice);
+		assertEquals(ZonedDateTime.of(2024, 11, 3, 5, 30, 0, 0, ZoneId.of("UTC")).toInstant().toEpochMilli(), CronExpression.toEpochMilli(twice, newYork)); //夏令時間-4:00的那一次
+		assertEquals(LocalDateTime.of(2024, 11, 4, 1, 30), overlap.next(twice)); //不會在同一天再執行一次
+	}
+}
@@ -0,0 +1,143 @@
+package cartoland.utilities;
+
+import cartoland.EventLogQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the records of {@link EventLog}, and of {@link EventLogQuery} over plain and compressed day files.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class EventLogTest
+{
+	private static final long USER_A = 1_000_000_000_000_008L;
+	private static final long USER_B = 1_000_000_000_001_008L;
+	private static final LocalDate DAY_1 = LocalDate.of(2024, 1, 1);
+	private static final LocalDate DAY_2 = LocalDate.of(2024, 1, 2);
+
+	@TempDir
+	Path directory;
+
+	private static ByteBuffer record(byte kind, long userID, String name, long latencyNanos)
+	{
+		ByteBuffer records = ByteBuffer.allocate(EventLog.RECORD_SIZE);
+		EventLog.put(records, 1234L, kind, userID, name.getBytes(StandardCharsets.UTF_8), latencyNanos);
+		return records;
+	}
+
+	private static String name(ByteBuffer records, int start)
+	{
+		byte[] name = new byte[records.get(start + EventLog.NAME_LENGTH) & 0xFF];
+		records.get(start + EventLog.NAME, name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void fieldsAreAtTheirOffsets()
+	{
+		ByteBuffer records = record(EventLog.CONTEXT_MENU, USER_A, "lottery bet", 1_500_999L);
+		assertEquals(EventLog.RECORD_SIZE, records.position());
+		assertEquals(1234L, records.getLong(EventLog.TIME));
+		assertEquals(USER_A, records.getLong(EventLog.USER_ID));
+		assertEquals(1500, records.getInt(EventLog.LATENCY)); //微秒 捨去
+		assertEquals(EventLog.CONTEXT_MENU, records.get(EventLog.KIND));
+		assertEquals("lottery bet", name(records, 0));
+		assertEquals(Integer.MAX_VALUE, record(EventLog.COMMAND, USER_A, "", Long.MAX_VALUE).getInt(EventLog.LATENCY));
+	}
+
+	@Test
+	void longNamesAreCutBetweenCharacters()
+	{
+		assertEquals("x".repeat(EventLog.MAX_NAME_LENGTH), name(record(EventLog.COMMAND, USER_A, "x".repeat(100), 0L), 0));
+		String chinese = "a" + "抽".repeat(15); //1 + 45個位元組 第42個位元組在一個字的中間
+		assertEquals("a" + "抽".repeat(13), name(record(EventLog.COMMAND, USER_A, chinese, 0L), 0));
+	}
+
+	@Test
+	void reusedBuffersAreCleared()
+	{
+		ByteBuffer records = ByteBuffer.allocate(EventLog.RECORD_SIZE * 2);
+		Arrays.fill(records.array(), (byte) -1); //上一次寫入留下的資料
+		records.position(EventLog.RECORD_SIZE);
+		EventLog.put(records, 1L, EventLog.DIRECT_MESSAGE, USER_B, "dm".getBytes(StandardCharsets.UTF_8), 0L);
+		assertEquals(EventLog.RECORD_SIZE * 2, records.position());
+		for (int i = EventLog.RECORD_SIZE + EventLog.NAME + 2; i < EventLog.RECORD_SIZE * 2; i++)
+			assertEquals(0, records.get(i), "byte " + i);
+	}
+
+	/**
+	 * Build the content of a day file, with the header and a torn record at the end.
+	 */
+	private static byte[] dayFile(LocalDate date, Object... events)
+	{
+		ByteBuffer records = ByteBuffer.allocate(EventLog.HEADER_SIZE + EventLog.RECORD_SIZE * (events.length / 3) + 10)
+				.putInt(EventLog.MAGIC).putInt(EventLog.VERSION);
+		long time = date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		for (int i = 0; i < events.length; i += 3)
+			EventLog.put(records, time, (byte) events[i], (long) events[i + 1], ((String) events[i + 2]).getBytes(StandardCharsets.UTF_8), 1000L);
+		return records.array(); //最後10個位元組是寫到一半的紀錄
+	}
+
+	private String query(String... args) throws IOException
+	{
+		String[] fullArgs = Arrays.copyOf(args, args.length + 6);
+		System.arraycopy(new String[] { "--from", DAY_1.toString(), "--to", DAY_2.toString(), "--dir", directory.toString() }, 0, fullArgs, args.length, 6);
+		PrintStream out = System.out;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (PrintStream capture = new PrintStream(bytes, true, StandardCharsets.UTF_8))
+		{
+			System.setOut(capture);
+			EventLogQuery.main(fullArgs);
+		}
+		finally
+		{
+			System.setOut(out);
+		}
+		return bytes.toString(StandardCharsets.UTF_8).trim();
+	}
+
+	@Test
+	void queriesFilterPlainAndCompressedFiles() throws IOException
+	{
+		Files.write(directory.resolve(DAY_1 + EventLog.FILE_EXTENSION), dayFile(DAY_1,
+				EventLog.COMMAND, USER_A, "lottery bet",
+				EventLog.COMMAND, USER_B, "lottery bet",
+				EventLog.CONTEXT_MENU, USER_A, "raw text"));
+		try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(directory.resolve(DAY_2 + EventLog.FILE_EXTENSION + LogArchiver.GZIP_EXTENSION))))
+		{
+			output.write(dayFile(DAY_2,
+					EventLog.COMMAND, USER_A, "lottery bet",
+					EventLog.COMMAND, USER_A, "lottery bet all", //名稱要完全相同
+					EventLog.DIRECT_MESSAGE, USER_B, ""));
+		}
+
+		assertEquals("6", query("count"));
+		assertEquals("4", query("count", "--kind", "command"));
+		assertEquals("3", query("count", "--command", "lottery bet"));
+		assertEquals("2", query("count", "--command", "lottery bet", "--user", String.valueOf(USER_A)));
+		assertEquals("1", query("count", "--kind", "direct_message"));
+		assertEquals("0", query("count", "--kind", "context_menu", "--user", String.valueOf(USER_B)));
+
+		String[] users = query("users", "--kind", "command").split("\n");
+		assertEquals(3, users.length); //標題和兩個使用者
+		assertTrue(users[1].matches(USER_A + "\\s+3"), users[1]); //最多的在前面
+		assertTrue(users[2].matches(USER_B + "\\s+1"), users[2]);
+	}
+}
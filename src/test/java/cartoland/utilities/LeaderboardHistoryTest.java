@@ -0,0 +1,131 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the frames of {@link LeaderboardHistory}, which are encoded and scanned without the daily snapshot.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class LeaderboardHistoryTest
+{
+	private static final long DAY = 19723L; //2024-01-01
+	private static final long A = 1_000_000_000_000_019L, B = 1_000_000_000_001_019L, C = 1_000_000_000_002_019L;
+	private static final long D = 1_000_000_000_003_019L, E = 1_000_000_000_004_019L;
+
+	@TempDir
+	Path directory;
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //載入時會打開serialize/leaderboard.history
+	}
+
+	private static byte[] bytes(ByteBuffer frame)
+	{
+		return Arrays.copyOfRange(frame.array(), 0, frame.limit());
+	}
+
+	@Test
+	void varLongsRoundTrip()
+	{
+		long[] values = { 0L, 1L, 127L, 128L, 300L, 16383L, 16384L, Long.MAX_VALUE, -1L };
+		int[] sizes = { 1, 1, 1, 2, 2, 2, 3, 9, 10 };
+		for (int i = 0; i < values.length; i++)
+		{
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			LeaderboardHistory.writeVarLong(stream, values[i]);
+			assertEquals(sizes[i], stream.size(), "size of " + values[i]);
+			ByteBuffer buffer = ByteBuffer.wrap(stream.toByteArray());
+			assertEquals(values[i], LeaderboardHistory.readVarLong(buffer));
+			assertFalse(buffer.hasRemaining());
+		}
+	}
+
+	@Test
+	void ranksAreCountedFromTheOrder()
+	{
+		ByteBuffer frame = LeaderboardHistory.encode(DAY, new long[] { A, 500L, B, 300L, C, 300L, D, 100L, E, 0L });
+		assertTrue(LeaderboardHistory.intact(frame));
+		assertArrayEquals(new long[] { DAY, 500L, 1L }, LeaderboardHistory.find(frame, DAY, A));
+		assertArrayEquals(new long[] { DAY, 300L, 2L }, LeaderboardHistory.find(frame, DAY, B));
+		assertArrayEquals(new long[] { DAY, 300L, 2L }, LeaderboardHistory.find(frame, DAY, C)); //同分同名次
+		assertArrayEquals(new long[] { DAY, 100L, 4L }, LeaderboardHistory.find(frame, DAY, D));
+		assertArrayEquals(new long[] { DAY, 0L, 5L }, LeaderboardHistory.find(frame, DAY, E)); //沒有方塊的人不會寫入
+		assertArrayEquals(new long[] { DAY, 0L, 5L }, LeaderboardHistory.find(frame, DAY, 1L));
+
+		ByteBuffer empty = LeaderboardHistory.encode(DAY, new long[0]);
+		assertArrayEquals(new long[] { DAY, 0L, 1L }, LeaderboardHistory.find(empty, DAY, A));
+	}
+
+	@Test
+	void closeBlocksTakeFewBytes()
+	{
+		long[] ranking = new long[2000];
+		for (int i = 0; i < ranking.length; i += 2)
+		{
+			ranking[i] = i + 1L; //小的ID 一個位元組
+			ranking[i + 1] = 1_000_000L - i;
+		}
+		ByteBuffer frame = LeaderboardHistory.encode(DAY, ranking);
+		assertTrue(frame.limit() < 16 + 10 + 1000 * 3 + 4); //第一位的差距較大 之後每位不超過3個位元組
+		assertArrayEquals(new long[] { DAY, 1_000_000L - 998L, 500L }, LeaderboardHistory.find(frame, DAY, 999L));
+	}
+
+	@Test
+	void damagedFramesAreDetected()
+	{
+		ByteBuffer frame = LeaderboardHistory.encode(DAY, new long[] { A, 500L, B, 300L });
+		for (int i = 0; i < frame.limit(); i++)
+		{
+			ByteBuffer damaged = ByteBuffer.wrap(bytes(frame));
+			damaged.put(i, (byte) (damaged.get(i) ^ 0x10));
+			assertFalse(LeaderboardHistory.intact(damaged), "byte " + i);
+		}
+	}
+
+	@Test
+	void scanStopsBeforeATornFrame() throws IOException
+	{
+		byte[] first = bytes(LeaderboardHistory.encode(DAY, new long[] { A, 500L }));
+		byte[] second = bytes(LeaderboardHistory.encode(DAY + 1L, new long[] { A, 600L, B, 10L }));
+		byte[] third = bytes(LeaderboardHistory.encode(DAY + 2L, new long[] { A, 700L }));
+		Path file = directory.resolve("leaderboard.history");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+		{
+			channel.write(ByteBuffer.wrap(first));
+			channel.write(ByteBuffer.wrap(second));
+			channel.write(ByteBuffer.wrap(third, 0, third.length - 3)); //寫到一半就關機了
+		}
+
+		List<long[]> frames = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			assertEquals(first.length + second.length, LeaderboardHistory.scan(channel, frames));
+		}
+		assertEquals(2, frames.size());
+		assertArrayEquals(new long[] { DAY, 0L, first.length }, frames.get(0));
+		assertArrayEquals(new long[] { DAY + 1L, first.length, second.length }, frames.get(1));
+
+		ByteBuffer read = ByteBuffer.wrap(Files.readAllBytes(file), first.length, second.length).slice();
+		assertTrue(LeaderboardHistory.intact(read));
+		assertArrayEquals(new long[] { DAY + 1L, 10L, 2L }, LeaderboardHistory.find(read, DAY + 1L, B));
+	}
+}
@@ -0,0 +1,120 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link LogArchiver}, which archive a temporary folder as if it were a fixed day.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class LogArchiverTest
+{
+	private static final LocalDate TODAY = LocalDate.of(2024, 4, 10);
+	private static final long RETENTION_DAYS = 90L; //最舊保留到2024-01-11
+
+	@TempDir
+	Path directory;
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //失敗時會寫log
+	}
+
+	private Path write(String fileName) throws IOException
+	{
+		return Files.writeString(directory.resolve(fileName), "content of " + fileName);
+	}
+
+	private String readGzip(String fileName) throws IOException
+	{
+		try (InputStream input = new GZIPInputStream(Files.newInputStream(directory.resolve(fileName))))
+		{
+			return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	void finishedDaysAreCompressed() throws IOException
+	{
+		write("2024-04-09");
+		write("2024-04-09.events");
+		write("2024-01-11"); //最舊的一天還要保留
+		LogArchiver.archive(directory, TODAY, RETENTION_DAYS);
+
+		for (String fileName : new String[] { "2024-04-09", "2024-04-09.events", "2024-01-11" })
+		{
+			assertFalse(Files.exists(directory.resolve(fileName)), fileName);
+			assertEquals("content of " + fileName, readGzip(fileName + LogArchiver.GZIP_EXTENSION));
+		}
+	}
+
+	@Test
+	void todayAndOtherFilesAreUntouched() throws IOException
+	{
+		write("2024-04-10");
+		write("2024-04-10.events");
+		write("notes.txt");
+		write("2024-04-08.gz"); //已經壓縮過了
+		LogArchiver.archive(directory, TODAY, RETENTION_DAYS);
+
+		for (String fileName : new String[] { "2024-04-10", "2024-04-10.events", "notes.txt", "2024-04-08.gz" })
+			assertEquals("content of " + fileName, Files.readString(directory.resolve(fileName)), fileName);
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals(4L, files.count()); //沒有多出壓縮檔
+		}
+	}
+
+	@Test
+	void expiredFilesAndLeftoversAreDeleted() throws IOException
+	{
+		write("2024-01-10");
+		write("2024-01-10.events");
+		write("2023-12-25.gz");
+		write("2024-04-01.gz.tmp"); //上次壓縮到一半
+		LogArchiver.archive(directory, TODAY, RETENTION_DAYS);
+
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals(0L, files.count());
+		}
+	}
+
+	@Test
+	void interruptedCompressionIsDoneAgain() throws IOException
+	{
+		write("2024-04-05");
+		Files.write(directory.resolve("2024-04-05.gz"), new byte[] { 1, 2, 3 }); //舊的壓縮檔 原檔還沒刪掉就關機了
+		LogArchiver.archive(directory, TODAY, RETENTION_DAYS);
+
+		assertFalse(Files.exists(directory.resolve("2024-04-05")));
+		assertEquals("content of 2024-04-05", readGzip("2024-04-05.gz"));
+	}
+
+	@Test
+	void compressedAndPlainFilesReadTheSame() throws IOException
+	{
+		write("2024-04-07");
+		write("2024-04-10");
+		LogArchiver.archive(directory, TODAY, RETENTION_DAYS);
+
+		assertArrayEquals("content of 2024-04-07".getBytes(StandardCharsets.UTF_8), LogArchiver.readCompressed(directory.resolve("2024-04-07")));
+		assertArrayEquals("content of 2024-04-10".getBytes(StandardCharsets.UTF_8), LogArchiver.readCompressed(directory.resolve("2024-04-10")));
+		assertNull(LogArchiver.readCompressed(directory.resolve("2024-04-06")));
+	}
+}
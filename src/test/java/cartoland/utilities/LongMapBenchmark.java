@@ -0,0 +1,125 @@
+package cartoland.utilities;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lookup cost of {@link LongMap} with {@code HashMap<Long, V>}, with snowflake-like keys. Every operation
+ * looks up {@link #LOOKUPS} keys, either present or absent. The heap footprint of both maps is measured once during the
+ * setup and printed as bytes per entry, excluding the values, which are shared. Run {@link #main} from the IDE, or
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main LongMapBenchmark}.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LongMapBenchmark
+{
+	private static final int LOOKUPS = 1024;
+	private static final Object VALUE = new Object();
+
+	@Param({ "100000", "1000000" })
+	public int users;
+
+	private HashMap<Long, Object> hashMap;
+	private LongMap<Object> longMap;
+	private long[] present;
+	private long[] absent;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		SplittableRandom random = new SplittableRandom(42L);
+		long[] keys = new long[users];
+		for (int i = 0; i < users; i++)
+			keys[i] = (random.nextLong(1420070400000L, 1700000000000L) - 1420070400000L) << 22 | random.nextInt(1 << 22); //和snowflake一樣 時間在高位元
+
+		long before = usedHeap();
+		hashMap = new HashMap<>();
+		for (long key : keys)
+			hashMap.put(key, VALUE);
+		long afterHashMap = usedHeap();
+		longMap = new LongMap<>();
+		for (long key : keys)
+			longMap.put(key, VALUE);
+		long afterLongMap = usedHeap();
+		System.out.printf("%n%d users: HashMap %.1f bytes/entry, LongMap %.1f bytes/entry%n", users,
+						  (double) (afterHashMap - before) / users, (double) (afterLongMap - afterHashMap) / users);
+
+		present = new long[LOOKUPS];
+		absent = new long[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++)
+		{
+			present[i] = keys[random.nextInt(users)];
+			absent[i] = -1L - random.nextInt(Integer.MAX_VALUE); //snowflake不會是負數
+		}
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int hashMapHit()
+	{
+		int found = 0;
+		for (long key : present)
+			if (hashMap.get(key) != null)
+				found++;
+		return found;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int longMapHit()
+	{
+		int found = 0;
+		for (long key : present)
+			if (longMap.get(key) != null)
+				found++;
+		return found;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int hashMapMiss()
+	{
+		int found = 0;
+		for (long key : absent)
+			if (hashMap.get(key) != null)
+				found++;
+		return found;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public int longMapMiss()
+	{
+		int found = 0;
+		for (long key : absent)
+			if (longMap.get(key) != null)
+				found++;
+		return found;
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(LongMapBenchmark.class.getSimpleName()).build()).run();
+	}
+}
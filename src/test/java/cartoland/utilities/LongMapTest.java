@@ -0,0 +1,149 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link LongMap}, mostly by doing the same random operations on a {@link HashMap} and comparing them.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class LongMapTest
+{
+	private static void assertSameContent(Map<Long, String> expected, LongMap<String> actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		for (Map.Entry<Long, String> entry : expected.entrySet())
+			assertEquals(entry.getValue(), actual.get(entry.getKey()));
+
+		Map<Long, String> iterated = new HashMap<>();
+		actual.forEach((key, value) -> assertNull(iterated.put(key, value), "Duplicate key " + key));
+		assertEquals(expected, iterated);
+
+		long[] keys = actual.keys();
+		Arrays.sort(keys);
+		assertArrayEquals(expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray(), keys);
+		List<String> values = actual.values();
+		Collections.sort(values);
+		List<String> expectedValues = new ArrayList<>(expected.values());
+		Collections.sort(expectedValues);
+		assertEquals(expectedValues, values);
+	}
+
+	@Test
+	void randomOperationsMatchHashMap()
+	{
+		SplittableRandom random = new SplittableRandom(5L);
+		Map<Long, String> expected = new HashMap<>();
+		LongMap<String> actual = new LongMap<>();
+		for (int i = 0; i < 200000; i++)
+		{
+			long key = random.nextInt(5000) - 10; //有負數和0 也常常撞到同一個key
+			switch (random.nextInt(5))
+			{
+				case 0, 1 ->
+				{
+					String value = "v" + i;
+					assertEquals(expected.put(key, value), actual.put(key, value));
+				}
+				case 2 -> assertEquals(expected.remove(key), actual.remove(key));
+				case 3 ->
+				{
+					String value = "c" + i;
+					assertEquals(expected.computeIfAbsent(key, k -> value), actual.computeIfAbsent(key, k -> value));
+				}
+				default ->
+				{
+					assertEquals(expected.get(key), actual.get(key));
+					assertEquals(expected.containsKey(key), actual.containsKey(key));
+				}
+			}
+			if (i % 10000 == 0)
+				assertSameContent(expected, actual);
+		}
+		assertSameContent(expected, actual);
+
+		actual.clear();
+		assertSameContent(Map.of(), actual);
+	}
+
+	@Test
+	void removalKeepsProbeChainsReachable()
+	{
+		//全部都放進同一個容量 大量地刪除再插入 讓探測的鏈一直被往前移
+		SplittableRandom random = new SplittableRandom(6L);
+		Map<Long, String> expected = new HashMap<>();
+		LongMap<String> actual = new LongMap<>(64);
+		long[] pool = random.longs(60, 1L, Long.MAX_VALUE).toArray();
+		for (int i = 0; i < 100000; i++)
+		{
+			long key = pool[random.nextInt(pool.length)];
+			if (random.nextBoolean())
+				assertEquals(expected.put(key, "v" + i), actual.put(key, "v" + i));
+			else
+				assertEquals(expected.remove(key), actual.remove(key));
+		}
+		assertSameContent(expected, actual);
+	}
+
+	@Test
+	void nullValuesAreRejected()
+	{
+		assertThrows(NullPointerException.class, () -> new LongMap<String>().put(1L, null));
+	}
+
+	@Test
+	void modifyingWhileIteratingThrows()
+	{
+		LongMap<String> map = new LongMap<>();
+		for (long key = 1L; key <= 100L; key++)
+			map.put(key, "v");
+		assertThrows(ConcurrentModificationException.class, () -> map.forEach((key, value) -> map.put(key + 1000L, "w")));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void serializationRoundTrip() throws IOException, ClassNotFoundException
+	{
+		SplittableRandom random = new SplittableRandom(7L);
+		Map<Long, String> expected = new HashMap<>();
+		LongMap<String> map = new LongMap<>();
+		for (int i = 0; i < 10000; i++)
+		{
+			long key = random.nextLong();
+			expected.put(key, "v" + i);
+			map.put(key, "v" + i);
+		}
+		expected.put(0L, "zero");
+		map.put(0L, "zero");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream stream = new ObjectOutputStream(bytes))
+		{
+			stream.writeObject(map);
+		}
+		try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+		{
+			assertSameContent(expected, (LongMap<String>) stream.readObject());
+		}
+	}
+
+	@Test
+	void legacyHashMapIsConverted()
+	{
+		Map<Long, String> legacy = new HashMap<>();
+		for (long key = -50L; key <= 50L; key++)
+			legacy.put(key, "v" + key);
+		assertSameContent(legacy, LongMap.from(new HashMap<>(legacy)));
+
+		LongMap<String> map = new LongMap<>();
+		assertSame(map, LongMap.from(map));
+		assertTrue(LongMap.from(null).isEmpty()); //沒有檔案
+	}
+}
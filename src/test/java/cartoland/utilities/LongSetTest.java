@@ -0,0 +1,135 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link LongSet}, mostly by doing the same random operations on a {@link HashSet} and comparing them.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class LongSetTest
+{
+	@TempDir
+	Path directory;
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //讀取失敗和轉換時會寫log
+	}
+
+	private static void assertSameContent(Set<Long> expected, LongSet actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		for (long element : expected)
+			assertTrue(actual.contains(element));
+
+		long[] elements = actual.toArray();
+		Arrays.sort(elements);
+		assertArrayEquals(expected.stream().mapToLong(Long::longValue).sorted().toArray(), elements);
+	}
+
+	@Test
+	void randomOperationsMatchHashSet()
+	{
+		SplittableRandom random = new SplittableRandom(8L);
+		Set<Long> expected = new HashSet<>();
+		LongSet actual = new LongSet();
+		for (int i = 0; i < 200000; i++)
+		{
+			long element = random.nextInt(5000) - 10; //有負數和0 也常常撞到同一個元素
+			switch (random.nextInt(3))
+			{
+				case 0 -> assertEquals(expected.add(element), actual.add(element));
+				case 1 -> assertEquals(expected.remove(element), actual.remove(element));
+				default -> assertEquals(expected.contains(element), actual.contains(element));
+			}
+			if (i % 10000 == 0)
+				assertSameContent(expected, actual);
+		}
+		assertSameContent(expected, actual);
+
+		int expectedRemoved = expected.size();
+		expected.removeIf(element -> element % 3 == 0);
+		expectedRemoved -= expected.size();
+		assertEquals(expectedRemoved, actual.removeIf(element -> element % 3 == 0));
+		assertSameContent(expected, actual);
+
+		actual.clear();
+		assertSameContent(Set.of(), actual);
+	}
+
+	@Test
+	void writeAndLoadRoundTrip()
+	{
+		SplittableRandom random = new SplittableRandom(9L);
+		Set<Long> expected = new HashSet<>();
+		LongSet set = new LongSet();
+		for (int i = 0; i < 10000; i++)
+		{
+			long element = random.nextLong();
+			expected.add(element);
+			set.add(element);
+		}
+		expected.add(0L);
+		set.add(0L);
+
+		String fileName = directory.resolve("set.bin").toString();
+		assertTrue(FileHandle.writeFile(fileName, set::write));
+		assertSameContent(expected, LongSet.load(fileName, directory.resolve("set.ser").toString()));
+	}
+
+	@Test
+	void brokenFileIsNeverReplacedByAnEmptySet() throws IOException
+	{
+		LongSet set = new LongSet();
+		for (long element = 1L; element <= 100L; element++)
+			set.add(element);
+		Path file = directory.resolve("set.bin");
+		assertTrue(FileHandle.writeFile(file.toString(), set::write));
+		byte[] content = Files.readAllBytes(file);
+		byte[] truncated = Arrays.copyOf(content, content.length - 5); //數量和內容不符
+		Files.write(file, truncated);
+
+		assertThrows(UncheckedIOException.class, () -> LongSet.load(file.toString(), directory.resolve("set.ser").toString()));
+		assertArrayEquals(truncated, Files.readAllBytes(file)); //檔案還在 可以手動救回來
+	}
+
+	@Test
+	void legacyHashSetIsMigrated() throws IOException
+	{
+		Set<Long> legacy = new HashSet<>();
+		for (long element = -50L; element <= 50L; element++)
+			legacy.add(element);
+		Path legacyFile = directory.resolve("set.ser");
+		try (ObjectOutputStream stream = new ObjectOutputStream(Files.newOutputStream(legacyFile)))
+		{
+			stream.writeObject(new HashSet<>(legacy));
+		}
+
+		String fileName = directory.resolve("set.bin").toString();
+		assertSameContent(legacy, LongSet.load(fileName, legacyFile.toString()));
+		assertFalse(Files.exists(legacyFile));
+		assertTrue(Files.exists(directory.resolve("set.ser.migrated")));
+		assertSameContent(legacy, LongSet.load(fileName, legacyFile.toString())); //第二次直接讀二進位檔
+	}
+
+	@Test
+	void missingFilesGiveAnEmptySet()
+	{
+		assertTrue(LongSet.load(directory.resolve("set.bin").toString(), directory.resolve("set.ser").toString()).isEmpty());
+	}
+}
@@ -0,0 +1,90 @@
+package cartoland.utilities;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@code lottery_data.bin} of {@link LotteryDataFile} with the {@code lottery_data.ser} that
+ * {@link ObjectOutputStream} wrote from a {@code HashMap<Long, LotteryData>}. Every load allocates slots of
+ * {@link LotteryDataStore} that are never freed, so each operation is measured once instead of in a loop. The sizes of
+ * both files are printed during the setup. Run {@link #main} from the IDE, or
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main LotteryDataFileBenchmark}.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LotteryDataFileBenchmark
+{
+	@Param({ "100000", "300000" })
+	public int users;
+
+	private List<CommandBlocksHandle.LotteryData> lotteryDataList;
+	private HashMap<Long, CommandBlocksHandle.LotteryData> legacyMap;
+	private byte[] binary;
+	private byte[] serialized;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		lotteryDataList = LotteryDataFileTest.randomLotteryData(users, 42L);
+		legacyMap = new HashMap<>();
+		for (CommandBlocksHandle.LotteryData lotteryData : lotteryDataList)
+			legacyMap.put(lotteryData.getUserID(), lotteryData);
+		binary = writeBinary();
+		serialized = writeSerialized();
+		System.out.printf("%n%d users: lottery_data.bin %d bytes, lottery_data.ser %d bytes%n", users, binary.length, serialized.length);
+	}
+
+	@Benchmark
+	public byte[] writeBinary() throws IOException
+	{
+		return LotteryDataFileTest.write(lotteryDataList);
+	}
+
+	@Benchmark
+	public byte[] writeSerialized() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream stream = new ObjectOutputStream(bytes))
+		{
+			stream.writeObject(legacyMap);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public LongMap<CommandBlocksHandle.LotteryData> loadBinary()
+	{
+		LongMap<CommandBlocksHandle.LotteryData> map = new LongMap<>();
+		LotteryDataFile.read(ByteBuffer.wrap(binary), userID -> map.computeIfAbsent(userID, CommandBlocksHandle.LotteryData::new), true);
+		return map;
+	}
+
+	@Benchmark
+	public Object loadSerialized() throws IOException, ClassNotFoundException
+	{
+		try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(serialized)))
+		{
+			return stream.readObject();
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(LotteryDataFileBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,169 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link LotteryDataFile}. Everything is written into memory, only the log is written into a file.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class LotteryDataFileTest
+{
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //讀到錯誤的格式時會寫log
+	}
+
+	static CommandBlocksHandle.LotteryData lotteryData(long userID, long blocks, int won, int lost, int showHandWon,
+													   int showHandLost, long lastClaimSecond, int streak, String name)
+	{
+		ByteBuffer state = ByteBuffer.allocate(CommandBlocksHandle.LotteryData.STATE_SIZE);
+		state.putLong(userID).putLong(blocks).putInt(won).putInt(lost).putInt(showHandWon).putInt(showHandLost)
+				.putLong(lastClaimSecond).putInt(streak).flip().position(Long.BYTES); //readState從userID之後開始
+		CommandBlocksHandle.LotteryData lotteryData = new CommandBlocksHandle.LotteryData(userID);
+		lotteryData.readState(state);
+		lotteryData.restoreName(name);
+		return lotteryData;
+	}
+
+	static List<CommandBlocksHandle.LotteryData> randomLotteryData(int count, long seed)
+	{
+		SplittableRandom random = new SplittableRandom(seed);
+		List<CommandBlocksHandle.LotteryData> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			list.add(lotteryData(random.nextLong(1L, Long.MAX_VALUE), random.nextLong(0L, 10000000L), random.nextInt(1000),
+								 random.nextInt(1000), random.nextInt(10), random.nextInt(10), random.nextLong(2000000000L),
+								 random.nextInt(400), "user_" + random.nextInt(1000000)));
+		return list;
+	}
+
+	static byte[] write(List<CommandBlocksHandle.LotteryData> lotteryData) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream stream = new DataOutputStream(bytes))
+		{
+			LotteryDataFile.write(stream, lotteryData);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static HashMap<Long, CommandBlocksHandle.LotteryData> read(byte[] content, boolean[] valid)
+	{
+		HashMap<Long, CommandBlocksHandle.LotteryData> read = new HashMap<>();
+		valid[0] = LotteryDataFile.read(ByteBuffer.wrap(content), userID -> read.computeIfAbsent(userID, CommandBlocksHandle.LotteryData::new), true);
+		return read;
+	}
+
+	private static byte[] state(CommandBlocksHandle.LotteryData lotteryData)
+	{
+		ByteBuffer state = ByteBuffer.allocate(CommandBlocksHandle.LotteryData.STATE_SIZE);
+		lotteryData.writeState(state);
+		return state.array();
+	}
+
+	private static void assertSameLotteryData(CommandBlocksHandle.LotteryData expected, CommandBlocksHandle.LotteryData actual)
+	{
+		assertNotNull(actual, () -> "Missing user " + expected.getUserID());
+		assertArrayEquals(state(expected), state(actual));
+		assertEquals(expected.getName(), actual.getName());
+	}
+
+	@Test
+	void roundTripKeepsEveryField() throws IOException
+	{
+		List<CommandBlocksHandle.LotteryData> written = randomLotteryData(1000, 1L);
+		written.add(lotteryData(1L, Long.MAX_VALUE, Integer.MAX_VALUE, 0, 1, 2, Long.MIN_VALUE, -1, null)); //極端值和沒有名字
+		written.add(lotteryData(2L, 0L, 0, 0, 0, 0, 0L, 0, "創聯 🎲 Cartoland")); //多位元組的UTF-8
+
+		boolean[] valid = new boolean[1];
+		HashMap<Long, CommandBlocksHandle.LotteryData> read = read(write(written), valid);
+		assertTrue(valid[0]);
+		assertEquals(written.size(), read.size());
+		for (CommandBlocksHandle.LotteryData expected : written)
+			assertSameLotteryData(expected, read.get(expected.getUserID()));
+	}
+
+	@Test
+	void tornTailIsIgnored() throws IOException
+	{
+		List<CommandBlocksHandle.LotteryData> written = randomLotteryData(10, 2L);
+		byte[] content = write(written);
+
+		boolean[] valid = new boolean[1];
+		HashMap<Long, CommandBlocksHandle.LotteryData> read = read(Arrays.copyOf(content, content.length - 3), valid); //最後一筆寫到一半
+		assertTrue(valid[0]);
+		assertEquals(written.size() - 1, read.size());
+		for (int i = 0; i < written.size() - 1; i++)
+			assertSameLotteryData(written.get(i), read.get(written.get(i).getUserID()));
+	}
+
+	@Test
+	void unknownTrailingFieldsAreSkipped() throws IOException
+	{
+		List<CommandBlocksHandle.LotteryData> written = randomLotteryData(10, 3L);
+		ByteBuffer original = ByteBuffer.wrap(write(written));
+		ByteBuffer newer = ByteBuffer.allocate(original.capacity() + written.size() * Long.BYTES);
+		newer.putInt(original.getInt()).putInt(original.getInt() + 1); //magic 和更新的版本
+		while (original.hasRemaining())
+		{
+			int length = original.getInt();
+			newer.putInt(length + Long.BYTES).put(original.array(), original.position(), length).putLong(-1L); //新版本多出來的欄位
+			original.position(original.position() + length);
+		}
+
+		boolean[] valid = new boolean[1];
+		HashMap<Long, CommandBlocksHandle.LotteryData> read = read(newer.array(), valid);
+		assertTrue(valid[0]);
+		assertEquals(written.size(), read.size());
+		for (CommandBlocksHandle.LotteryData expected : written)
+			assertSameLotteryData(expected, read.get(expected.getUserID()));
+	}
+
+	@Test
+	void otherFormatsAreRejected() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream stream = new ObjectOutputStream(bytes))
+		{
+			stream.writeObject(new HashMap<Long, CommandBlocksHandle.LotteryData>()); //舊的lottery_data.ser
+		}
+
+		boolean[] valid = new boolean[1];
+		assertTrue(read(bytes.toByteArray(), valid).isEmpty());
+		assertFalse(valid[0]);
+		assertTrue(read(new byte[3], valid).isEmpty());
+		assertFalse(valid[0]);
+	}
+
+	@Test
+	void smallerThanJavaSerialization() throws IOException
+	{
+		List<CommandBlocksHandle.LotteryData> written = randomLotteryData(10000, 4L);
+		HashMap<Long, CommandBlocksHandle.LotteryData> legacy = new HashMap<>();
+		for (CommandBlocksHandle.LotteryData lotteryData : written)
+			legacy.put(lotteryData.getUserID(), lotteryData);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream stream = new ObjectOutputStream(bytes))
+		{
+			stream.writeObject(legacy);
+		}
+
+		assertTrue(write(written).length < bytes.size(), "lottery_data.bin should be smaller than lottery_data.ser");
+	}
+}
@@ -0,0 +1,102 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link MessageRewardBuffer}, which add rewards from many threads while another thread keeps flushing them.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class MessageRewardBufferTest
+{
+	private static final int THREADS = 8;
+	private static final int USERS = 200; //分散到各個stripe
+	private static final int ITERATIONS = 500;
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //帳本和log都會寫入檔案
+	}
+
+	private static long userID(int index)
+	{
+		return 1_000_000_000_000_021L + index * 1000L;
+	}
+
+	@Test
+	void everyRewardIsFlushedExactlyOnce() throws Exception
+	{
+		CommandBlocksHandle.LotteryData[] lotteryData = new CommandBlocksHandle.LotteryData[USERS];
+		for (int i = 0; i < USERS; i++)
+		{
+			lotteryData[i] = CommandBlocksHandle.getLotteryData(userID(i));
+			lotteryData[i].setBlocks(0L);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+		try
+		{
+			CountDownLatch start = new CountDownLatch(1);
+			AtomicBoolean adding = new AtomicBoolean(true);
+			Future<?> flusher = executor.submit(() ->
+			{
+				start.await();
+				while (adding.get())
+					MessageRewardBuffer.flushAll(); //和add同時進行
+				return null;
+			});
+			Future<?>[] adders = new Future<?>[THREADS];
+			for (int t = 0; t < THREADS; t++)
+				adders[t] = executor.submit(() ->
+				{
+					start.await();
+					for (int i = 0; i < ITERATIONS; i++)
+						for (int u = 0; u < USERS; u++)
+							MessageRewardBuffer.add(userID(u), 1L);
+					return null;
+				});
+			start.countDown();
+			for (Future<?> adder : adders)
+				adder.get(60L, TimeUnit.SECONDS);
+			adding.set(false);
+			flusher.get(60L, TimeUnit.SECONDS);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		MessageRewardBuffer.flushAll();
+		for (int i = 0; i < USERS; i++)
+		{
+			assertEquals((long) THREADS * ITERATIONS, lotteryData[i].getBlocks(), "user " + i); //沒有遺失 也沒有重複
+			assertEquals(0L, MessageRewardBuffer.take(userID(i))); //全部都加進去了
+		}
+	}
+
+	@Test
+	void takeGetsWhatWasNotFlushed()
+	{
+		long userID = 1_000_000_000_900_021L;
+		CommandBlocksHandle.LotteryData lotteryData = CommandBlocksHandle.getLotteryData(userID);
+		lotteryData.setBlocks(10L);
+		MessageRewardBuffer.add(userID, 5L);
+		MessageRewardBuffer.add(userID, 7L);
+		assertEquals(22L, CommandBlocksHandle.getLotteryData(userID).getBlocks()); //自己看得到還沒加上的方塊
+		MessageRewardBuffer.flushAll();
+		assertEquals(22L, lotteryData.getBlocks()); //不會再加一次
+	}
+}
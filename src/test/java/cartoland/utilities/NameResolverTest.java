@@ -0,0 +1,97 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link NameResolver.Throttle}, which bounds how many names are fetched from Discord at once. The requests
+ * are finished by hand or by other threads instead of by JDA.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class NameResolverTest
+{
+	@Test
+	void requestsOverTheLimitWaitInOrder()
+	{
+		List<Integer> sent = new ArrayList<>();
+		NameResolver.Throttle<Integer> throttle = new NameResolver.Throttle<>(2, sent::add);
+		for (int i = 0; i < 5; i++)
+			throttle.submit(i);
+		assertEquals(List.of(0, 1), sent);
+
+		throttle.done(); //完成一個 就送出下一個
+		assertEquals(List.of(0, 1, 2), sent);
+		throttle.done();
+		throttle.done();
+		assertEquals(List.of(0, 1, 2, 3, 4), sent);
+
+		throttle.done();
+		throttle.done(); //全部都完成了 名額都空出來了
+		throttle.submit(5);
+		throttle.submit(6);
+		throttle.submit(7);
+		assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), sent);
+	}
+
+	@Test
+	void concurrentRequestsStayWithinTheLimit() throws Exception
+	{
+		final int concurrency = 4;
+		final int requests = 2000;
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		BlockingQueue<Integer> sent = new LinkedBlockingQueue<>();
+		NameResolver.Throttle<Integer> throttle = new NameResolver.Throttle<>(concurrency, item ->
+		{
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			sent.add(item);
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<?>> submitters = new ArrayList<>();
+			for (int t = 0; t < 2; t++)
+			{
+				int first = t * requests / 2;
+				submitters.add(executor.submit(() ->
+				{
+					for (int i = first; i < first + requests / 2; i++)
+						throttle.submit(i);
+				}));
+			}
+
+			boolean[] finished = new boolean[requests];
+			for (int i = 0; i < requests; i++) //像JDA的回呼一樣 在別的執行緒完成請求
+			{
+				Integer item = sent.poll(60L, TimeUnit.SECONDS);
+				assertNotNull(item, "a request was never sent");
+				assertFalse(finished[item], "sent twice: " + item);
+				finished[item] = true;
+				inFlight.decrementAndGet();
+				throttle.done();
+			}
+			for (Future<?> submitter : submitters)
+				submitter.get(60L, TimeUnit.SECONDS);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		assertTrue(maxInFlight.get() <= concurrency, "max in flight: " + maxInFlight.get());
+		assertTrue(sent.isEmpty());
+	}
+}
@@ -0,0 +1,100 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the version and the rows of {@link RankingHandle}, which the rendered pages of {@code /lottery ranking}
+ * rely on. The ranking is shared by every test of a run, so the ranks are compared with each other instead of with
+ * fixed numbers.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class RankingHandleTest
+{
+	private static final long BLOCKS = 1_000_000_000_000_000L; //比其他測試的使用者多 但不一定是最多的
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //日誌和帳本都會寫入檔案
+	}
+
+	private static CommandBlocksHandle.LotteryData user(int index, long blocks)
+	{
+		CommandBlocksHandle.LotteryData lotteryData = CommandBlocksHandle.getLotteryData(1_000_000_000_000_013L + index * 1000L);
+		lotteryData.setBlocks(blocks);
+		return lotteryData;
+	}
+
+	@Test
+	void versionMovesOnlyWhenTheRankingChanges()
+	{
+		CommandBlocksHandle.LotteryData lotteryData = user(0, 500L);
+		long version = RankingHandle.getVersion();
+		assertEquals(version, RankingHandle.getVersion()); //沒有變動
+
+		lotteryData.addBlocks(1L, CommandBlocksLedger.MESSAGE);
+		long changed = RankingHandle.getVersion();
+		assertTrue(changed > version);
+
+		lotteryData.addBlocks(1L, CommandBlocksLedger.MESSAGE);
+		lotteryData.subBlocks(1L, CommandBlocksLedger.BET_LOSS); //讀取之前又變回來了
+		assertEquals(changed, RankingHandle.getVersion());
+
+		lotteryData.setName("ranking test " + changed);
+		long renamed = RankingHandle.getVersion();
+		assertTrue(renamed > changed); //名字也會顯示在排名上
+		lotteryData.setName("ranking test " + changed); //名字沒變
+		assertEquals(renamed, RankingHandle.getVersion());
+
+		user(1, 0L); //新的使用者
+		assertTrue(RankingHandle.getVersion() > renamed);
+	}
+
+	@Test
+	void tiedUsersShareACompetitionRank()
+	{
+		CommandBlocksHandle.LotteryData first = user(10, BLOCKS + 3L);
+		CommandBlocksHandle.LotteryData tied1 = user(11, BLOCKS + 2L);
+		CommandBlocksHandle.LotteryData tied2 = user(12, BLOCKS + 2L);
+		CommandBlocksHandle.LotteryData last = user(13, BLOCKS + 1L);
+
+		List<RankingHandle.Row> rows = RankingHandle.getRankingAround(tied1, 1);
+		int position = RankingHandle.positionOf(first);
+		assertEquals(position + 1, RankingHandle.positionOf(tied1)); //同分的依照ID排序
+		assertEquals(position + 2, RankingHandle.positionOf(tied2));
+		assertEquals(position + 3, RankingHandle.positionOf(last));
+
+		assertEquals(3, rows.size());
+		int rank = rows.get(0).getRank();
+		assertSame(first, rows.get(0).getLotteryData());
+		assertEquals(rank + 1, rows.get(1).getRank());
+		assertEquals(rank + 1, rows.get(2).getRank()); //"1224"
+		assertEquals(BLOCKS + 2L, rows.get(2).getBlocks());
+		assertEquals(rank + 1, RankingHandle.competitionRankOf(BLOCKS + 2L));
+
+		List<RankingHandle.Row> page = RankingHandle.getRanking(position + 2, position + 4); //從同分的第二位開始
+		assertSame(tied2, page.get(0).getLotteryData());
+		assertEquals(rank + 1, page.get(0).getRank()); //不是position + 3
+		assertEquals(rank + 3, page.get(1).getRank());
+	}
+
+	@Test
+	void rowsKeepTheBlocksTheyWereRankedBy()
+	{
+		CommandBlocksHandle.LotteryData lotteryData = user(20, BLOCKS + 100L);
+		List<RankingHandle.Row> rows = RankingHandle.getRankingAround(lotteryData, 0);
+		lotteryData.addBlocks(50L, CommandBlocksLedger.MESSAGE);
+
+		assertEquals(1, rows.size());
+		assertEquals(BLOCKS + 100L, rows.get(0).getBlocks()); //已經建立的頁面不會改變
+		assertEquals(BLOCKS + 150L, RankingHandle.getRankingAround(lotteryData, 0).get(0).getBlocks());
+	}
+}
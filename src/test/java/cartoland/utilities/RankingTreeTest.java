@@ -0,0 +1,139 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link RankingTree}, by doing the same random operations on a list that is sorted every time and comparing
+ * them.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class RankingTreeTest
+{
+	private static final Comparator<long[]> RANKING_ORDER = Comparator.<long[]>comparingLong(entry -> -entry[1]).thenComparingLong(entry -> entry[0]); //分數高的在前 同分時ID小的在前
+
+	private static List<Long> sortedIDs(Map<Long, Long> scores)
+	{
+		List<long[]> entries = new ArrayList<>(scores.size());
+		scores.forEach((id, score) -> entries.add(new long[] { id, score }));
+		entries.sort(RANKING_ORDER);
+		List<Long> ids = new ArrayList<>(entries.size());
+		for (long[] entry : entries)
+			ids.add(entry[0]);
+		return ids;
+	}
+
+	private static void assertSameRanking(Map<Long, Long> scores, RankingTree<Long> tree)
+	{
+		List<Long> expected = sortedIDs(scores);
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.isEmpty());
+		assertEquals(expected, tree.range(0, tree.size()));
+		for (int rank = 0; rank < expected.size(); rank++)
+		{
+			long id = expected.get(rank);
+			assertEquals(rank, tree.rankOf(id, scores.get(id)));
+		}
+	}
+
+	@Test
+	void randomOperationsMatchSortedList()
+	{
+		SplittableRandom random = new SplittableRandom(10L);
+		Map<Long, Long> scores = new HashMap<>();
+		RankingTree<Long> tree = new RankingTree<>();
+		for (int i = 0; i < 20000; i++)
+		{
+			long id = random.nextInt(2000);
+			long score = random.nextInt(50); //很多人同分
+			Long oldScore = scores.get(id);
+			switch (random.nextInt(3))
+			{
+				case 0 ->
+				{
+					if (oldScore == null)
+					{
+						scores.put(id, score);
+						tree.insert(id, score, id);
+					}
+					else
+					{
+						scores.put(id, score);
+						tree.update(id, oldScore, score, id);
+					}
+				}
+				case 1 ->
+				{
+					assertEquals(oldScore != null, tree.remove(id, oldScore != null ? oldScore : score));
+					scores.remove(id);
+				}
+				default -> assertEquals(oldScore != null ? sortedIDs(scores).indexOf(id) : -1, tree.rankOf(id, oldScore != null ? oldScore : score));
+			}
+			if (i % 1000 == 0)
+				assertSameRanking(scores, tree);
+		}
+		assertSameRanking(scores, tree);
+
+		tree.clear();
+		assertSameRanking(Map.of(), tree);
+	}
+
+	@Test
+	void rangeMatchesSubList()
+	{
+		SplittableRandom random = new SplittableRandom(11L);
+		Map<Long, Long> scores = new HashMap<>();
+		RankingTree<Long> tree = new RankingTree<>();
+		for (long id = 1L; id <= 500L; id++)
+		{
+			long score = random.nextLong(-1000L, 1000L);
+			scores.put(id, score);
+			tree.insert(id, score, id);
+		}
+		List<Long> expected = sortedIDs(scores);
+		for (int i = 0; i < 2000; i++)
+		{
+			int from = random.nextInt(-10, 520);
+			int to = random.nextInt(-10, 520);
+			int clampedFrom = Math.max(from, 0);
+			int clampedTo = Math.min(to, expected.size());
+			assertEquals(clampedFrom < clampedTo ? expected.subList(clampedFrom, clampedTo) : List.of(), tree.range(from, to));
+		}
+	}
+
+	@Test
+	void countAboveMatchesLinearCount()
+	{
+		SplittableRandom random = new SplittableRandom(12L);
+		Map<Long, Long> scores = new HashMap<>();
+		RankingTree<Long> tree = new RankingTree<>();
+		for (long id = 1L; id <= 1000L; id++)
+		{
+			long score = random.nextInt(100);
+			scores.put(id, score);
+			tree.insert(id, score, id);
+		}
+		for (long score = -1L; score <= 100L; score++)
+		{
+			long threshold = score;
+			assertEquals(scores.values().stream().filter(s -> s > threshold).count(), tree.countAbove(score));
+		}
+	}
+
+	@Test
+	void removingWithWrongScoreFindsNothing()
+	{
+		RankingTree<Long> tree = new RankingTree<>();
+		tree.insert(1L, 10L, 1L);
+		assertFalse(tree.remove(1L, 11L));
+		assertEquals(-1, tree.rankOf(1L, 11L));
+		assertEquals(1, tree.size());
+		assertTrue(tree.remove(1L, 10L));
+		assertTrue(tree.isEmpty());
+	}
+}
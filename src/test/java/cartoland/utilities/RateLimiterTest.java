@@ -0,0 +1,92 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link RateLimiter}, with a clock that only moves when a test moves it.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class RateLimiterTest
+{
+	private static final long USER_A = 1_000_000_000_000_022L;
+	private static final long USER_B = 1_000_000_000_001_022L;
+	private static final long USER_C = 1_000_000_000_002_022L;
+
+	private final long[] time = { 0L }; //奈秒
+
+	private RateLimiter limiter(long start)
+	{
+		time[0] = start;
+		return new RateLimiter(3, 1000L, () -> time[0]);
+	}
+
+	private void advance(long milliseconds)
+	{
+		time[0] += milliseconds * 1_000_000L;
+	}
+
+	@Test
+	void fullBucketAllowsABurst()
+	{
+		RateLimiter limiter = limiter(0L);
+		for (int i = 0; i < 3; i++)
+			assertEquals(0L, limiter.tryAcquire(USER_A));
+		assertEquals(1000L, limiter.tryAcquire(USER_A)); //三個token都用完了
+		assertEquals(0L, limiter.tryAcquire(USER_B)); //每個使用者有自己的桶子
+	}
+
+	@Test
+	void waitTimeCountsDown()
+	{
+		RateLimiter limiter = limiter(0L);
+		for (int i = 0; i < 3; i++)
+			limiter.tryAcquire(USER_A);
+		advance(400L);
+		assertEquals(600L, limiter.tryAcquire(USER_A));
+		time[0] += 1L; //不足一毫秒也要進位
+		assertEquals(600L, limiter.tryAcquire(USER_A));
+		advance(600L);
+		assertEquals(0L, limiter.tryAcquire(USER_A));
+	}
+
+	@Test
+	void tokensComeBackLazily()
+	{
+		RateLimiter limiter = limiter(Long.MAX_VALUE - 1_500_000_000L); //奈秒溢位也不影響
+		for (int i = 0; i < 3; i++)
+			limiter.tryAcquire(USER_A);
+		advance(2000L); //得到兩個token
+		assertEquals(0L, limiter.tryAcquire(USER_A));
+		assertEquals(0L, limiter.tryAcquire(USER_A));
+		assertEquals(1000L, limiter.tryAcquire(USER_A));
+
+		advance(60000L); //桶子最多只會滿
+		for (int i = 0; i < 3; i++)
+			assertEquals(0L, limiter.tryAcquire(USER_A));
+		assertEquals(1000L, limiter.tryAcquire(USER_A));
+	}
+
+	@Test
+	void fullBucketsAreSwept()
+	{
+		RateLimiter limiter = limiter(0L);
+		limiter.tryAcquire(USER_A); //1秒後就滿了
+		advance(2500L);
+		for (int i = 0; i < 3; i++)
+			limiter.tryAcquire(USER_B); //5.5秒才會滿
+		assertEquals(2, limiter.size());
+
+		advance(600L); //距離上次清理超過3秒
+		assertEquals(0L, limiter.tryAcquire(USER_C));
+		assertEquals(2, limiter.size()); //USER_A被清掉 加入了USER_C
+		assertEquals(400L, limiter.tryAcquire(USER_B)); //還沒滿的桶子留著
+
+		advance(60000L);
+		limiter.tryAcquire(USER_A);
+		assertEquals(1, limiter.size());
+	}
+}
@@ -0,0 +1,75 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of how {@link RoleSyncHandle} picks the users to sync every second, with a pending map of its own instead of
+ * the one that JDA events fill.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class RoleSyncHandleTest
+{
+	private static final long NOW = 1_000_000L;
+
+	private static Map<Long, Long> pending(long... usersAndTimes)
+	{
+		Map<Long, Long> pending = new ConcurrentHashMap<>();
+		for (int i = 0; i < usersAndTimes.length; i += 2)
+			pending.put(usersAndTimes[i], usersAndTimes[i + 1]);
+		return pending;
+	}
+
+	@Test
+	void usersStillChangingAreLeftForLater()
+	{
+		Map<Long, Long> pending = pending(1L, NOW - 20000L, 2L, NOW - 5000L, 3L, NOW);
+		List<Long> synced = new ArrayList<>();
+		assertEquals(1, RoleSyncHandle.drain(pending, NOW - 10000L, 5, userID -> synced.add(userID)));
+		assertEquals(List.of(1L), synced);
+		assertEquals(pending(2L, NOW - 5000L, 3L, NOW), pending);
+	}
+
+	@Test
+	void onlySentRequestsCountTowardsTheRate()
+	{
+		Map<Long, Long> pending = new ConcurrentHashMap<>();
+		for (long userID = 1L; userID <= 20L; userID++)
+			pending.put(userID, 0L);
+		List<Long> synced = new ArrayList<>();
+		//雙數的使用者身分組已經是對的 不必送出請求
+		assertEquals(3, RoleSyncHandle.drain(pending, NOW, 3, userID -> synced.add(userID) && userID % 2 == 1L));
+		assertEquals(3L, synced.stream().filter(userID -> userID % 2 == 1L).count());
+		assertEquals(20 - synced.size(), pending.size()); //剩下的下一秒再處理
+		for (long userID : synced)
+			assertFalse(pending.containsKey(userID));
+
+		while (!pending.isEmpty()) //每一秒都最多送出3個請求
+			assertTrue(RoleSyncHandle.drain(pending, NOW, 3, userID -> synced.add(userID)) <= 3);
+		assertEquals(20, synced.size()); //每個使用者都只處理一次
+		assertEquals(20L, synced.stream().distinct().count());
+	}
+
+	@Test
+	void aUserThatChangedAgainIsNotSynced()
+	{
+		Map<Long, Long> pending = pending(1L, 0L, 2L, 0L);
+		List<Long> synced = new ArrayList<>();
+		RoleSyncHandle.drain(pending, NOW, 5, userID ->
+		{
+			synced.add(userID);
+			pending.put(3L - userID, NOW + 1L); //同步其中一位時 另一位又變動了
+			return true;
+		});
+		assertEquals(1, synced.size());
+		assertEquals(Map.of(3L - synced.get(0), NOW + 1L), pending); //等到不再變動時才處理
+	}
+}
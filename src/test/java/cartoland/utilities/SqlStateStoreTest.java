@@ -0,0 +1,153 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link SqlStateStore}, with a database in a temporary directory. Every test uses its own tables, and closes
+ * every store it opened, so that the next store reads what was committed.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class SqlStateStoreTest
+{
+	@TempDir
+	static Path directory;
+	private static String url;
+
+	@BeforeAll
+	static void createDatabase() throws IOException
+	{
+		TestDirectories.create(); //匯入時會讀取serialize/ 也會寫log
+		url = "jdbc:h2:" + directory.resolve("cartoland").toAbsolutePath();
+		System.setProperty("cartoland.state.url", url); //SqlStateStore載入前設定
+	}
+
+	private static void writeStrings(String table, LongMap<String> map) throws IOException
+	{
+		try (ObjectOutputStream stream = new ObjectOutputStream(Files.newOutputStream(Paths.get("serialize/" + table + ".ser"))))
+		{
+			stream.writeObject(map);
+		}
+	}
+
+	private static void execute(String sql) throws SQLException
+	{
+		try (Connection connection = DriverManager.getConnection(url); Statement statement = connection.createStatement())
+		{
+			statement.execute(sql);
+		}
+	}
+
+	@Test
+	void rowsSurviveARestart()
+	{
+		SqlStateStore store = new SqlStateStore();
+		assertTrue(store.loadStrings("sql_restart").isEmpty());
+		store.putString("sql_restart", 1L, "one");
+		store.putString("sql_restart", 2L, "two");
+		store.putString("sql_restart", 2L, null); //同一批裡先寫入再刪除
+		store.putString("sql_restart", 3L, "three");
+		store.flush();
+		store.putString("sql_restart", 3L, null); //上一批已經寫入了
+		store.close();
+
+		SqlStateStore reopened = new SqlStateStore();
+		LongMap<String> map = reopened.loadStrings("sql_restart");
+		reopened.close();
+		assertEquals(1, map.size());
+		assertEquals("one", map.get(1L));
+	}
+
+	@Test
+	void filesAreImportedOnce() throws IOException
+	{
+		LongMap<String> file = new LongMap<>();
+		file.put(10L, "ten");
+		writeStrings("sql_import", file);
+
+		SqlStateStore store = new SqlStateStore();
+		assertEquals("ten", store.loadStrings("sql_import").get(10L));
+		store.putString("sql_import", 10L, "changed");
+		store.close();
+
+		SqlStateStore reopened = new SqlStateStore();
+		assertEquals("changed", reopened.loadStrings("sql_import").get(10L)); //沒有再從檔案匯入一次
+		reopened.close();
+	}
+
+	@Test
+	void interruptedImportIsDoneAgain() throws IOException, SQLException
+	{
+		new SqlStateStore().close(); //先建立imported_tables
+		execute("CREATE TABLE sql_interrupted (id BIGINT PRIMARY KEY, content VARCHAR NOT NULL)");
+		execute("INSERT INTO sql_interrupted (id, content) VALUES (9, 'left over')"); //匯入到一半就當機了
+		LongMap<String> file = new LongMap<>();
+		file.put(1L, "first");
+		file.put(2L, "second");
+		writeStrings("sql_interrupted", file);
+
+		SqlStateStore store = new SqlStateStore();
+		LongMap<String> map = store.loadStrings("sql_interrupted");
+		store.close();
+		assertEquals(2, map.size());
+
+		SqlStateStore reopened = new SqlStateStore();
+		map = reopened.loadStrings("sql_interrupted");
+		reopened.close();
+		assertEquals(2, map.size());
+		assertEquals("first", map.get(1L));
+		assertNull(map.get(9L)); //匯入到一半的資料被清掉了
+	}
+
+	@Test
+	void tablesOfAnOlderDatabaseCountAsImported() throws IOException, SQLException
+	{
+		SqlStateStore store = new SqlStateStore();
+		store.loadStrings("sql_legacy");
+		store.putString("sql_legacy", 5L, "kept");
+		store.close();
+		execute("DROP TABLE imported_tables"); //還沒有imported_tables的舊版資料庫
+		LongMap<String> file = new LongMap<>();
+		file.put(6L, "stale");
+		writeStrings("sql_legacy", file);
+
+		SqlStateStore reopened = new SqlStateStore();
+		LongMap<String> map = reopened.loadStrings("sql_legacy");
+		reopened.close();
+		assertEquals(1, map.size());
+		assertEquals("kept", map.get(5L)); //沒有用舊的檔案蓋掉
+	}
+
+	@Test
+	void noIndexOnTheCommandBlocks() throws SQLException
+	{
+		execute("CREATE TABLE IF NOT EXISTS lottery_data (user_id BIGINT PRIMARY KEY, blocks BIGINT NOT NULL)");
+		execute("CREATE INDEX IF NOT EXISTS lottery_data_blocks ON lottery_data (blocks DESC)"); //舊版建立的索引
+		SqlStateStore store = new SqlStateStore();
+		store.dropIndex("lottery_data_blocks");
+		store.close();
+
+		try (Connection connection = DriverManager.getConnection(url);
+			 ResultSet result = connection.getMetaData().getIndexInfo(null, connection.getSchema(), "LOTTERY_DATA", false, false))
+		{
+			while (result.next())
+				assertNotEquals("LOTTERY_DATA_BLOCKS", result.getString("INDEX_NAME"));
+		}
+	}
+}
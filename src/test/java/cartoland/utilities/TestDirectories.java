@@ -0,0 +1,39 @@
+package cartoland.utilities;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Creates {@code serialize/} and {@code logs/} in the working directory of the tests, which Maven sets to
+ * {@code target/test-run}, so that the handles can persist and log as they do in production. The first call of a test
+ * run empties {@code serialize/}, otherwise the journal and the ledger would be replayed and grow with every run.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+final class TestDirectories
+{
+	private TestDirectories()
+	{
+		throw new AssertionError(IDs.YOU_SHALL_NOT_ACCESS);
+	}
+
+	private static boolean created = false;
+
+	static synchronized void create() throws IOException
+	{
+		if (created) //其他測試可能已經打開了裡面的檔案
+			return;
+		Path serialize = Files.createDirectories(Paths.get("serialize"));
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(serialize))
+		{
+			for (Path file : files)
+				Files.delete(file);
+		}
+		Files.createDirectories(Paths.get("logs"));
+		created = true;
+	}
+}
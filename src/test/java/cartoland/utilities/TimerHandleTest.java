@@ -0,0 +1,133 @@
+package cartoland.utilities;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of how {@link TimerHandle} catches up the runs that a timer event missed, and of when it lifts temporary bans.
+ * The catch-up tests only call the pure helpers, and the bans are far in the future, so nothing actually runs.
+ *
+ * @since 2.2
+ * @author Alex Cai
+ */
+class TimerHandleTest
+{
+	private static final ZoneId UTC = ZoneId.of("UTC");
+	private static final CronExpression HOURLY = new CronExpression("0 * * * *");
+	private static final LocalDateTime NOW = LocalDateTime.of(2024, 1, 3, 0, 10);
+	private static final long HOUR = 3600000L;
+	private static final long SPACING = 30000L;
+	private static final long SERVER_ID = 1_000_000_000_999_023L;
+
+	@BeforeAll
+	static void createDirectories() throws IOException
+	{
+		TestDirectories.create(); //載入TimerHandle時會讀取serialize/
+	}
+
+	private static long millis(LocalDateTime time)
+	{
+		return CronExpression.toEpochMilli(time, UTC);
+	}
+
+	@Test
+	void nothingMissed()
+	{
+		assertEquals(0, TimerHandle.missedTimes(HOURLY, millis(NOW.withMinute(0)), NOW, UTC).length);
+		assertEquals(0, TimerHandle.planCatchUp(new long[0], TimerHandle.CATCH_UP_ALL, 0L, SPACING, Long.MAX_VALUE).length);
+		assertEquals(0, TimerHandle.planCatchUp(new long[0], TimerHandle.CATCH_UP_ONCE, 0L, SPACING, Long.MAX_VALUE).length);
+	}
+
+	@Test
+	void missedTimesAreCapped()
+	{
+		LocalDateTime lastRun = NOW.withMinute(0).minusHours(48L);
+		long[] missed = TimerHandle.missedTimes(HOURLY, millis(lastRun), NOW, UTC);
+		assertEquals(TimerHandle.MAX_CATCH_UP, missed.length);
+		assertEquals(millis(NOW.withMinute(0)), missed[missed.length - 1]); //留下的是最後幾次
+		for (int i = 1; i < missed.length; i++)
+			assertEquals(HOUR, missed[i] - missed[i - 1]); //由舊到新
+
+		long[] few = TimerHandle.missedTimes(HOURLY, millis(NOW.withMinute(0).minusHours(3L)), NOW, UTC);
+		assertArrayEquals(new long[] { millis(NOW.withMinute(0).minusHours(2L)), millis(NOW.withMinute(0).minusHours(1L)), millis(NOW.withMinute(0)) }, few);
+	}
+
+	@Test
+	void onceCatchesUpTheNewest()
+	{
+		long[] missed = { 1000L, 2000L, 3000L };
+		assertArrayEquals(new long[] { 3000L, 50000L }, TimerHandle.planCatchUp(missed, TimerHandle.CATCH_UP_ONCE, 50000L, SPACING, Long.MAX_VALUE));
+	}
+
+	@Test
+	void allCatchesUpEveryMissedTimeApart()
+	{
+		long[] missed = { 1000L, 2000L, 3000L };
+		assertArrayEquals(new long[] { 1000L, 50000L, 2000L, 80000L, 3000L, 110000L },
+						  TimerHandle.planCatchUp(missed, TimerHandle.CATCH_UP_ALL, 50000L, SPACING, Long.MAX_VALUE));
+	}
+
+	@Test
+	void runsCloseToTheNextRegularRunAreSkipped()
+	{
+		long[] missed = { 1000L, 2000L, 3000L };
+		//第二次補執行在110000 離正常執行的130000只差20000 比間隔還短
+		assertArrayEquals(new long[] { 1000L, 50000L, 2000L, 80000L },
+						  TimerHandle.planCatchUp(missed, TimerHandle.CATCH_UP_ALL, 50000L, SPACING, 130000L));
+		assertArrayEquals(new long[] { 1000L, 50000L, 2000L, 80000L, 3000L, 110000L },
+						  TimerHandle.planCatchUp(missed, TimerHandle.CATCH_UP_ALL, 50000L, SPACING, 140000L)); //剛好一個間隔
+		assertEquals(0, TimerHandle.planCatchUp(missed, TimerHandle.CATCH_UP_ONCE, 50000L, SPACING, 60000L).length);
+	}
+
+	@Test
+	void legacyHoursAreConverted()
+	{
+		assertEquals(5L * HOUR, TimerHandle.toPardonMillis(5L));
+		assertEquals(474_000L * HOUR, TimerHandle.toPardonMillis(474_000L)); //2024年左右的小時數
+		assertEquals(1_700_000_000_000L, TimerHandle.toPardonMillis(1_700_000_000_000L)); //已經是毫秒了
+		assertEquals(Long.MAX_VALUE, TimerHandle.toPardonMillis(Long.MAX_VALUE));
+	}
+
+	@Test
+	void banIsLiftedAtItsDeadline()
+	{
+		long userID = 1_000_000_000_000_023L;
+		long deadline = System.currentTimeMillis() + HOUR;
+		TimerHandle.addTempBan(userID, new long[] { deadline, SERVER_ID });
+		assertTrue(TimerHandle.isPardonScheduled(userID));
+
+		assertEquals(0L, TimerHandle.takeExpiredBan(userID, deadline - 1L)); //提早執行的話 重新排程
+		assertTrue(TimerHandle.isPardonScheduled(userID));
+		assertEquals(SERVER_ID, TimerHandle.takeExpiredBan(userID, deadline));
+		assertFalse(TimerHandle.isPardonScheduled(userID));
+		assertEquals(0L, TimerHandle.takeExpiredBan(userID, deadline)); //只會解除一次
+	}
+
+	@Test
+	void banningAgainReplacesTheDeadline()
+	{
+		long userID = 1_000_000_000_001_023L;
+		long deadline = System.currentTimeMillis() + HOUR;
+		TimerHandle.addTempBan(userID, new long[] { deadline, SERVER_ID });
+		TimerHandle.addTempBan(userID, new long[] { deadline + HOUR, SERVER_ID });
+
+		assertEquals(0L, TimerHandle.takeExpiredBan(userID, deadline)); //舊的時間已經不算了
+		assertEquals(SERVER_ID, TimerHandle.takeExpiredBan(userID, deadline + HOUR));
+	}
+
+	@Test
+	void endlessBansAreNeverScheduled()
+	{
+		long userID = 1_000_000_000_002_023L;
+		TimerHandle.addTempBan(userID, new long[] { Long.MAX_VALUE, SERVER_ID });
+		assertFalse(TimerHandle.isPardonScheduled(userID));
+		assertEquals(0L, TimerHandle.takeExpiredBan(userID, System.currentTimeMillis()));
+		assertEquals(SERVER_ID, TimerHandle.takeExpiredBan(userID, Long.MAX_VALUE)); //清掉測試的資料
+	}
+}